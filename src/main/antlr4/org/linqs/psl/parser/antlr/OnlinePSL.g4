@@ -29,6 +29,7 @@ action
     |   fixAtom
     |   updateObservation
     |   getAtom
+    |   getAtoms
     |   addRule
     |   activateRule
     |   deleteRule
@@ -37,6 +38,7 @@ action
     |   stop
     |   sync
     |   writeInferredPredicates
+    |   loadAtoms
     ;
 
 addAtom
@@ -79,6 +81,11 @@ getAtom
     :   GET_ATOM atom
     ;
 
+// Variables in the atom are wildcards.
+getAtoms
+    :   GET_ATOMS atom
+    ;
+
 stop
     :   STOP
     ;
@@ -95,6 +102,10 @@ writeInferredPredicates
     :   WRITE_INFERRED_PREDICATES STRING_LITERAL
     ;
 
+loadAtoms
+    :   LOAD_ATOMS PARTITION predicate STRING_LITERAL
+    ;
+
 PARTITION
     :   READ_PARTITION
     |   WRITE_PARTITION
@@ -133,6 +144,14 @@ GET_ATOM
     :   G E T A T O M
     ;
 
+GET_ATOMS
+    :   G E T A T O M S
+    ;
+
+LOAD_ATOMS
+    :   L O A D A T O M S
+    ;
+
 FIX_ATOM
     :   F I X A T O M
     ;
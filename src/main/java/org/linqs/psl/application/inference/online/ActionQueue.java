@@ -0,0 +1,514 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
+import org.linqs.psl.application.inference.online.messages.actions.controls.WriteInferredPredicates;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomActionBatch;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtoms;
+import org.linqs.psl.application.inference.online.messages.actions.model.Subscribe;
+import org.linqs.psl.application.inference.online.messages.actions.model.Unsubscribe;
+import org.linqs.psl.application.inference.online.messages.actions.template.TemplateAction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The actions waiting for the inference thread.
+ *
+ * By default, this is a plain FIFO.
+ * Otherwise, every source (client connection) gets its own FIFO, so a source's actions are never reordered,
+ * and the sources take turns with deficit round robin:
+ * on its turn, a source can execute actions up to its weight (plus any credit left from earlier turns),
+ * where an AtomActionBatch costs its size and every other action costs one.
+ *
+ * With lanes, sources are also grouped by the kind of the action at the front of their queue:
+ * control (Exit, Stop, Sync, WriteInferredPredicates), read, template, and mutation lanes (in that priority).
+ * The lanes are served by weighted round robin:
+ * each round, every waiting lane gets to serve up to its weight in actions (higher priority lanes first).
+ * Since every weight is positive, no waiting lane (or source) is starved.
+ */
+class ActionQueue {
+    public static final int CONTROL_LANE = 0;
+    public static final int READ_LANE = 1;
+    public static final int TEMPLATE_LANE = 2;
+    public static final int MUTATION_LANE = 3;
+    public static final int NUM_LANES = 4;
+
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private final boolean perSource;
+    private final int[] laneWeights;
+    private final int[] laneCredits;
+
+    // The sources with waiting actions, by the lane of their next action (in turn order).
+    private final List<ArrayDeque<SourceQueue>> lanes;
+
+    // Every known source (even without waiting actions), until it is removed.
+    private final Map<Object, SourceQueue> sources;
+
+    // The only queue when not queueing per source.
+    private final SourceQueue sharedQueue;
+
+    private int size;
+
+    /**
+     * A single FIFO.
+     */
+    public ActionQueue() {
+        this(null, false);
+    }
+
+    /**
+     * @param laneWeights the weights of the lanes (one per lane), or null for no lanes.
+     * @param perSource whether to give every source its own queue. Lanes always queue per source.
+     */
+    public ActionQueue(int[] laneWeights, boolean perSource) {
+        int numLanes = 1;
+        if (laneWeights != null) {
+            if (laneWeights.length != NUM_LANES) {
+                throw new IllegalArgumentException(String.format("Expected %d lane weights, got %d.", NUM_LANES, laneWeights.length));
+            }
+
+            for (int weight : laneWeights) {
+                if (weight <= 0) {
+                    throw new IllegalArgumentException("Lane weights must be positive, got: " + weight + ".");
+                }
+            }
+
+            numLanes = NUM_LANES;
+            perSource = true;
+        } else {
+            laneWeights = new int[]{1};
+        }
+
+        this.perSource = perSource;
+        this.laneWeights = laneWeights.clone();
+        laneCredits = laneWeights.clone();
+
+        lanes = new ArrayList<ArrayDeque<SourceQueue>>(numLanes);
+        for (int i = 0; i < numLanes; i++) {
+            lanes.add(new ArrayDeque<SourceQueue>());
+        }
+
+        sources = new LinkedHashMap<Object, SourceQueue>();
+        sharedQueue = new SourceQueue(null, DEFAULT_WEIGHT);
+        size = 0;
+    }
+
+    /**
+     * Get the lane for a kind of action.
+     */
+    public static int getLane(OnlineMessage action) {
+        if (action instanceof Exit || action instanceof Stop || action instanceof Sync || action instanceof WriteInferredPredicates) {
+            return CONTROL_LANE;
+        }
+
+        if (action instanceof GetAtom || action instanceof GetAtoms || action instanceof Subscribe || action instanceof Unsubscribe) {
+            return READ_LANE;
+        }
+
+        if (action instanceof TemplateAction) {
+            return TEMPLATE_LANE;
+        }
+
+        return MUTATION_LANE;
+    }
+
+    /**
+     * The share of a source's turn that an action uses.
+     */
+    public static int getCost(OnlineMessage action) {
+        if (action instanceof AtomActionBatch) {
+            return Math.max(1, ((AtomActionBatch)action).size());
+        }
+
+        return 1;
+    }
+
+    /**
+     * Name a source and set its weight (how many actions it can execute per turn).
+     */
+    public synchronized void setSource(Object source, String name, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Source weights must be positive, got: " + weight + ".");
+        }
+
+        SourceQueue sourceQueue = getSourceQueue(source);
+        sourceQueue.name = name;
+        sourceQueue.weight = weight;
+    }
+
+    /**
+     * Forget a source (e.g. after its connection closed).
+     * Any actions from it that are still waiting will still be taken.
+     * Returns the final stats of the source, or null if it was not known.
+     */
+    public synchronized SourceStats removeSource(Object source) {
+        SourceQueue sourceQueue = sources.remove(source);
+        if (sourceQueue == null) {
+            return null;
+        }
+
+        return sourceQueue.getStats();
+    }
+
+    /**
+     * Add an action only if the queue holds fewer than capacity actions.
+     * The check and the add happen under the same lock, so concurrent callers cannot overrun the capacity.
+     * A non-positive capacity means no limit.
+     * Returns false if the action was not added.
+     */
+    public synchronized boolean offer(Object source, OnlineMessage action, int capacity) {
+        if (capacity > 0 && size >= capacity) {
+            return false;
+        }
+
+        put(source, action);
+        return true;
+    }
+
+    public synchronized void put(Object source, OnlineMessage action) {
+        SourceQueue sourceQueue = getSourceQueue(source);
+
+        sourceQueue.actions.add(new Entry(action, System.currentTimeMillis()));
+        sourceQueue.peakDepth = Math.max(sourceQueue.peakDepth, sourceQueue.actions.size());
+        size++;
+
+        // The source just became active.
+        if (sourceQueue.actions.size() == 1) {
+            lanes.get(getSourceLane(sourceQueue)).add(sourceQueue);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Wait for the next action.
+     */
+    public synchronized OnlineMessage take() throws InterruptedException {
+        while (size == 0) {
+            wait();
+        }
+
+        return poll();
+    }
+
+    /**
+     * Wait (at most timeoutMS) for the next action.
+     * Returns null if there was none in time.
+     */
+    public synchronized OnlineMessage poll(long timeoutMS) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMS;
+
+        while (size == 0) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+
+            wait(remaining);
+        }
+
+        return poll();
+    }
+
+    /**
+     * Get the next action without waiting, or null if there is none.
+     */
+    public synchronized OnlineMessage poll() {
+        int lane = selectLane();
+        if (lane == -1) {
+            return null;
+        }
+
+        return serve(lane);
+    }
+
+    /**
+     * Move waiting actions into the given list (up to maxActions in the list) in the order they would be taken.
+     * Stops before an Exit and after a Stop.
+     */
+    public synchronized void drainTo(List<OnlineMessage> actions, int maxActions) {
+        while (actions.size() < maxActions) {
+            int lane = selectLane();
+            if (lane == -1) {
+                return;
+            }
+
+            OnlineMessage nextAction = lanes.get(lane).peek().actions.peek().action;
+            if (nextAction instanceof Exit) {
+                return;
+            }
+
+            actions.add(serve(lane));
+
+            if (nextAction instanceof Stop) {
+                return;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        for (ArrayDeque<SourceQueue> lane : lanes) {
+            for (SourceQueue sourceQueue : lane) {
+                sourceQueue.reset();
+            }
+
+            lane.clear();
+        }
+
+        sharedQueue.reset();
+        size = 0;
+    }
+
+    /**
+     * Get the stats of all known sources.
+     */
+    public synchronized List<SourceStats> getSourceStats() {
+        List<SourceStats> stats = new ArrayList<SourceStats>(sources.size());
+        for (SourceQueue sourceQueue : sources.values()) {
+            stats.add(sourceQueue.getStats());
+        }
+
+        return stats;
+    }
+
+    private SourceQueue getSourceQueue(Object source) {
+        if (!perSource) {
+            return sharedQueue;
+        }
+
+        SourceQueue sourceQueue = sources.get(source);
+        if (sourceQueue == null) {
+            sourceQueue = new SourceQueue(null, DEFAULT_WEIGHT);
+            sources.put(source, sourceQueue);
+        }
+
+        return sourceQueue;
+    }
+
+    private int getSourceLane(SourceQueue sourceQueue) {
+        if (lanes.size() == 1) {
+            return 0;
+        }
+
+        return getLane(sourceQueue.actions.peek().action);
+    }
+
+    /**
+     * Pick the lane to serve next, or -1 if there are no waiting actions.
+     * The source at the front of the lane is the one that can be served (see serve()).
+     */
+    private int selectLane() {
+        if (size == 0) {
+            return -1;
+        }
+
+        int lane = -1;
+        for (int i = 0; i < lanes.size(); i++) {
+            if (laneCredits[i] > 0 && !lanes.get(i).isEmpty()) {
+                lane = i;
+                break;
+            }
+        }
+
+        if (lane == -1) {
+            // Every waiting lane used up its share, start a new round.
+            System.arraycopy(laneWeights, 0, laneCredits, 0, laneWeights.length);
+
+            for (int i = 0; i < lanes.size(); i++) {
+                if (!lanes.get(i).isEmpty()) {
+                    lane = i;
+                    break;
+                }
+            }
+        }
+
+        // Deficit round robin: move to the first source that can afford its next action.
+        ArrayDeque<SourceQueue> sourceQueues = lanes.get(lane);
+        while (true) {
+            SourceQueue sourceQueue = sourceQueues.peek();
+
+            if (!sourceQueue.inTurn) {
+                sourceQueue.deficit += sourceQueue.weight;
+                sourceQueue.inTurn = true;
+            }
+
+            if (getCost(sourceQueue.actions.peek().action) <= sourceQueue.deficit) {
+                return lane;
+            }
+
+            // End of this source's turn.
+            sourceQueues.poll();
+            sourceQueue.inTurn = false;
+            sourceQueues.add(sourceQueue);
+        }
+    }
+
+    /**
+     * Take the next action of the source at the front of a lane (picked by selectLane()).
+     */
+    private OnlineMessage serve(int lane) {
+        ArrayDeque<SourceQueue> sourceQueues = lanes.get(lane);
+        SourceQueue sourceQueue = sourceQueues.peek();
+
+        Entry entry = sourceQueue.actions.poll();
+        sourceQueue.deficit -= getCost(entry.action);
+        sourceQueue.onTaken(System.currentTimeMillis() - entry.queueTime);
+
+        laneCredits[lane]--;
+        size--;
+
+        if (sourceQueue.actions.isEmpty()) {
+            // Idle sources do not keep their credit.
+            sourceQueues.poll();
+            sourceQueue.inTurn = false;
+            sourceQueue.deficit = 0;
+        } else {
+            int nextLane = getSourceLane(sourceQueue);
+            if (nextLane != lane) {
+                sourceQueues.poll();
+                sourceQueue.inTurn = false;
+                lanes.get(nextLane).add(sourceQueue);
+            }
+        }
+
+        return entry.action;
+    }
+
+    /**
+     * Queueing metrics for a single source.
+     */
+    public static final class SourceStats {
+        private final String name;
+        private final int depth;
+        private final int peakDepth;
+        private final long takenCount;
+        private final long totalWaitMS;
+        private final long maxWaitMS;
+
+        public SourceStats(String name, int depth, int peakDepth, long takenCount, long totalWaitMS, long maxWaitMS) {
+            this.name = name;
+            this.depth = depth;
+            this.peakDepth = peakDepth;
+            this.takenCount = takenCount;
+            this.totalWaitMS = totalWaitMS;
+            this.maxWaitMS = maxWaitMS;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public int getPeakDepth() {
+            return peakDepth;
+        }
+
+        public long getTakenCount() {
+            return takenCount;
+        }
+
+        public double getMeanWaitMS() {
+            if (takenCount == 0) {
+                return 0.0;
+            }
+
+            return (double)totalWaitMS / takenCount;
+        }
+
+        public long getMaxWaitMS() {
+            return maxWaitMS;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Client %s: %d actions taken, depth: %d (peak: %d), wait: %.2f ms (max: %d ms)",
+                    (name == null) ? "<unnamed>" : name, takenCount, depth, peakDepth, getMeanWaitMS(), maxWaitMS);
+        }
+    }
+
+    private static final class SourceQueue {
+        public final ArrayDeque<Entry> actions;
+
+        public String name;
+        public int weight;
+        public long deficit;
+        public boolean inTurn;
+
+        public int peakDepth;
+        public long takenCount;
+        public long totalWaitMS;
+        public long maxWaitMS;
+
+        public SourceQueue(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+
+            actions = new ArrayDeque<Entry>();
+            deficit = 0;
+            inTurn = false;
+
+            peakDepth = 0;
+            takenCount = 0;
+            totalWaitMS = 0;
+            maxWaitMS = 0;
+        }
+
+        public void onTaken(long waitMS) {
+            takenCount++;
+            totalWaitMS += waitMS;
+            maxWaitMS = Math.max(maxWaitMS, waitMS);
+        }
+
+        public void reset() {
+            actions.clear();
+            deficit = 0;
+            inTurn = false;
+        }
+
+        public SourceStats getStats() {
+            return new SourceStats(name, actions.size(), peakDepth, takenCount, totalWaitMS, maxWaitMS);
+        }
+    }
+
+    private static final class Entry {
+        public final OnlineMessage action;
+        public final long queueTime;
+
+        public Entry(OnlineMessage action, long queueTime) {
+            this.action = action;
+            this.queueTime = queueTime;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a ground atom by its predicate and arguments (without needing the atom itself).
+ */
+final class AtomKey {
+    private final StandardPredicate predicate;
+    private final Constant[] arguments;
+    private final int hash;
+
+    public AtomKey(StandardPredicate predicate, Constant[] arguments) {
+        this.predicate = predicate;
+        this.arguments = arguments;
+        hash = 31 * predicate.hashCode() + Arrays.hashCode(arguments);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof AtomKey)) {
+            return false;
+        }
+
+        AtomKey otherKey = (AtomKey)other;
+        return hash == otherKey.hash && predicate.equals(otherKey.predicate) && Arrays.equals(arguments, otherKey.arguments);
+    }
+}
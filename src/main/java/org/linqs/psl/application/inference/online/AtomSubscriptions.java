@@ -0,0 +1,326 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtoms;
+import org.linqs.psl.application.inference.online.messages.actions.model.Subscribe;
+import org.linqs.psl.application.inference.online.messages.responses.AtomValueDelta;
+import org.linqs.psl.database.atom.OnlineAtomManager;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.reasoner.term.online.OnlineTermStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The atom value subscriptions of an OnlineInference.
+ * Each subscription remembers the values it last published,
+ * so only atoms that moved by more than epsilon since then are included in its next delta.
+ *
+ * The atoms of a subscription are looked up once when it starts, and are then kept up to date
+ * as atoms are added and deleted (see onAtomAdded() and onAtomDeleted()).
+ * Values are read straight from the term store's variables,
+ * so computing deltas does not touch the database.
+ * Not thread-safe, only used from the inference thread.
+ */
+class AtomSubscriptions {
+    // The value published for an atom that does not exist (matches GetAtom).
+    private static final float MISSING_VALUE = -1.0f;
+
+    private OnlineAtomManager atomManager;
+    private OnlineTermStore<?> termStore;
+    private double epsilon;
+    private Map<UUID, Subscription> subscriptions;
+
+    public AtomSubscriptions(OnlineAtomManager atomManager, OnlineTermStore<?> termStore, double epsilon) {
+        this.atomManager = atomManager;
+        this.termStore = termStore;
+        this.epsilon = epsilon;
+        subscriptions = new LinkedHashMap<UUID, Subscription>();
+    }
+
+    public boolean isEmpty() {
+        return subscriptions.isEmpty();
+    }
+
+    public boolean contains(UUID subscriptionIdentifier) {
+        return subscriptions.containsKey(subscriptionIdentifier);
+    }
+
+    /**
+     * Start a subscription and get its first delta, which holds the current value of every selected atom.
+     */
+    public AtomValueDelta add(Subscribe action) {
+        Subscription subscription = new Subscription(action);
+        subscriptions.put(action.getIdentifier(), subscription);
+
+        AtomValueDelta delta = subscription.computeDelta();
+        if (delta == null) {
+            delta = new AtomValueDelta(action.getIdentifier(), new StandardPredicate[0], new Constant[0][], new float[0]);
+        }
+
+        return delta;
+    }
+
+    public boolean remove(UUID subscriptionIdentifier) {
+        return subscriptions.remove(subscriptionIdentifier) != null;
+    }
+
+    /**
+     * Point the subscriptions that select an atom at an atom that was just added (or replaced).
+     * Must be called after the atom's local variable was created.
+     */
+    public void onAtomAdded(GroundAtom atom) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        AtomKey key = new AtomKey((StandardPredicate)atom.getPredicate(), atom.getArguments());
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.onAtomAdded(key, atom);
+        }
+    }
+
+    /**
+     * Mark an atom as missing in the subscriptions that select it.
+     */
+    public void onAtomDeleted(GroundAtom atom) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        AtomKey key = new AtomKey((StandardPredicate)atom.getPredicate(), atom.getArguments());
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.onAtomDeleted(key);
+        }
+    }
+
+    /**
+     * Compute the next delta for every subscription.
+     * Subscriptions without any moved atoms do not get a delta.
+     */
+    public List<AtomValueDelta> computeDeltas() {
+        List<AtomValueDelta> deltas = new ArrayList<AtomValueDelta>();
+
+        for (Subscription subscription : subscriptions.values()) {
+            AtomValueDelta delta = subscription.computeDelta();
+            if (delta != null) {
+                deltas.add(delta);
+            }
+        }
+
+        return deltas;
+    }
+
+    private class Subscription {
+        private UUID identifier;
+        private GetAtoms query;
+
+        // Every selected atom, including atoms of an explicit list that do not exist.
+        // A pattern only keeps a deleted atom until its deletion is published.
+        private Map<AtomKey, SubscribedAtom> atoms;
+
+        // Explicit lists: the atom at each position of the list (an atom may be listed more than once).
+        private List<SubscribedAtom> listAtoms;
+
+        public Subscription(Subscribe action) {
+            identifier = action.getIdentifier();
+            query = action.getQuery();
+            atoms = new LinkedHashMap<AtomKey, SubscribedAtom>();
+
+            if (query.isPattern()) {
+                listAtoms = null;
+
+                for (GroundAtom atom : atomManager.getCachedAtoms(query.getPatternPredicate())) {
+                    if (query.matches(atom.getArguments())) {
+                        SubscribedAtom subscribedAtom = new SubscribedAtom(query.getPatternPredicate(), atom.getArguments());
+                        subscribedAtom.resolve(atom);
+                        atoms.put(new AtomKey(query.getPatternPredicate(), atom.getArguments()), subscribedAtom);
+                    }
+                }
+            } else {
+                listAtoms = new ArrayList<SubscribedAtom>(query.size());
+
+                List<StandardPredicate> predicates = query.getPredicates();
+                List<Constant[]> arguments = query.getArguments();
+                for (int i = 0; i < query.size(); i++) {
+                    AtomKey key = new AtomKey(predicates.get(i), arguments.get(i));
+
+                    SubscribedAtom subscribedAtom = atoms.get(key);
+                    if (subscribedAtom == null) {
+                        subscribedAtom = new SubscribedAtom(predicates.get(i), arguments.get(i));
+                        if (atomManager.hasAtom(predicates.get(i), arguments.get(i))) {
+                            subscribedAtom.resolve(atomManager.getAtom(predicates.get(i), arguments.get(i)));
+                        }
+                        atoms.put(key, subscribedAtom);
+                    }
+
+                    listAtoms.add(subscribedAtom);
+                }
+            }
+        }
+
+        public void onAtomAdded(AtomKey key, GroundAtom atom) {
+            SubscribedAtom subscribedAtom = atoms.get(key);
+            if (subscribedAtom == null) {
+                if (!query.isPattern() || !query.getPatternPredicate().equals(atom.getPredicate())
+                        || !query.matches(atom.getArguments())) {
+                    return;
+                }
+
+                subscribedAtom = new SubscribedAtom(query.getPatternPredicate(), atom.getArguments());
+                atoms.put(key, subscribedAtom);
+            }
+
+            subscribedAtom.resolve(atom);
+        }
+
+        public void onAtomDeleted(AtomKey key) {
+            SubscribedAtom subscribedAtom = atoms.get(key);
+            if (subscribedAtom == null) {
+                return;
+            }
+
+            // A pattern does not publish the deletion of an atom it never published.
+            if (listAtoms == null && Float.isNaN(subscribedAtom.publishedValue)) {
+                atoms.remove(key);
+                return;
+            }
+
+            subscribedAtom.resolve(null);
+        }
+
+        /**
+         * Get the atoms that moved since the last delta, or null if none did.
+         */
+        public AtomValueDelta computeDelta() {
+            int movedCount = 0;
+            for (SubscribedAtom subscribedAtom : atoms.values()) {
+                if (subscribedAtom.update()) {
+                    movedCount++;
+                }
+            }
+
+            if (movedCount == 0) {
+                return null;
+            }
+
+            Collection<SubscribedAtom> publishOrder = (listAtoms != null) ? listAtoms : atoms.values();
+
+            List<StandardPredicate> predicates = new ArrayList<StandardPredicate>(movedCount);
+            List<Constant[]> arguments = new ArrayList<Constant[]>(movedCount);
+            List<Float> values = new ArrayList<Float>(movedCount);
+
+            for (SubscribedAtom subscribedAtom : publishOrder) {
+                if (subscribedAtom.moved) {
+                    predicates.add(subscribedAtom.predicate);
+                    arguments.add(subscribedAtom.arguments);
+                    values.add(Float.valueOf(subscribedAtom.publishedValue));
+                }
+            }
+
+            // Deleted pattern atoms are dropped once their deletion has been published.
+            if (listAtoms == null) {
+                Iterator<SubscribedAtom> patternAtoms = atoms.values().iterator();
+                while (patternAtoms.hasNext()) {
+                    if (patternAtoms.next().atom == null) {
+                        patternAtoms.remove();
+                    }
+                }
+            }
+
+            float[] deltaValues = new float[values.size()];
+            for (int i = 0; i < deltaValues.length; i++) {
+                deltaValues[i] = values.get(i).floatValue();
+            }
+
+            return new AtomValueDelta(identifier,
+                    predicates.toArray(new StandardPredicate[0]), arguments.toArray(new Constant[0][]), deltaValues);
+        }
+    }
+
+    /**
+     * An atom selected by a subscription, and where to read its value from.
+     */
+    private class SubscribedAtom {
+        public final StandardPredicate predicate;
+        public final Constant[] arguments;
+
+        // Null while the atom does not exist.
+        public GroundAtom atom;
+
+        // The atom's local variable in the term store, or -1 if the atom is not used in any term.
+        public int variableIndex;
+
+        // The last published value (NaN if never published), and whether it changed in the last update().
+        public float publishedValue;
+        public boolean moved;
+
+        public SubscribedAtom(StandardPredicate predicate, Constant[] arguments) {
+            this.predicate = predicate;
+            this.arguments = arguments;
+            atom = null;
+            variableIndex = -1;
+            publishedValue = Float.NaN;
+            moved = false;
+        }
+
+        public void resolve(GroundAtom atom) {
+            this.atom = atom;
+            variableIndex = (atom == null) ? -1 : termStore.getLocalVariableIndex(atom);
+        }
+
+        /**
+         * Read the current value, and publish it if it moved by more than epsilon.
+         * Returns true if the value moved.
+         */
+        public boolean update() {
+            float value = getValue();
+
+            moved = Float.isNaN(publishedValue) || Math.abs(value - publishedValue) > epsilon;
+            if (moved) {
+                publishedValue = value;
+            }
+
+            return moved;
+        }
+
+        private float getValue() {
+            if (atom == null) {
+                return MISSING_VALUE;
+            }
+
+            // Atoms that are not used in any term can be picked up by terms later (e.g. from a new rule).
+            if (variableIndex < 0) {
+                variableIndex = termStore.getLocalVariableIndex(atom);
+                if (variableIndex < 0) {
+                    return atom.getValue();
+                }
+            }
+
+            return termStore.getLocalVariableValue(variableIndex);
+        }
+    }
+}
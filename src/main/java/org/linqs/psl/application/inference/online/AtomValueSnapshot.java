@@ -0,0 +1,115 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable copy of the atom values after an optimization.
+ * Built on the inference thread and then read by connection threads without any locking.
+ * A new snapshot is published (through a volatile reference) instead of changing an old one,
+ * so a reader never sees values from two different optimizations.
+ *
+ * The atom positions live in an Index that is shared by every snapshot over the same set of atoms,
+ * so a snapshot itself is just a copy of the values.
+ */
+final class AtomValueSnapshot {
+    private final Index index;
+    private final float[] values;
+    private final long modelVersion;
+
+    public AtomValueSnapshot(Iterable<GroundAtom> atoms, long modelVersion) {
+        this(new Index(atoms), modelVersion);
+    }
+
+    /**
+     * Copy the current values of the index's atoms.
+     */
+    public AtomValueSnapshot(Index index, long modelVersion) {
+        this.index = index;
+        this.modelVersion = modelVersion;
+
+        GroundAtom[] atoms = index.atoms;
+        values = new float[atoms.length];
+        for (int i = 0; i < atoms.length; i++) {
+            values[i] = atoms[i].getValue();
+        }
+    }
+
+    /**
+     * Get the position of an atom's value, or -1 if the atom was not in the model.
+     */
+    public int getIndex(StandardPredicate predicate, Constant[] arguments) {
+        return index.getPosition(predicate, arguments);
+    }
+
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public long getModelVersion() {
+        return modelVersion;
+    }
+
+    /**
+     * The positions of a fixed set of atoms.
+     * Only valid while the set of atoms (and the atom objects) stay the same,
+     * so the owner has to build a new one after atoms are added, deleted, or replaced.
+     */
+    public static final class Index {
+        private final Map<AtomKey, Integer> positions;
+        private final GroundAtom[] atoms;
+
+        public Index(Iterable<GroundAtom> atoms) {
+            List<GroundAtom> atomList = new ArrayList<GroundAtom>();
+            Map<AtomKey, Integer> positions = new HashMap<AtomKey, Integer>();
+
+            for (GroundAtom atom : atoms) {
+                positions.put(new AtomKey((StandardPredicate)atom.getPredicate(), atom.getArguments()), atomList.size());
+                atomList.add(atom);
+            }
+
+            this.positions = positions;
+            this.atoms = atomList.toArray(new GroundAtom[0]);
+        }
+
+        public int getPosition(StandardPredicate predicate, Constant[] arguments) {
+            Integer position = positions.get(new AtomKey(predicate, arguments));
+            if (position == null) {
+                return -1;
+            }
+
+            return position.intValue();
+        }
+
+        public int size() {
+            return atoms.length;
+        }
+    }
+}
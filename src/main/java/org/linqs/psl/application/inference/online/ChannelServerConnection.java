@@ -0,0 +1,138 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.CodecSelection;
+import org.linqs.psl.application.inference.online.messages.JavaMessageCodec;
+import org.linqs.psl.application.inference.online.messages.MessageCodec;
+import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.OnlineMessageSerializer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection to a server over a blocking SocketChannel (used for Unix domain sockets).
+ * Messages are sent as frames (see OnlineMessageSerializer).
+ *
+ * The channel is used directly instead of through Channels.newInputStream()/newOutputStream(),
+ * since those streams may serialize a blocked read with a write on the same channel.
+ */
+class ChannelServerConnection implements ServerConnection {
+    private SocketChannel channel;
+    private volatile MessageCodec codec;
+
+    // Frames waiting for the next flush(). Only touched by the sending thread.
+    private List<ByteBuffer> pendingFrames;
+
+    // Only touched by the receiving thread.
+    private ByteBuffer header;
+    private ByteBuffer payload;
+
+    public ChannelServerConnection(SocketChannel channel) {
+        this.channel = channel;
+
+        codec = JavaMessageCodec.getInstance();
+        pendingFrames = new ArrayList<ByteBuffer>();
+        header = ByteBuffer.allocate(OnlineMessageSerializer.FRAME_HEADER_SIZE);
+        payload = ByteBuffer.allocate(0);
+    }
+
+    @Override
+    public void send(OnlineMessage message) throws IOException {
+        pendingFrames.add(OnlineMessageSerializer.encodeFrame(codec, message));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (pendingFrames.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer[] frames = pendingFrames.toArray(new ByteBuffer[0]);
+        pendingFrames.clear();
+
+        ByteBuffer lastFrame = frames[frames.length - 1];
+        while (lastFrame.hasRemaining()) {
+            channel.write(frames);
+        }
+    }
+
+    @Override
+    public OnlineMessage receive() throws IOException, ClassNotFoundException {
+        header.clear();
+        if (!readFully(header, true)) {
+            throw new EOFException();
+        }
+
+        int length = header.getInt(0);
+        OnlineMessageSerializer.checkFrameLength(length);
+
+        if (payload.capacity() < length) {
+            payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+        }
+
+        payload.clear();
+        payload.limit(length);
+        readFully(payload, false);
+
+        return codec.decode(payload.array(), 0, length);
+    }
+
+    /**
+     * Fill the buffer from the channel.
+     * Returns false if the channel was closed before any bytes were read and an empty read is allowed.
+     */
+    private boolean readFully(ByteBuffer buffer, boolean allowEmpty) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (allowEmpty && buffer.position() == 0) {
+                    return false;
+                }
+
+                throw new EOFException("Channel closed in the middle of a frame.");
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void selectCodec(MessageCodec.Type codecType, ModelInformation modelInformation) throws IOException {
+        if (codecType == codec.getType()) {
+            return;
+        }
+
+        send(new CodecSelection(codecType));
+        codec = CodecSelection.createCodec(codecType, modelInformation);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // Ignore.
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+
+/**
+ * The server's view of a single connected client.
+ * Implementations decide how (and on which thread) the bytes actually move.
+ */
+interface ClientConnection {
+    /**
+     * Send a message to the client.
+     * This may be called from any thread.
+     */
+    public void send(OnlineMessage message);
+
+    /**
+     * Close the connection.
+     * Any messages already passed to send() should still be delivered if possible.
+     */
+    public void close();
+}
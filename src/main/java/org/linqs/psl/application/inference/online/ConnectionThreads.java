@@ -0,0 +1,98 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.util.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Starts the threads that do blocking connection IO.
+ *
+ * When virtual threads are enabled (and the running JDK has them), handlers are started as virtual threads.
+ * Since this module is built for Java 8, Thread.startVirtualThread() is looked up reflectively
+ * and platform threads are used when it is not available.
+ */
+final class ConnectionThreads {
+    private static final Logger log = Logger.getLogger(ConnectionThreads.class);
+
+    private static final Method startVirtualThread = findStartVirtualThread();
+    private static boolean warnedUnsupported = false;
+
+    // Static only.
+    private ConnectionThreads() {}
+
+    public static boolean isVirtualThreadSupported() {
+        return startVirtualThread != null;
+    }
+
+    /**
+     * Start a connection handler on the kind of thread selected in the options.
+     */
+    public static Thread start(Runnable handler, String name) {
+        return start(handler, name, OnlineOptions.ONLINE_VIRTUAL_THREADS.getBoolean());
+    }
+
+    public static Thread start(Runnable handler, String name, boolean virtual) {
+        if (virtual) {
+            Thread thread = startVirtual(handler, name);
+            if (thread != null) {
+                return thread;
+            }
+        }
+
+        Thread thread = new Thread(handler, name);
+        thread.start();
+        return thread;
+    }
+
+    private static Thread startVirtual(Runnable handler, String name) {
+        if (startVirtualThread == null) {
+            warnUnsupported();
+            return null;
+        }
+
+        Thread thread = null;
+        try {
+            thread = (Thread)startVirtualThread.invoke(null, handler);
+        } catch (IllegalAccessException | InvocationTargetException ex) {
+            log.warn("Failed to start a virtual thread, using a platform thread.", ex);
+            return null;
+        }
+
+        thread.setName(name);
+        return thread;
+    }
+
+    private static synchronized void warnUnsupported() {
+        if (!warnedUnsupported) {
+            log.warn("Virtual threads were requested, but are not supported by this JVM. Using platform threads.");
+            warnedUnsupported = true;
+        }
+    }
+
+    private static Method findStartVirtualThread() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.config.OnlineOptions;
+
+/**
+ * Optimize once a number of model updates are pending.
+ */
+public class CountOptimizationTrigger extends OptimizationTrigger {
+    private long maxPendingUpdates;
+
+    public CountOptimizationTrigger() {
+        this(OnlineOptions.ONLINE_TRIGGER_UPDATES.getInt());
+    }
+
+    public CountOptimizationTrigger(long maxPendingUpdates) {
+        if (maxPendingUpdates <= 0) {
+            throw new IllegalArgumentException("The number of updates to optimize after must be positive, got: " + maxPendingUpdates + ".");
+        }
+
+        this.maxPendingUpdates = maxPendingUpdates;
+    }
+
+    @Override
+    public boolean shouldOptimize(long pendingUpdates, long msSinceOptimization, long msIdle) {
+        return pendingUpdates >= maxPendingUpdates;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.CodecSelection;
+import org.linqs.psl.application.inference.online.messages.MessageCodec;
+import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.ModelRequest;
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.util.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects clients and servers that run in the same JVM.
+ *
+ * Messages are handed over as objects, so there is no serialization and no system calls.
+ * Actions are queued on the server directly from the client's session thread,
+ * and responses are passed back through a bounded ring buffer that the client's reading thread drains.
+ * A full ring buffer blocks the server until the client catches up.
+ *
+ * In-process servers do not open a socket, and clients find them by their port number.
+ */
+final class InProcessTransport {
+    private static final Logger log = Logger.getLogger(InProcessTransport.class);
+
+    // How often a blocked send rechecks whether the other side has gone away.
+    private static final long SEND_POLL_MS = 100;
+
+    private static final ConcurrentMap<Integer, OnlineServer> servers = new ConcurrentHashMap<Integer, OnlineServer>();
+
+    // Static only.
+    private InProcessTransport() {}
+
+    public static void bind(int port, OnlineServer server) {
+        if (servers.putIfAbsent(port, server) != null) {
+            throw new IllegalStateException(String.format("An in-process online server is already bound to port %d.", port));
+        }
+
+        log.info(String.format("Online server started in-process on port %d.", port));
+    }
+
+    public static void unbind(int port, OnlineServer server) {
+        servers.remove(port, server);
+    }
+
+    public static ServerConnection connect(int port) throws IOException {
+        OnlineServer server = servers.get(port);
+        if (server == null) {
+            throw new ConnectException(String.format("No in-process online server on port %d.", port));
+        }
+
+        Connection connection = new Connection(server, OnlineOptions.ONLINE_IN_PROCESS_BUFFER.getInt());
+        server.addClient(connection.serverSide);
+
+        return connection.clientSide;
+    }
+
+    /**
+     * Both ends of a single in-process connection.
+     */
+    private static class Connection {
+        // Marks the end of the responses. Never leaves the JVM.
+        private static final OnlineMessage END_OF_STREAM = new EndOfStream();
+
+        private final OnlineServer server;
+        private final BlockingQueue<OnlineMessage> responses;
+        private final ClientSide clientSide;
+        private final ServerSide serverSide;
+
+        private volatile boolean clientClosed;
+        private volatile boolean serverClosed;
+
+        public Connection(OnlineServer server, int bufferSize) {
+            this.server = server;
+            responses = new ArrayBlockingQueue<OnlineMessage>(bufferSize);
+            clientSide = new ClientSide();
+            serverSide = new ServerSide();
+
+            clientClosed = false;
+            serverClosed = false;
+        }
+
+        /**
+         * Put a response in the ring buffer, waiting for space while the client is still reading.
+         */
+        private boolean putResponse(OnlineMessage message) throws InterruptedException {
+            while (!clientClosed) {
+                if (responses.offer(message, SEND_POLL_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private class ServerSide implements ClientConnection {
+            @Override
+            public void send(OnlineMessage message) {
+                if (serverClosed) {
+                    log.warn(String.format("Failed to send client message on a closed connection: %s", message));
+                    return;
+                }
+
+                try {
+                    if (!putResponse(message)) {
+                        log.trace(String.format("Dropping message for a closed in-process client: %s", message));
+                    }
+                } catch (InterruptedException ex) {
+                    log.warn(String.format("Interrupted while sending client message: %s", message), ex);
+                }
+            }
+
+            @Override
+            public void close() {
+                if (serverClosed) {
+                    return;
+                }
+                serverClosed = true;
+
+                try {
+                    putResponse(END_OF_STREAM);
+                } catch (InterruptedException ex) {
+                    log.warn("Interrupted while closing in-process client connection.", ex);
+                }
+            }
+        }
+
+        private class ClientSide implements ServerConnection {
+            @Override
+            public void send(OnlineMessage message) throws IOException {
+                if (serverClosed) {
+                    throw new IOException("In-process connection closed by the server.");
+                }
+
+                if (message instanceof ModelRequest) {
+                    server.answerModelRequest(serverSide, message);
+                } else if (message instanceof CodecSelection) {
+                    // Messages are never encoded.
+                } else {
+                    server.queueAction(serverSide, message);
+                }
+            }
+
+            @Override
+            public void flush() {
+                // Messages are never buffered on the client side.
+            }
+
+            @Override
+            public OnlineMessage receive() throws IOException {
+                OnlineMessage message = null;
+                try {
+                    message = responses.take();
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException("Interrupted while waiting for a server response.");
+                }
+
+                if (message == END_OF_STREAM) {
+                    // Leave the marker for any later reads.
+                    responses.offer(END_OF_STREAM);
+                    throw new EOFException();
+                }
+
+                return message;
+            }
+
+            @Override
+            public void selectCodec(MessageCodec.Type codecType, ModelInformation modelInformation) {
+                // Messages are never encoded.
+            }
+
+            @Override
+            public void close() {
+                if (clientClosed) {
+                    return;
+                }
+                clientClosed = true;
+
+                if (!serverClosed) {
+                    server.closeClient(serverSide);
+                }
+            }
+        }
+    }
+
+    private static final class EndOfStream extends OnlineMessage {
+        @Override
+        public String toString() {
+            return "ENDOFSTREAM";
+        }
+    }
+}
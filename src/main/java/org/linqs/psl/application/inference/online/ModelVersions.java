@@ -0,0 +1,191 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.ModelDelta;
+import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.model.predicate.FunctionalPredicate;
+import org.linqs.psl.model.predicate.Predicate;
+import org.linqs.psl.model.rule.Rule;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The model information the server hands out during the handshake.
+ *
+ * The model and its content hash are built once and only rebuilt when a rule is added or deleted.
+ * A few previous versions are kept, so a client that cached a recent version only gets the rule changes.
+ */
+class ModelVersions {
+    private static final int MAX_HISTORY = 16;
+
+    private volatile Version current;
+    private final Map<String, Version> history;
+
+    public ModelVersions(List<Rule> rules) {
+        history = new LinkedHashMap<String, Version>();
+        setCurrent(new Version(getModelPredicates(), new ArrayList<Rule>(rules)));
+    }
+
+    public Version getCurrent() {
+        return current;
+    }
+
+    public synchronized void addRule(Rule rule) {
+        List<Rule> rules = new ArrayList<Rule>(current.rules);
+        if (rules.contains(rule)) {
+            return;
+        }
+
+        rules.add(rule);
+        setCurrent(new Version(current.predicates, rules));
+    }
+
+    public synchronized void deleteRule(Rule rule) {
+        List<Rule> rules = new ArrayList<Rule>(current.rules);
+        if (!rules.remove(rule)) {
+            return;
+        }
+
+        setCurrent(new Version(current.predicates, rules));
+    }
+
+    /**
+     * Get the handshake response that brings a client from its cached model (may be null) to the given version.
+     * This is a ModelDelta if the cached version is known and has the same predicates, and the full model otherwise.
+     */
+    public synchronized OnlineMessage getHandshakeResponse(Version version, String cachedModelHash) {
+        Version base = null;
+        if (cachedModelHash != null) {
+            base = history.get(cachedModelHash);
+        }
+
+        if (base == null || !base.predicateHash.equals(version.predicateHash)) {
+            return version.modelInformation;
+        }
+
+        List<Rule> addedRules = new ArrayList<Rule>();
+        for (Rule rule : version.rules) {
+            if (!base.rules.contains(rule)) {
+                addedRules.add(rule);
+            }
+        }
+
+        List<Rule> deletedRules = new ArrayList<Rule>();
+        for (Rule rule : base.rules) {
+            if (!version.rules.contains(rule)) {
+                deletedRules.add(rule);
+            }
+        }
+
+        return new ModelDelta(base.hash, version.hash,
+                addedRules.toArray(new Rule[0]), deletedRules.toArray(new Rule[0]));
+    }
+
+    private void setCurrent(Version version) {
+        current = version;
+
+        history.remove(version.hash);
+        history.put(version.hash, version);
+
+        Iterator<String> hashes = history.keySet().iterator();
+        while (history.size() > MAX_HISTORY) {
+            hashes.next();
+            hashes.remove();
+        }
+    }
+
+    private static Predicate[] getModelPredicates() {
+        List<Predicate> modelPredicates = new ArrayList<Predicate>();
+
+        // Clients only need the non-functional predicates.
+        for (Predicate predicate : Predicate.getAll()) {
+            if (!(predicate instanceof FunctionalPredicate)) {
+                modelPredicates.add(predicate);
+            }
+        }
+
+        return modelPredicates.toArray(new Predicate[0]);
+    }
+
+    /**
+     * An immutable version of the model.
+     */
+    public static class Version {
+        private final Predicate[] predicates;
+        private final List<Rule> rules;
+        private final String predicateHash;
+        private final String hash;
+        private final ModelInformation modelInformation;
+
+        private Version(Predicate[] predicates, List<Rule> rules) {
+            this.predicates = predicates;
+            this.rules = rules;
+
+            StringBuilder predicateContent = new StringBuilder();
+            for (Predicate predicate : predicates) {
+                predicateContent.append(predicate.getName());
+                for (int i = 0; i < predicate.getArity(); i++) {
+                    predicateContent.append('\t').append(predicate.getArgumentType(i));
+                }
+                predicateContent.append('\n');
+            }
+            predicateHash = hash(predicateContent.toString());
+
+            StringBuilder ruleContent = new StringBuilder(predicateHash);
+            for (Rule rule : rules) {
+                ruleContent.append('\n').append(rule.toString());
+            }
+            hash = hash(ruleContent.toString());
+
+            modelInformation = new ModelInformation(predicates, rules.toArray(new Rule[0]), hash);
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public ModelInformation getModelInformation() {
+            return modelInformation;
+        }
+    }
+
+    private static String hash(String content) {
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte value : digest.digest(content.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", value));
+        }
+
+        return hex.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomAction;
+import org.linqs.psl.application.inference.online.messages.actions.model.DeleteAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Finds the atom mutations in a window of queued actions that do not need to be executed.
+ *  - An UpdateObservation that is followed by another UpdateObservation of the same atom is superseded.
+ *  - An AddAtom that is followed by a DeleteAtom of the same atom is superseded
+ *    (the delete has the same effect whether or not the atom existed before the add).
+ * Mutations are only coalesced when no other action of the window comes between them,
+ * since any other action may read or change the atom.
+ *
+ * A superseded action is not executed, and should be answered with the outcome of the action that superseded it.
+ * Not thread-safe, only used from the inference thread.
+ */
+class MutationCoalescer {
+    private Map<AtomKey, AtomAction> lastMutations;
+    private Map<UUID, List<OnlineMessage>> supersededActions;
+    private Set<UUID> skippedActions;
+    private Set<UUID> deletesAfterAdd;
+
+    public MutationCoalescer() {
+        lastMutations = new HashMap<AtomKey, AtomAction>();
+        supersededActions = new HashMap<UUID, List<OnlineMessage>>();
+        skippedActions = new HashSet<UUID>();
+        deletesAfterAdd = new HashSet<UUID>();
+    }
+
+    /**
+     * Plan a window of actions (in execution order).
+     * The results are available until the next call.
+     */
+    public void coalesce(List<OnlineMessage> actions) {
+        lastMutations.clear();
+        supersededActions.clear();
+        skippedActions.clear();
+        deletesAfterAdd.clear();
+
+        for (OnlineMessage action : actions) {
+            if (action.getClass() == UpdateObservation.class) {
+                AtomAction previous = putMutation((AtomAction)action);
+                if (previous != null && previous.getClass() == UpdateObservation.class) {
+                    supersede(previous, action);
+                }
+            } else if (action.getClass() == DeleteAtom.class) {
+                AtomAction previous = putMutation((AtomAction)action);
+                if (previous != null && previous.getClass() == AddAtom.class) {
+                    supersede(previous, action);
+                    deletesAfterAdd.add(action.getIdentifier());
+                }
+            } else if (action.getClass() == AddAtom.class) {
+                putMutation((AtomAction)action);
+            } else {
+                lastMutations.clear();
+            }
+        }
+    }
+
+    /**
+     * Check if an action was superseded by a later one (and should not be executed).
+     */
+    public boolean isSkipped(OnlineMessage action) {
+        return skippedActions.contains(action.getIdentifier());
+    }
+
+    /**
+     * Get the actions that were superseded by this one.
+     */
+    public List<OnlineMessage> getSuperseded(OnlineMessage action) {
+        List<OnlineMessage> superseded = supersededActions.get(action.getIdentifier());
+        if (superseded == null) {
+            return Collections.emptyList();
+        }
+
+        return superseded;
+    }
+
+    /**
+     * Check if this is a DeleteAtom that superseded an AddAtom of the same atom,
+     * i.e. the atom may not exist when the delete is executed even though the client added it.
+     */
+    public boolean isDeleteAfterAdd(OnlineMessage action) {
+        return deletesAfterAdd.contains(action.getIdentifier());
+    }
+
+    public int getSkippedCount() {
+        return skippedActions.size();
+    }
+
+    private AtomAction putMutation(AtomAction action) {
+        return lastMutations.put(new AtomKey(action.getPredicate(), action.getArguments()), action);
+    }
+
+    private void supersede(OnlineMessage previous, OnlineMessage action) {
+        skippedActions.add(previous.getIdentifier());
+
+        List<OnlineMessage> superseded = supersededActions.remove(previous.getIdentifier());
+        if (superseded == null) {
+            superseded = new ArrayList<OnlineMessage>();
+        }
+        superseded.add(previous);
+
+        supersededActions.put(action.getIdentifier(), superseded);
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.CodecSelection;
+import org.linqs.psl.application.inference.online.messages.JavaMessageCodec;
+import org.linqs.psl.application.inference.online.messages.MessageCodec;
+import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.OnlineMessageSerializer;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.util.FileUtils;
+import org.linqs.psl.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A non-blocking connection server for an OnlineServer.
+ *
+ * A single acceptor thread waits for new connections and hands them off (round-robin) to a small, fixed set of IO threads.
+ * Each IO thread multiplexes all of its connections on a single Selector.
+ * All reads and writes on a channel happen on the channel's IO thread,
+ * other threads (e.g. the inference thread) only enqueue outgoing frames.
+ *
+ * The server listens either on a TCP port or on a Unix domain socket path (see UnixDomainSockets).
+ */
+class NIOServer {
+    private static final Logger log = Logger.getLogger(NIOServer.class);
+
+    private static final int INITIAL_READ_BUFFER_SIZE = 16 * 1024;
+
+    private OnlineServer server;
+    private int port;
+    private String unixSocketPath;
+
+    private volatile boolean running;
+    private ServerSocketChannel serverChannel;
+    private AcceptorThread acceptorThread;
+    private IOThread[] ioThreads;
+
+    public NIOServer(OnlineServer server, int port, int numIOThreads) {
+        this(server, port, null, numIOThreads);
+    }
+
+    /**
+     * @param unixSocketPath if not null, listen on this Unix domain socket path instead of the port.
+     */
+    public NIOServer(OnlineServer server, int port, String unixSocketPath, int numIOThreads) {
+        if (numIOThreads < 1) {
+            throw new IllegalArgumentException(String.format("Need at least one IO thread, got %d.", numIOThreads));
+        }
+
+        this.server = server;
+        this.port = port;
+        this.unixSocketPath = unixSocketPath;
+
+        running = false;
+        serverChannel = null;
+        acceptorThread = null;
+        ioThreads = new IOThread[numIOThreads];
+    }
+
+    /**
+     * Open the listen socket and start all the threads.
+     * When this method returns, the server is ready to accept connections.
+     */
+    public void start() {
+        if (unixSocketPath != null) {
+            bindUnixSocket();
+        } else {
+            bindPort();
+        }
+
+        running = true;
+
+        for (int i = 0; i < ioThreads.length; i++) {
+            ioThreads[i] = new IOThread(i);
+            ioThreads[i].start();
+        }
+
+        acceptorThread = new AcceptorThread();
+        acceptorThread.start();
+
+        log.info(String.format("Online server started on %s with %d IO threads.", getAddressDescription(), ioThreads.length));
+    }
+
+    private void bindPort() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            // Match the blocking ServerSocket, which allows quick restarts on the same port.
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Could not establish socket on port %s.", port), ex);
+        }
+    }
+
+    private void bindUnixSocket() {
+        File socketFile = new File(unixSocketPath);
+        if (socketFile.getParentFile() != null) {
+            FileUtils.mkdir(socketFile.getParentFile().getPath());
+        }
+
+        // Socket files are not removed if a server dies, so a leftover file is taken to be stale.
+        if (socketFile.exists()) {
+            log.debug(String.format("Removing existing socket file: %s", unixSocketPath));
+            FileUtils.delete(socketFile);
+        }
+
+        try {
+            serverChannel = UnixDomainSockets.bind(unixSocketPath);
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Could not establish socket at %s.", unixSocketPath), ex);
+        }
+    }
+
+    private String getAddressDescription() {
+        if (unixSocketPath != null) {
+            return "Unix domain socket " + unixSocketPath;
+        }
+
+        return "port " + port;
+    }
+
+    /**
+     * Stop accepting connections, flush any pending responses, and close all connections.
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException ex) {
+                // Ignore.
+            }
+        }
+
+        if (unixSocketPath != null) {
+            FileUtils.delete(new File(unixSocketPath));
+        }
+
+        for (IOThread ioThread : ioThreads) {
+            if (ioThread == null) {
+                continue;
+            }
+
+            ioThread.wakeup();
+            try {
+                ioThread.join();
+            } catch (InterruptedException ex) {
+                log.warn("Interrupted while waiting for IO thread to close.", ex);
+            }
+        }
+    }
+
+    private class AcceptorThread extends Thread {
+        public AcceptorThread() {
+            super("OnlineServer-Acceptor");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int nextIOThread = 0;
+
+            while (running) {
+                SocketChannel channel = null;
+                try {
+                    channel = serverChannel.accept();
+                    channel.configureBlocking(false);
+                    if (unixSocketPath == null) {
+                        channel.socket().setTcpNoDelay(true);
+                    }
+                } catch (IOException ex) {
+                    if (!running || !serverChannel.isOpen()) {
+                        break;
+                    }
+                    throw new RuntimeException(ex);
+                }
+
+                IOThread ioThread = ioThreads[nextIOThread];
+                nextIOThread = (nextIOThread + 1) % ioThreads.length;
+
+                ioThread.register(new NIOClientConnection(channel, ioThread));
+            }
+        }
+    }
+
+    private class IOThread extends Thread {
+        private Selector selector;
+
+        // Only touched by this thread.
+        private Set<NIOClientConnection> connections;
+
+        private Queue<NIOClientConnection> pendingRegistrations;
+        private Queue<NIOClientConnection> pendingWrites;
+
+        public IOThread(int id) {
+            super("OnlineServer-IO-" + id);
+            setDaemon(true);
+
+            try {
+                selector = Selector.open();
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to open selector.", ex);
+            }
+
+            connections = new HashSet<NIOClientConnection>();
+            pendingRegistrations = new ConcurrentLinkedQueue<NIOClientConnection>();
+            pendingWrites = new ConcurrentLinkedQueue<NIOClientConnection>();
+        }
+
+        public void register(NIOClientConnection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        public void requestWrite(NIOClientConnection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        public void wakeup() {
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+
+                processRegistrations();
+                processWrites();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    NIOClientConnection connection = (NIOClientConnection)key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        log.warn(String.format("Exception in client connection. Exception message: %s", ex.getMessage()));
+                        connection.closeNow();
+                    }
+                }
+            }
+
+            shutdown();
+        }
+
+        private void processRegistrations() {
+            NIOClientConnection connection = null;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                try {
+                    connection.onRegister(selector);
+                    connections.add(connection);
+                } catch (IOException | RuntimeException ex) {
+                    log.warn(String.format("Failed to register client connection. Exception message: %s", ex.getMessage()));
+                    connection.closeNow();
+                }
+            }
+        }
+
+        private void processWrites() {
+            NIOClientConnection connection = null;
+            while ((connection = pendingWrites.poll()) != null) {
+                try {
+                    connection.flush();
+                } catch (IOException | RuntimeException ex) {
+                    log.warn(String.format("Failed to write to client. Exception message: %s", ex.getMessage()));
+                    connection.closeNow();
+                }
+            }
+        }
+
+        /**
+         * Deliver any pending responses (blocking) and close all connections.
+         */
+        private void shutdown() {
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // Ignore.
+            }
+
+            // Draining will remove the connection from the set.
+            for (NIOClientConnection connection : new ArrayList<NIOClientConnection>(connections)) {
+                connection.drain();
+            }
+            connections.clear();
+        }
+
+        private void removeConnection(NIOClientConnection connection) {
+            connections.remove(connection);
+        }
+    }
+
+    private class NIOClientConnection implements ClientConnection {
+        private SocketChannel channel;
+        private IOThread ioThread;
+        private SelectionKey key;
+
+        // Only touched by the IO thread.
+        private ByteBuffer readBuffer;
+        private boolean readClosed;
+        private ModelInformation modelInformation;
+
+        private volatile MessageCodec codec;
+
+        private Queue<ByteBuffer> writeQueue;
+        private volatile boolean closeRequested;
+
+        public NIOClientConnection(SocketChannel channel, IOThread ioThread) {
+            this.channel = channel;
+            this.ioThread = ioThread;
+
+            key = null;
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+            readClosed = false;
+            modelInformation = null;
+            codec = JavaMessageCodec.getInstance();
+
+            writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+            closeRequested = false;
+        }
+
+        @Override
+        public void send(OnlineMessage message) {
+            if (closeRequested || !channel.isOpen()) {
+                log.debug(String.format("Dropping message to closed client: %s", message));
+                return;
+            }
+
+            writeQueue.add(OnlineMessageSerializer.encodeFrame(codec, message));
+            ioThread.requestWrite(this);
+        }
+
+        /**
+         * Close once all the queued messages have been written.
+         */
+        @Override
+        public void close() {
+            closeRequested = true;
+            ioThread.requestWrite(this);
+        }
+
+        /**
+         * Called on the IO thread.
+         */
+        public void onRegister(Selector selector) throws IOException {
+            server.addClient(this);
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * Called on the IO thread.
+         * Read all available bytes and queue every complete frame.
+         */
+        public void read() throws IOException {
+            int readSize = channel.read(readBuffer);
+            if (readSize == -1) {
+                if (!readClosed) {
+                    log.warn("Client closed socket without Exit or Stop action.");
+                    server.closeClient(this);
+                }
+
+                readClosed = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                return;
+            }
+
+            int neededCapacity = 0;
+
+            readBuffer.flip();
+            while (!readClosed && readBuffer.remaining() >= OnlineMessageSerializer.FRAME_HEADER_SIZE) {
+                int length = readBuffer.getInt(readBuffer.position());
+                OnlineMessageSerializer.checkFrameLength(length);
+
+                int frameSize = OnlineMessageSerializer.FRAME_HEADER_SIZE + length;
+                if (readBuffer.remaining() < frameSize) {
+                    neededCapacity = frameSize;
+                    break;
+                }
+
+                int payloadStart = readBuffer.position() + OnlineMessageSerializer.FRAME_HEADER_SIZE;
+                readBuffer.position(payloadStart + length);
+
+                OnlineMessage message = null;
+                try {
+                    message = codec.decode(readBuffer.array(), readBuffer.arrayOffset() + payloadStart, length);
+                } catch (ClassNotFoundException ex) {
+                    log.warn("Failed to deserialized last OnlineMessage from client.");
+                    continue;
+                }
+
+                log.trace(String.format("Server received action from client: %s", message));
+
+                // The first message is always the client's model request.
+                if (modelInformation == null) {
+                    modelInformation = server.answerModelRequest(this, message);
+                    continue;
+                }
+
+                if (message instanceof CodecSelection) {
+                    codec = CodecSelection.createCodec(((CodecSelection)message).getCodecType(), modelInformation);
+                    log.debug(String.format("Client selected codec: %s.", codec.getType()));
+                    continue;
+                }
+
+                server.queueAction(this, message);
+
+                if (message instanceof Exit || message instanceof Stop) {
+                    // Nothing more will come from this client.
+                    readClosed = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            }
+            readBuffer.compact();
+
+            if (neededCapacity > readBuffer.capacity()) {
+                ByteBuffer newBuffer = ByteBuffer.allocate(neededCapacity);
+                readBuffer.flip();
+                newBuffer.put(readBuffer);
+                readBuffer = newBuffer;
+            }
+        }
+
+        /**
+         * Called on the IO thread.
+         * Write as much of the queue as the socket will take.
+         */
+        public void flush() throws IOException {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+
+            ByteBuffer frame = null;
+            while ((frame = writeQueue.peek()) != null) {
+                channel.write(frame);
+                if (frame.hasRemaining()) {
+                    // The socket is full, wait until it is writable again.
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                writeQueue.poll();
+            }
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+            if (closeRequested) {
+                closeNow();
+            }
+        }
+
+        /**
+         * Called on the IO thread after the selector has been closed.
+         */
+        public void drain() {
+            if (!channel.isOpen()) {
+                return;
+            }
+
+            try {
+                channel.configureBlocking(true);
+
+                ByteBuffer frame = null;
+                while ((frame = writeQueue.poll()) != null) {
+                    while (frame.hasRemaining()) {
+                        channel.write(frame);
+                    }
+                }
+            } catch (ClosedChannelException ex) {
+                // Client is already gone.
+            } catch (IOException ex) {
+                log.debug(String.format("Failed to drain client connection. Exception message: %s", ex.getMessage()));
+            }
+
+            closeNow();
+        }
+
+        public void closeNow() {
+            if (key != null) {
+                key.cancel();
+            }
+
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // Ignore.
+            }
+
+            writeQueue.clear();
+            ioThread.removeConnection(this);
+            server.removeClient(this);
+        }
+    }
+}
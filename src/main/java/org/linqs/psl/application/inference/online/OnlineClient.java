@@ -17,59 +17,174 @@
  */
 package org.linqs.psl.application.inference.online;
 
+import org.linqs.psl.application.inference.online.messages.MessageCodec;
+import org.linqs.psl.application.inference.online.messages.ModelDelta;
 import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.ModelRequest;
 import org.linqs.psl.application.inference.online.messages.OnlineMessage;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.actions.model.Subscribe;
+import org.linqs.psl.application.inference.online.messages.actions.model.Unsubscribe;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.AtomValueDelta;
 import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
 import org.linqs.psl.config.OnlineOptions;
 import org.linqs.psl.model.predicate.Predicate;
+import org.linqs.psl.model.rule.Rule;
 import org.linqs.psl.util.Logger;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
 
 /**
  * A client that communicates with an OnlineServer using OnlineMessages.
+ *
+ * Actions can either be put directly on the action queue (responses are then appended to the response list),
+ * or submitted with submit() which returns a future for the first response to that action.
+ * Any number of submitted actions may be in flight at once.
+ * Subscriptions (see subscribe()) push value changes to a listener until the session ends.
+ *
+ * The connection itself is made with the configured transport (see OnlineServer.Transport).
+ *
+ * The server's model is cached (per host and port, or socket path) for the life of the JVM,
+ * so later sessions only receive the model when it has changed.
  */
 public class OnlineClient implements Runnable {
     private static final Logger log = Logger.getLogger(OnlineClient.class);
 
+    private static final ConcurrentMap<String, ModelInformation> modelCache = new ConcurrentHashMap<String, ModelInformation>();
+
     private List<OnlineResponse> serverResponses;
     private BlockingQueue<OnlineMessage> actionQueue;
     private CountDownLatch modelRegistrationLatch;
     private String hostname;
     private int port;
+    private MessageCodec.Type codecType;
+    private OnlineServer.Transport transport;
+    private String unixSocketPath;
+    private String clientName;
 
+    private ConcurrentMap<UUID, CompletableFuture<OnlineResponse>> pendingResponses;
+    private ConcurrentMap<UUID, Consumer<AtomValueDelta>> subscriptionListeners;
+    // Unsubscribe action identifier to the identifier of the subscription it ends.
+    private ConcurrentMap<UUID, UUID> pendingUnsubscribes;
+    private volatile boolean closed;
+
+    /**
+     * Create a client that is only used through submit().
+     */
+    public OnlineClient(CountDownLatch modelRegistrationLatch) {
+        this(new LinkedBlockingQueue<OnlineMessage>(), null, modelRegistrationLatch);
+    }
+
+    /**
+     * @param serverResponses if not null, every response from the server is appended to this list
+     *  (from the client's reading thread).
+     */
     public OnlineClient(BlockingQueue<OnlineMessage> actionQueue, List<OnlineResponse> serverResponses,
             CountDownLatch modelRegistrationLatch) {
         this.serverResponses = serverResponses;
+        this.pendingResponses = new ConcurrentHashMap<UUID, CompletableFuture<OnlineResponse>>();
+        this.subscriptionListeners = new ConcurrentHashMap<UUID, Consumer<AtomValueDelta>>();
+        this.pendingUnsubscribes = new ConcurrentHashMap<UUID, UUID>();
+        this.closed = false;
         this.actionQueue = actionQueue;
         this.hostname = OnlineOptions.ONLINE_HOST.getString();
         this.port = OnlineOptions.ONLINE_PORT_NUMBER.getInt();
+        this.codecType = MessageCodec.Type.valueOf(OnlineOptions.ONLINE_CODEC.getString().toUpperCase());
+        this.transport = OnlineServer.Transport.valueOf(OnlineOptions.ONLINE_TRANSPORT.getString().toUpperCase());
+        this.unixSocketPath = OnlineOptions.ONLINE_UNIX_SOCKET_PATH.getString();
+        this.clientName = OnlineOptions.ONLINE_CLIENT_NAME.getString();
+        if (this.clientName.isEmpty()) {
+            this.clientName = null;
+        }
         this.modelRegistrationLatch = modelRegistrationLatch;
     }
 
+    /**
+     * Queue an action to be sent to the server.
+     * The returned future is completed with the first response the server sends for this action
+     * (a GetAtomResponse for a successful GetAtom, otherwise an ActionStatus),
+     * or completed exceptionally if the session ends before a response arrives.
+     */
+    public CompletableFuture<OnlineResponse> submit(OnlineMessage action) {
+        CompletableFuture<OnlineResponse> future = new CompletableFuture<OnlineResponse>();
+
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("Online client session is closed."));
+            return future;
+        }
+
+        pendingResponses.put(action.getIdentifier(), future);
+
+        // The session may have closed while the future was being registered.
+        if (closed) {
+            pendingResponses.remove(action.getIdentifier());
+            future.completeExceptionally(new IllegalStateException("Online client session is closed."));
+            return future;
+        }
+
+        if (action instanceof Unsubscribe) {
+            pendingUnsubscribes.put(action.getIdentifier(), ((Unsubscribe)action).getSubscriptionIdentifier());
+        }
+
+        actionQueue.add(action);
+        return future;
+    }
+
+    /**
+     * Submit a subscription.
+     * The returned future is completed with the subscription's first delta (the current values),
+     * and every delta (including the first) is also passed to the listener (from the client's reading thread).
+     * The listener is dropped once the subscription fails or is ended with an Unsubscribe.
+     */
+    public CompletableFuture<OnlineResponse> subscribe(Subscribe action, Consumer<AtomValueDelta> listener) {
+        subscriptionListeners.put(action.getIdentifier(), listener);
+        return submit(action);
+    }
+
     public void run() {
+        try {
+            runSession();
+        } finally {
+            closed = true;
+            failPendingResponses();
+            subscriptionListeners.clear();
+            pendingUnsubscribes.clear();
+        }
+    }
+
+    private void runSession() {
         OnlineMessage onlineAction = null;
+        ServerConnection server = null;
+
+        try {
+            server = connect();
+
+            // Request and register serverModel.
+            ModelInformation modelInformation = registerServerModel(server);
+
+            // Negotiate the codec for the rest of the session.
+            server.selectCodec(codecType, modelInformation);
 
-        try (
-                Socket server = new Socket(hostname, port);
-                ObjectOutputStream socketOutputStream = new ObjectOutputStream(server.getOutputStream());
-                ObjectInputStream socketInputStream = new ObjectInputStream(server.getInputStream())) {
-            // Read and register serverModel.
-            registerServerModel(socketInputStream);
             modelRegistrationLatch.countDown();
 
             // Startup serverConnectionThread for reading server responses.
-            ServerConnectionThread serverConnectionThread = new ServerConnectionThread(socketInputStream, serverResponses);
-            serverConnectionThread.start();
+            Thread serverConnectionThread = ConnectionThreads.start(
+                    new ServerConnectionReader(server), "OnlineServerConnection");
 
             // Deque actions and send to server.
             do {
@@ -79,13 +194,19 @@ public class OnlineClient implements Runnable {
                 } catch (InterruptedException ex) {
                     log.warn("Interrupted while taking an online action from the queue."
                             + " Stopping client session and not waiting for server responses.", ex);
-                    socketOutputStream.writeObject(new Exit());
-                    socketInputStream.close();
+                    server.send(new Exit());
+                    server.flush();
                     return;
                 }
                 log.trace("Sending Action {}", onlineAction);
-                socketOutputStream.writeObject(onlineAction);
+                server.send(onlineAction);
+
+                // Only flush when there is nothing else ready to send.
+                if (actionQueue.isEmpty()) {
+                    server.flush();
+                }
             } while (!(onlineAction instanceof Exit || onlineAction instanceof Stop));
+            server.flush();
 
             // Wait for serverConnectionThread.
             serverConnectionThread.join();
@@ -93,32 +214,173 @@ public class OnlineClient implements Runnable {
             throw new RuntimeException(ex);
         } catch (InterruptedException ex) {
             log.warn("Client session interrupted. Client stopped.");
+        } finally {
+            if (server != null) {
+                server.close();
+            }
         }
     }
 
-    private void registerServerModel(ObjectInputStream socketInputStream) throws IOException, ClassNotFoundException {
-        // Get model information from server.
-        ModelInformation modelInformation = (ModelInformation)socketInputStream.readObject();
+    private ServerConnection connect() throws IOException {
+        if (transport == OnlineServer.Transport.IN_PROCESS) {
+            return InProcessTransport.connect(port);
+        }
 
-        // Register model predicates.
-        for (Predicate predicate: modelInformation.getPredicates()) {
-            Predicate.registerPredicate(predicate);
-            log.trace("Registered predicate: " + Predicate.get(predicate.getName()).toString() +
-                    " Client Hash: " + Predicate.get(predicate.getName()).hashCode() +
-                    " Server Hash: " + predicate.hashCode());
+        if (transport == OnlineServer.Transport.UNIX) {
+            return new ChannelServerConnection(UnixDomainSockets.connect(unixSocketPath));
+        }
+
+        return new SocketServerConnection(hostname, port);
+    }
+
+    /**
+     * Drop all cached server models.
+     */
+    public static void clearModelCache() {
+        modelCache.clear();
+    }
+
+    /**
+     * Request (or update the cached copy of) the server's model and register it.
+     * The returned model information references the client's registered predicates.
+     */
+    private ModelInformation registerServerModel(ServerConnection server) throws IOException, ClassNotFoundException {
+        String cacheKey = (transport == OnlineServer.Transport.UNIX) ? unixSocketPath : (hostname + ":" + port);
+        ModelInformation cachedModel = modelCache.get(cacheKey);
+
+        server.send(new ModelRequest((cachedModel == null) ? null : cachedModel.getModelHash(), clientName));
+        server.flush();
+
+        OnlineMessage response = server.receive();
+
+        ModelInformation modelInformation = null;
+        if (response instanceof ModelInformation) {
+            modelInformation = (ModelInformation)response;
+            registerPredicates(modelInformation.getPredicates());
+        } else if (response instanceof ModelDelta) {
+            ModelDelta delta = (ModelDelta)response;
+            if (cachedModel == null || !delta.getBaseModelHash().equals(cachedModel.getModelHash())) {
+                throw new IOException(String.format("Received a model delta for a model that is not cached: %s", delta));
+            }
+
+            modelInformation = applyModelDelta(cachedModel, delta);
+        } else {
+            throw new IOException(String.format("Unexpected response to model request: %s", response));
+        }
+
+        log.trace(String.format("Registered server model: %s", modelInformation.getModelHash()));
+
+        if (modelInformation.getModelHash() != null) {
+            modelCache.put(cacheKey, modelInformation);
+        }
+
+        return modelInformation;
+    }
+
+    /**
+     * Build the current model from a cached model and the rule changes since then.
+     * The cached predicates are resolved against the currently registered predicates
+     * and are only registered again if they are missing.
+     */
+    private ModelInformation applyModelDelta(ModelInformation cachedModel, ModelDelta delta) {
+        Predicate[] cachedPredicates = cachedModel.getPredicates();
+        Predicate[] predicates = new Predicate[cachedPredicates.length];
+        for (int i = 0; i < cachedPredicates.length; i++) {
+            predicates[i] = Predicate.get(cachedPredicates[i].getName());
+            if (predicates[i] == null) {
+                Predicate.registerPredicate(cachedPredicates[i]);
+                predicates[i] = Predicate.get(cachedPredicates[i].getName());
+            }
+        }
+
+        Set<String> deletedRules = new HashSet<String>();
+        for (Rule rule : delta.getDeletedRules()) {
+            deletedRules.add(rule.toString());
+        }
+
+        List<Rule> rules = new ArrayList<Rule>();
+        for (Rule rule : cachedModel.getRules()) {
+            if (!deletedRules.contains(rule.toString())) {
+                rules.add(rule);
+            }
+        }
+
+        for (Rule rule : delta.getAddedRules()) {
+            rules.add(rule);
+        }
+
+        return new ModelInformation(predicates, rules.toArray(new Rule[0]), delta.getModelHash());
+    }
+
+    private void registerPredicates(Predicate[] predicates) {
+        for (int i = 0; i < predicates.length; i++) {
+            Predicate.registerPredicate(predicates[i]);
+            log.trace("Registered predicate: " + Predicate.get(predicates[i].getName()).toString() +
+                    " Client Hash: " + Predicate.get(predicates[i].getName()).hashCode() +
+                    " Server Hash: " + predicates[i].hashCode());
+
+            predicates[i] = Predicate.get(predicates[i].getName());
+        }
+    }
+
+    private void onResponse(OnlineResponse response) {
+        if (response instanceof AtomValueDelta) {
+            Consumer<AtomValueDelta> listener = subscriptionListeners.get(response.getActionIdentifier());
+            if (listener != null) {
+                listener.accept((AtomValueDelta)response);
+            }
+        } else if (response instanceof ActionStatus) {
+            removeEndedSubscription((ActionStatus)response);
+        }
+
+        CompletableFuture<OnlineResponse> future = pendingResponses.remove(response.getActionIdentifier());
+        if (future != null) {
+            future.complete(response);
+        }
+
+        if (serverResponses != null) {
+            serverResponses.add(response);
+        }
+    }
+
+    /**
+     * Drop the listener of a subscription that has failed or has been unsubscribed.
+     * The listener is dropped even if the Unsubscribe failed, since the server no longer knows the subscription.
+     */
+    private void removeEndedSubscription(ActionStatus status) {
+        UUID subscriptionIdentifier = pendingUnsubscribes.remove(status.getActionIdentifier());
+        if (subscriptionIdentifier != null) {
+            subscriptionListeners.remove(subscriptionIdentifier);
+        } else if (!status.isSuccess()) {
+            subscriptionListeners.remove(status.getActionIdentifier());
+        }
+    }
+
+    /**
+     * Number of subscriptions that still have a listener.
+     */
+    int getSubscriptionListenerCount() {
+        return subscriptionListeners.size();
+    }
+
+    private void failPendingResponses() {
+        for (UUID actionIdentifier : pendingResponses.keySet()) {
+            CompletableFuture<OnlineResponse> future = pendingResponses.remove(actionIdentifier);
+            if (future != null) {
+                future.completeExceptionally(new IllegalStateException(
+                        String.format("Online client session closed before a response to action %s was received.", actionIdentifier)));
+            }
         }
     }
 
     /**
      * Private class for reading OnlineResponses from the OnlineServer.
      */
-    private static class ServerConnectionThread extends Thread {
-        private ObjectInputStream inputStream;
-        private List<OnlineResponse> serverResponses;
+    private class ServerConnectionReader implements Runnable {
+        private ServerConnection server;
 
-        public ServerConnectionThread(ObjectInputStream inputStream, List<OnlineResponse> serverResponses) {
-            this.inputStream = inputStream;
-            this.serverResponses = serverResponses;
+        public ServerConnectionReader(ServerConnection server) {
+            this.server = server;
         }
 
         @Override
@@ -127,7 +389,7 @@ public class OnlineClient implements Runnable {
 
             while (true) {
                 try {
-                    response = (OnlineResponse)inputStream.readObject();
+                    response = (OnlineResponse)server.receive();
                 } catch (EOFException ex) {
                     // Server closed socket.
                     break;
@@ -136,8 +398,10 @@ public class OnlineClient implements Runnable {
                     throw new RuntimeException(ex);
                 } catch (ClassNotFoundException ex) {
                     log.warn("Unable to deserialized last OnlineResponse from server.");
+                    continue;
                 }
-                serverResponses.add(response);
+
+                onResponse(response);
             }
         }
     }
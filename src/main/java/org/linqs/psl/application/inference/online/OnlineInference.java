@@ -19,23 +19,35 @@ package org.linqs.psl.application.inference.online;
 
 import org.linqs.psl.application.inference.InferenceApplication;
 import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.controls.LoadAtoms;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
 import org.linqs.psl.application.inference.online.messages.actions.controls.WriteInferredPredicates;
 import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomAction;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomActionBatch;
 import org.linqs.psl.application.inference.online.messages.actions.model.DeleteAtom;
 import org.linqs.psl.application.inference.online.messages.actions.model.FixAtom;
 import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtoms;
 import org.linqs.psl.application.inference.online.messages.actions.model.ObserveAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ReadConsistency;
+import org.linqs.psl.application.inference.online.messages.actions.model.Subscribe;
+import org.linqs.psl.application.inference.online.messages.actions.model.Unsubscribe;
 import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
 import org.linqs.psl.application.inference.online.messages.actions.template.ActivateRule;
 import org.linqs.psl.application.inference.online.messages.actions.template.AddRule;
 import org.linqs.psl.application.inference.online.messages.actions.template.DeactivateRule;
 import org.linqs.psl.application.inference.online.messages.actions.template.DeleteRule;
 import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.AtomValueDelta;
+import org.linqs.psl.application.inference.online.messages.responses.BatchActionStatus;
 import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomsResponse;
 import org.linqs.psl.application.learning.weight.TrainingMap;
+import org.linqs.psl.config.OnlineOptions;
 import org.linqs.psl.database.Database;
+import org.linqs.psl.database.atom.MappedAtomFileReader;
 import org.linqs.psl.database.atom.OnlineAtomManager;
 import org.linqs.psl.database.atom.PersistedAtomManager;
 import org.linqs.psl.evaluation.statistics.Evaluator;
@@ -49,16 +61,75 @@ import org.linqs.psl.reasoner.term.online.OnlineTermStore;
 import org.linqs.psl.util.Logger;
 import org.linqs.psl.util.StringUtils;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 public abstract class OnlineInference extends InferenceApplication {
     private static final Logger log = Logger.getLogger(OnlineInference.class);
 
+    // How long the background optimizer waits for the waiting actions after a preemption.
+    private static final long MIN_PREEMPTION_BACKOFF_MS = 10;
+    private static final long MAX_PREEMPTION_BACKOFF_MS = 1000;
+    private static final long PREEMPTION_BACKOFF_POLL_MS = 2;
+
     private OnlineServer server;
-    private boolean modelUpdates;
+    private volatile boolean modelUpdates;
+
+    // The model version counts the model updates (mutations) since the server started.
+    // Writes to the optimization state are done while holding the optimization monitor.
+    private final Object optimizationMonitor = new Object();
+    private volatile long modelVersion;
+    private volatile long optimizedModelVersion;
+    private volatile long lastOptimizationTime;
+
+    // Actions are executed while holding the term store's iteration lock.
+    private ReentrantLock modelLock;
+    private OptimizerThread optimizer;
+
+    private ReadConsistency defaultReadConsistency;
+    private long maxStalenessMS;
+    private long maxStaleUpdates;
     private boolean stopped;
-    private double objective;
+    // Null when LoadAtoms is disabled.
+    private File loadDirectory;
+    private volatile double objective;
+    private AtomSubscriptions subscriptions;
+    private boolean snapshotReads;
+    // Shared by snapshots until atoms are added, deleted, or replaced (null until the next snapshot rebuilds it).
+    private volatile AtomValueSnapshot.Index snapshotIndex;
+
+    private OptimizationTrigger trigger;
+    private long lastActionTime;
+
+    // Null when coalescing is disabled.
+    private MutationCoalescer coalescer;
+    private int coalesceWindow;
+
+    // Local optimization is disabled when there are no hops.
+    private int localHops;
+
+    // Null when every optimization gets the reasoner's full budget.
+    private OptimizationBudget budget;
+
+    // Optimizations that nothing is waiting on can stop between term pages to let actions in.
+    private boolean preemptibleOptimization;
+    private int maxPreemptions;
+    private volatile long preemptedOptimizations;
+    private volatile int optimizationWaiters;
+
+    // Term pages are compacted after optimizations when enabled.
+    private boolean compaction;
+    private double compactionMinLive;
+    private double compactionMinFill;
 
     // Optional evaluation resources.
     private List<Evaluator> evaluators;
@@ -78,6 +149,43 @@ public abstract class OnlineInference extends InferenceApplication {
         stopped = false;
         modelUpdates = true;
         objective = 0.0;
+        loadDirectory = getLoadDirectory();
+
+        modelVersion = 0;
+        optimizedModelVersion = -1;
+        lastOptimizationTime = 0;
+        optimizer = null;
+        snapshotReads = OnlineOptions.ONLINE_SNAPSHOT_READS.getBoolean();
+        snapshotIndex = null;
+        trigger = (OptimizationTrigger)OnlineOptions.ONLINE_OPTIMIZATION_TRIGGER.getNewObject();
+        lastActionTime = System.currentTimeMillis();
+
+        coalesceWindow = OnlineOptions.ONLINE_COALESCE_WINDOW.getInt();
+        coalescer = null;
+        if (coalesceWindow > 1) {
+            coalescer = new MutationCoalescer();
+        }
+
+        localHops = OnlineOptions.ONLINE_LOCAL_HOPS.getInt();
+
+        budget = null;
+        if (OnlineOptions.ONLINE_ADAPTIVE_BUDGET.getBoolean()) {
+            budget = new OptimizationBudget(OnlineOptions.ONLINE_MIN_BUDGET.getDouble(),
+                    OnlineOptions.ONLINE_BUDGET_SCALE.getDouble(), getMaxReasonerIterations());
+        }
+
+        preemptibleOptimization = OnlineOptions.ONLINE_PREEMPTIBLE_OPTIMIZATION.getBoolean();
+        maxPreemptions = OnlineOptions.ONLINE_MAX_PREEMPTIONS.getInt();
+        preemptedOptimizations = 0;
+        optimizationWaiters = 0;
+
+        compaction = OnlineOptions.ONLINE_COMPACTION.getBoolean();
+        compactionMinLive = OnlineOptions.ONLINE_COMPACTION_MIN_LIVE.getDouble();
+        compactionMinFill = OnlineOptions.ONLINE_COMPACTION_MIN_FILL.getDouble();
+
+        defaultReadConsistency = ReadConsistency.valueOf(OnlineOptions.ONLINE_READ_CONSISTENCY.getString().toUpperCase());
+        maxStalenessMS = OnlineOptions.ONLINE_MAX_STALENESS.getInt();
+        maxStaleUpdates = OnlineOptions.ONLINE_MAX_STALE_UPDATES.getInt();
 
         evaluators = null;
         trainingMap = null;
@@ -87,7 +195,29 @@ public abstract class OnlineInference extends InferenceApplication {
 
         super.initialize();
 
+        subscriptions = new AtomSubscriptions((OnlineAtomManager)atomManager, (OnlineTermStore)termStore,
+                OnlineOptions.ONLINE_SUBSCRIPTION_EPSILON.getDouble());
+
         termStore.ensureVariableCapacity(atomManager.getCachedRVACount() + atomManager.getCachedObsCount());
+        modelLock = ((OnlineTermStore)termStore).getIterationLock();
+
+        if (localHops > 0) {
+            ((OnlineTermStore)termStore).enablePageIndex();
+            ((OnlineTermStore)termStore).setFullSweepInterval(OnlineOptions.ONLINE_FULL_SWEEP_INTERVAL.getInt());
+        }
+
+        if (compaction) {
+            ((OnlineTermStore)termStore).enableCompaction();
+        }
+
+        if (preemptibleOptimization) {
+            ((OnlineTermStore)termStore).setPreemptionCheck(new BooleanSupplier() {
+                @Override
+                public boolean getAsBoolean() {
+                    return hasWaitingActions();
+                }
+            });
+        }
     }
 
     @Override
@@ -98,10 +228,18 @@ public abstract class OnlineInference extends InferenceApplication {
     @Override
     public void close() {
         stopped = true;
+        stopOptimizer();
         closeServer();
         super.close();
     }
 
+    private void stopOptimizer() {
+        if (optimizer != null) {
+            optimizer.shutdown();
+            optimizer = null;
+        }
+    }
+
     private void closeServer() {
         if (server != null) {
             server.close();
@@ -129,8 +267,18 @@ public abstract class OnlineInference extends InferenceApplication {
             response = doObserveAtom((ObserveAtom)action);
         } else if (action.getClass() == UpdateObservation.class) {
             response = doUpdateObservation((UpdateObservation)action);
+        } else if (action.getClass() == AtomActionBatch.class) {
+            // Batches are answered with a single status instead of a message per mutation.
+            server.onActionExecution(action, doAtomActionBatch((AtomActionBatch)action));
+            return;
         } else if (action.getClass() == GetAtom.class) {
             response = doGetAtom((GetAtom)action);
+        } else if (action.getClass() == GetAtoms.class) {
+            response = doGetAtoms((GetAtoms)action);
+        } else if (action.getClass() == Subscribe.class) {
+            response = doSubscribe((Subscribe)action);
+        } else if (action.getClass() == Unsubscribe.class) {
+            response = doUnsubscribe((Unsubscribe)action);
         } else if (action.getClass() == ActivateRule.class) {
             response = doActivateRule((ActivateRule)action);
         } else if (action.getClass() == AddRule.class) {
@@ -139,6 +287,8 @@ public abstract class OnlineInference extends InferenceApplication {
             response = doDeactivateRule((DeactivateRule)action);
         } else if (action.getClass() == DeleteRule.class) {
             response = doDeleteRule((DeleteRule)action);
+        } else if (action.getClass() == LoadAtoms.class) {
+            response = doLoadAtoms((LoadAtoms)action);
         } else if (action.getClass() == WriteInferredPredicates.class) {
             response = doWriteInferredPredicates((WriteInferredPredicates)action);
         } else if (action.getClass() == Sync.class) {
@@ -153,40 +303,12 @@ public abstract class OnlineInference extends InferenceApplication {
     }
 
     protected String doAddAtom(AddAtom action) {
-        GroundAtom atom = null;
+        GroundAtom atom = addAtom(action);
 
         if (action.getPartitionName().equalsIgnoreCase("TRUTH")) {
-            atom = new ObservedAtom(action.getPredicate(), action.getArguments(), action.getValue());
-            if (trainingMap != null) {
-                // Todo(cad): Add atom to truth partition of TrainingMap.
-//                trainingMap.addTruthAtom(
-//                        new ObservedAtom(action.getPredicate(), action.getArguments(), action.getValue()),
-//                        ((OnlineAtomManager)atomManager).getOnlineReadPartition());
-            }
-
             return String.format("Added atom: %s", atom);
         }
 
-        if (atomManager.getDatabase().hasAtom(action.getPredicate(), action.getArguments())) {
-            atom = deleteAtom(action.getPredicate(), action.getArguments());
-            ((OnlineTermStore)termStore).deleteLocalVariable(atom);
-        }
-
-        if (action.getPartitionName().equalsIgnoreCase("READ")) {
-            atom = ((OnlineAtomManager)atomManager).addObservedAtom(action.getPredicate(), action.getValue(), action.getArguments());
-        } else if (action.getPartitionName().equalsIgnoreCase("WRITE")) {
-            atom = ((OnlineAtomManager)atomManager).addRandomVariableAtom(action.getPredicate(), action.getValue(), action.getArguments());
-
-            if (trainingMap != null) {
-                trainingMap.addRandomVariableTargetAtom((RandomVariableAtom)atom);
-            }
-        } else {
-            throw new IllegalArgumentException(String.format("Unrecognized partition: %s", action.getPartitionName()));
-        }
-
-        ((OnlineTermStore)termStore).createLocalVariable(atom);
-
-        modelUpdates = true;
         return String.format("Added atom: %s", atom.toStringWithValue());
     }
 
@@ -196,10 +318,7 @@ public abstract class OnlineInference extends InferenceApplication {
                     action.getPredicate(), StringUtils.join(", ", action.getArguments()));
         }
 
-        GroundAtom atom = deleteAtom(action.getPredicate(), action.getArguments());
-        ((OnlineTermStore)termStore).deleteLocalVariable(atom);
-
-        modelUpdates = true;
+        GroundAtom atom = removeAtom(action.getPredicate(), action.getArguments());
         return String.format("Deleted atom: %s", atom);
     }
 
@@ -224,6 +343,7 @@ public abstract class OnlineInference extends InferenceApplication {
         ObservedAtom observedAtom = ((OnlineAtomManager)atomManager).addObservedAtom(
                 action.getPredicate(), atom.getValue(), false, action.getArguments()
         );
+        subscriptions.onAtomAdded(observedAtom);
 
         // Update the TrainingMap.
         if (trainingMap != null) {
@@ -246,20 +366,10 @@ public abstract class OnlineInference extends InferenceApplication {
                     action.getPredicate(), StringUtils.join(", ", action.getArguments()));
         }
 
-        // Delete then create atom with same predicates and arguments as the random variable atom.
-        deleteAtom(action.getPredicate(), action.getArguments());
+        String oldAtom = atom.toStringWithValue();
+        ObservedAtom observedAtom = observeAtom(action);
 
-        ObservedAtom observedAtom = ((OnlineAtomManager)atomManager).addObservedAtom(action.getPredicate(), action.getValue(), false, action.getArguments());
-        ((OnlineTermStore)termStore).updateLocalVariable(observedAtom, action.getValue());
-
-        // Update the TrainingMap.
-        if (trainingMap != null) {
-            // Todo(cad): Add atom to observed target partition of TrainingMap.
-//            trainingMap.addObservedTargetAtom(observedAtom);
-        }
-
-        modelUpdates = true;
-        return String.format("Observed atom: %s => %s", atom.toStringWithValue(), observedAtom.toStringWithValue());
+        return String.format("Observed atom: %s => %s", oldAtom, observedAtom.toStringWithValue());
     }
 
     protected String doUpdateObservation(UpdateObservation action) {
@@ -274,30 +384,149 @@ public abstract class OnlineInference extends InferenceApplication {
         }
 
         float oldAtomValue = atom.getValue();
-        ((OnlineTermStore)termStore).updateLocalVariable((ObservedAtom)atom, action.getValue());
-        ((ObservedAtom)atom)._assumeValue(action.getValue());
+        updateObservation((ObservedAtom)atom, action.getValue());
 
-        modelUpdates = true;
         return String.format("Updated atom: %s: %f => %f", atom, oldAtomValue, atom.getValue());
     }
 
+    /**
+     * Apply all the mutations in a batch in a single pass.
+     * Mutations that would have been rejected on their own (e.g. observing a missing atom) are skipped
+     * and reported by index in the returned status.
+     */
+    protected BatchActionStatus doAtomActionBatch(AtomActionBatch batch) {
+        List<AtomAction> actions = batch.getActions();
+
+        int[] failedIndexes = new int[actions.size()];
+        int failedCount = 0;
+
+        for (int i = 0; i < actions.size(); i++) {
+            boolean applied = false;
+
+            try {
+                applied = applyBatchedAction(actions.get(i));
+            } catch (IllegalArgumentException ex) {
+                log.debug(String.format("Failed to apply batched action %d (%s): %s", i, actions.get(i), ex.getMessage()));
+            }
+
+            if (!applied) {
+                failedIndexes[failedCount] = i;
+                failedCount++;
+            }
+        }
+
+        return new BatchActionStatus(batch, actions.size(), Arrays.copyOf(failedIndexes, failedCount));
+    }
+
     protected String doGetAtom(GetAtom action) {
         if (!((OnlineAtomManager)atomManager).hasAtom(action.getPredicate(), action.getArguments())) {
-            server.onActionExecution(action, new GetAtomResponse(action, -1.0));
+            server.onActionExecution(action, new GetAtomResponse(action, -1.0, modelVersion));
 
             return String.format("Atom: %s(%s) not found.",
                     action.getPredicate(), StringUtils.join(", ", action.getArguments()));
         }
 
-        optimize();
+        long readVersion = optimizeForRead(action.getReadConsistency());
 
         double atomValue = atomManager.getAtom(action.getPredicate(), action.getArguments()).getValue();
-        server.onActionExecution(action, new GetAtomResponse(action, atomValue));
+        server.onActionExecution(action, new GetAtomResponse(action, atomValue, readVersion));
 
         return String.format("Atom: %s(%s) found. Returned to client.",
                 action.getPredicate(), StringUtils.join(", ", action.getArguments()));
     }
 
+    /**
+     * Read the values of many atoms after a single optimization.
+     */
+    protected String doGetAtoms(GetAtoms action) {
+        OnlineAtomManager onlineAtomManager = (OnlineAtomManager)atomManager;
+
+        long readVersion = optimizeForRead(action.getReadConsistency());
+
+        if (!action.isPattern()) {
+            List<StandardPredicate> predicates = action.getPredicates();
+            List<Constant[]> arguments = action.getArguments();
+
+            float[] values = new float[predicates.size()];
+            int foundCount = 0;
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = -1.0f;
+
+                if (onlineAtomManager.hasAtom(predicates.get(i), arguments.get(i))) {
+                    GroundAtom atom = onlineAtomManager.getAtom(predicates.get(i), arguments.get(i));
+                    if (atom != null) {
+                        values[i] = atom.getValue();
+                        foundCount++;
+                    }
+                }
+            }
+
+            server.onActionExecution(action, new GetAtomsResponse(action, values, readVersion));
+            return String.format("Found %d of %d atoms. Returned to client.", foundCount, values.length);
+        }
+
+        Constant[] pattern = action.getPattern();
+        int wildcardCount = 0;
+        for (Constant argument : pattern) {
+            if (argument == null) {
+                wildcardCount++;
+            }
+        }
+
+        List<GroundAtom> atoms = new ArrayList<GroundAtom>();
+        for (GroundAtom atom : onlineAtomManager.getCachedAtoms(action.getPatternPredicate())) {
+            if (action.matches(atom.getArguments())) {
+                atoms.add(atom);
+            }
+        }
+
+        Constant[][] keys = new Constant[atoms.size()][];
+        float[] values = new float[atoms.size()];
+
+        for (int i = 0; i < atoms.size(); i++) {
+            Constant[] atomArguments = atoms.get(i).getArguments();
+
+            keys[i] = new Constant[wildcardCount];
+            int keyIndex = 0;
+            for (int j = 0; j < pattern.length; j++) {
+                if (pattern[j] == null) {
+                    keys[i][keyIndex] = atomArguments[j];
+                    keyIndex++;
+                }
+            }
+
+            values[i] = atoms.get(i).getValue();
+        }
+
+        server.onActionExecution(action, new GetAtomsResponse(action, keys, values, readVersion));
+        return String.format("Found %d atoms matching %s. Returned to client.", values.length, action);
+    }
+
+    protected String doSubscribe(Subscribe action) {
+        optimize();
+
+        if (!server.addSubscription(action)) {
+            return "Client disconnected before subscribing.";
+        }
+
+        AtomValueDelta delta = subscriptions.add(action);
+        server.publish(action.getIdentifier(), delta);
+
+        return String.format("Subscribed to %d atoms.", delta.size());
+    }
+
+    protected String doUnsubscribe(Unsubscribe action) {
+        UUID subscriptionIdentifier = action.getSubscriptionIdentifier();
+
+        server.removeSubscription(subscriptionIdentifier);
+        if (!subscriptions.remove(subscriptionIdentifier)) {
+            throw new IllegalArgumentException(String.format("Unknown subscription: %s.", subscriptionIdentifier));
+        }
+
+        return String.format("Unsubscribed: %s.", subscriptionIdentifier);
+    }
+
     protected String doActivateRule(ActivateRule action) {
         if (action.isNewRule()) {
             return String.format("Rule: %s does not exist in model.", action.getRule());
@@ -305,7 +534,7 @@ public abstract class OnlineInference extends InferenceApplication {
 
         ((OnlineTermStore)termStore).activateRule(action.getRule());
 
-        modelUpdates = true;
+        onModelUpdate(OptimizationBudget.Update.RULE_CHANGED);
         return String.format("Activated rule: %s", action.getRule());
     }
 
@@ -315,8 +544,9 @@ public abstract class OnlineInference extends InferenceApplication {
         }
 
         ((OnlineTermStore)termStore).addRule(action.getRule());
+        server.onRuleAdded(action.getRule());
 
-        modelUpdates = true;
+        onModelUpdate(OptimizationBudget.Update.RULE_CHANGED);
         return String.format("Added rule: %s", action.getRule());
     }
 
@@ -327,7 +557,7 @@ public abstract class OnlineInference extends InferenceApplication {
 
         ((OnlineTermStore)termStore).deactivateRule(action.getRule());
 
-        modelUpdates = true;
+        onModelUpdate(OptimizationBudget.Update.RULE_CHANGED);
         return String.format("Deactivated rule: %s", action.getRule());
     }
 
@@ -337,13 +567,94 @@ public abstract class OnlineInference extends InferenceApplication {
         }
 
         ((OnlineTermStore)termStore).deleteRule(action.getRule());
+        server.onRuleDeleted(action.getRule());
 
         action.getRule().unregister();
 
-        modelUpdates = true;
+        onModelUpdate(OptimizationBudget.Update.RULE_CHANGED);
         return String.format("Deleted rule: %s", action.getRule());
     }
 
+    /**
+     * Stream atoms from a file in the server's load directory straight into the atom manager and term store.
+     * If the file has a bad line, the atoms before it stay loaded.
+     */
+    protected String doLoadAtoms(LoadAtoms action) {
+        String partition = action.getPartitionName();
+        if (!(partition.equalsIgnoreCase("READ") || partition.equalsIgnoreCase("WRITE"))) {
+            throw new IllegalArgumentException(String.format("Atoms can only be loaded into the READ or WRITE partition, got: %s", partition));
+        }
+
+        File file = resolveLoadPath(action.getPath());
+
+        // Existence is still checked per atom (in addAtom()), not in batches.
+        // The database has no keyed bulk lookup: cached atoms are answered from the atom cache and the rest cost one point query each.
+        // The only bulk alternative is a predicate-wide read, which would pull every atom of the predicate into the cache
+        // and cost more than the point queries whenever the file is small next to the predicate.
+        long count = 0;
+        try (MappedAtomFileReader reader = new MappedAtomFileReader(file.getPath(), action.getPredicate())) {
+            while (reader.next()) {
+                try {
+                    addAtom(partition, action.getPredicate(), reader.getArguments(), reader.getValue());
+                } catch (IllegalArgumentException ex) {
+                    // The cause may quote the atom, which is not echoed back to the client.
+                    throw new IllegalArgumentException(String.format("Unable to add the atom on line %d of %s.",
+                            reader.getLineNumber(), action.getPath()), ex);
+                }
+                count++;
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new IllegalArgumentException(String.format("Failed to load atoms from %s after %d atoms: %s",
+                    action.getPath(), count, ex.getMessage()), ex);
+        }
+
+        log.debug(String.format("Loaded %d atoms into %s from %s.", count, partition, action.getPath()));
+        return String.format("Loaded %d atoms: %s from %s", count, action.getPredicate().getName(), action.getPath());
+    }
+
+    /**
+     * Resolve the path of an atom file against the load directory.
+     * Paths that do not lead into the load directory (after resolving links) are rejected.
+     */
+    private File resolveLoadPath(String path) {
+        if (loadDirectory == null) {
+            throw new IllegalArgumentException("Loading atoms from files is disabled (see onlineserver.loaddirectory).");
+        }
+
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(loadDirectory, path);
+        }
+
+        try {
+            file = file.getCanonicalFile();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(String.format("Unable to resolve atom file: %s", path), ex);
+        }
+
+        if (!file.toPath().startsWith(loadDirectory.toPath())) {
+            throw new IllegalArgumentException(String.format("Atom file is not in the load directory: %s", path));
+        }
+
+        return file;
+    }
+
+    /**
+     * The canonical load directory for LoadAtoms, or null if loading atom files is disabled.
+     */
+    private static File getLoadDirectory() {
+        String path = OnlineOptions.ONLINE_LOAD_DIRECTORY.getString();
+        if (path.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new File(path).getCanonicalFile();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(String.format("Unable to resolve the load directory: %s", path), ex);
+        }
+    }
+
     protected String doWriteInferredPredicates(WriteInferredPredicates action) {
         String response = null;
 
@@ -372,6 +683,137 @@ public abstract class OnlineInference extends InferenceApplication {
         return "OnlinePSL inference stopped.";
     }
 
+    /**
+     * Add (or replace) an atom and its local variable.
+     * Atoms for the TRUTH partition are not added to the model.
+     */
+    private GroundAtom addAtom(AddAtom action) {
+        GroundAtom atom = null;
+
+        if (action.getPartitionName().equalsIgnoreCase("TRUTH")) {
+            atom = new ObservedAtom(action.getPredicate(), action.getArguments(), action.getValue());
+            if (trainingMap != null) {
+                // Todo(cad): Add atom to truth partition of TrainingMap.
+//                trainingMap.addTruthAtom(
+//                        new ObservedAtom(action.getPredicate(), action.getArguments(), action.getValue()),
+//                        ((OnlineAtomManager)atomManager).getOnlineReadPartition());
+            }
+
+            return atom;
+        }
+
+        return addAtom(action.getPartitionName(), action.getPredicate(), action.getArguments(), action.getValue());
+    }
+
+    /**
+     * Add (or replace) an atom in the READ or WRITE partition and create its local variable.
+     */
+    private GroundAtom addAtom(String partition, StandardPredicate predicate, Constant[] arguments, float value) {
+        GroundAtom atom = null;
+
+        if (atomManager.getDatabase().hasAtom(predicate, arguments)) {
+            atom = deleteAtom(predicate, arguments);
+            ((OnlineTermStore)termStore).deleteLocalVariable(atom);
+        }
+
+        if (partition.equalsIgnoreCase("READ")) {
+            atom = ((OnlineAtomManager)atomManager).addObservedAtom(predicate, value, arguments);
+        } else if (partition.equalsIgnoreCase("WRITE")) {
+            atom = ((OnlineAtomManager)atomManager).addRandomVariableAtom(predicate, value, arguments);
+
+            if (trainingMap != null) {
+                trainingMap.addRandomVariableTargetAtom((RandomVariableAtom)atom);
+            }
+        } else {
+            throw new IllegalArgumentException(String.format("Unrecognized partition: %s", partition));
+        }
+
+        ((OnlineTermStore)termStore).createLocalVariable(atom);
+        subscriptions.onAtomAdded(atom);
+
+        onModelUpdate(OptimizationBudget.Update.ATOM_ADDED);
+        return atom;
+    }
+
+    /**
+     * Apply a single mutation from a batch without building any status message.
+     * Returns false if the mutation does not apply to the current model.
+     */
+    private boolean applyBatchedAction(AtomAction action) {
+        if (action.getClass() == AddAtom.class) {
+            addAtom((AddAtom)action);
+            return true;
+        }
+
+        if (!atomManager.getDatabase().hasAtom(action.getPredicate(), action.getArguments())) {
+            return false;
+        }
+
+        if (action.getClass() == DeleteAtom.class) {
+            removeAtom(action.getPredicate(), action.getArguments());
+            return true;
+        }
+
+        GroundAtom atom = atomManager.getAtom(action.getPredicate(), action.getArguments());
+
+        if (action.getClass() == ObserveAtom.class) {
+            if (!(atom instanceof RandomVariableAtom)) {
+                return false;
+            }
+
+            observeAtom((ObserveAtom)action);
+            return true;
+        } else if (action.getClass() == UpdateObservation.class) {
+            if (!(atom instanceof ObservedAtom)) {
+                return false;
+            }
+
+            updateObservation((ObservedAtom)atom, ((UpdateObservation)action).getValue());
+            return true;
+        }
+
+        throw new IllegalArgumentException("Unsupported batched action: " + action.getClass().getName() + ".");
+    }
+
+    /**
+     * Replace an existing random variable atom with an observation.
+     */
+    private ObservedAtom observeAtom(ObserveAtom action) {
+        // Delete then create atom with same predicates and arguments as the random variable atom.
+        deleteAtom(action.getPredicate(), action.getArguments());
+
+        ObservedAtom observedAtom = ((OnlineAtomManager)atomManager).addObservedAtom(action.getPredicate(), action.getValue(), false, action.getArguments());
+        ((OnlineTermStore)termStore).updateLocalVariable(observedAtom, action.getValue());
+        subscriptions.onAtomAdded(observedAtom);
+
+        // Update the TrainingMap.
+        if (trainingMap != null) {
+            // Todo(cad): Add atom to observed target partition of TrainingMap.
+//            trainingMap.addObservedTargetAtom(observedAtom);
+        }
+
+        onModelUpdate(OptimizationBudget.Update.OBSERVATION_CHANGED);
+        return observedAtom;
+    }
+
+    private void updateObservation(ObservedAtom atom, float value) {
+        ((OnlineTermStore)termStore).updateLocalVariable(atom, value);
+        atom._assumeValue(value);
+
+        onModelUpdate(OptimizationBudget.Update.OBSERVATION_CHANGED);
+    }
+
+    /**
+     * Delete an existing atom from the database, training map, and term store.
+     */
+    private GroundAtom removeAtom(StandardPredicate predicate, Constant[] arguments) {
+        GroundAtom atom = deleteAtom(predicate, arguments);
+        ((OnlineTermStore)termStore).deleteLocalVariable(atom);
+
+        onModelUpdate(OptimizationBudget.Update.ATOM_DELETED);
+        return atom;
+    }
+
     /**
      * Delete atom from the database and training map but do not delete from the term store.
      */
@@ -382,6 +824,10 @@ public abstract class OnlineInference extends InferenceApplication {
             return null;
         }
 
+        // Replaced atoms are new objects, so the snapshot index has to be rebuilt even if the atom comes right back.
+        snapshotIndex = null;
+        subscriptions.onAtomDeleted(atom);
+
         if (trainingMap != null) {
             trainingMap.deleteAtom(atom);
         }
@@ -389,19 +835,351 @@ public abstract class OnlineInference extends InferenceApplication {
         return atom;
     }
 
+    private void onModelUpdate(OptimizationBudget.Update update) {
+        if (budget != null) {
+            budget.onUpdate(update);
+        }
+
+        // Additions and rule changes can bring new atoms into the model.
+        if (update != OptimizationBudget.Update.OBSERVATION_CHANGED) {
+            snapshotIndex = null;
+        }
+
+        synchronized (optimizationMonitor) {
+            modelUpdates = true;
+            modelVersion++;
+            optimizationMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Optimize (or not) before a read, depending on the read's consistency.
+     * Returns the model version to tag the read with.
+     * Immediate reads see every update applied so far (just not optimized), so they get the current model version.
+     */
+    private long optimizeForRead(ReadConsistency readConsistency) {
+        if (readConsistency == null) {
+            readConsistency = defaultReadConsistency;
+        }
+
+        switch (readConsistency) {
+            case STRICT:
+                optimize();
+                return optimizedModelVersion;
+            case BOUNDED:
+                if (isTooStale()) {
+                    optimize();
+                }
+                return optimizedModelVersion;
+            case IMMEDIATE:
+                return modelVersion;
+            default:
+                throw new IllegalArgumentException("Unknown read consistency: " + readConsistency + ".");
+        }
+    }
+
+    /**
+     * Check if the last optimized values are outside of the staleness bounds.
+     * Non-positive bounds are ignored.
+     */
+    private boolean isTooStale() {
+        if (!modelUpdates) {
+            return false;
+        }
+
+        if (optimizedModelVersion < 0) {
+            return true;
+        }
+
+        if (maxStaleUpdates > 0 && modelVersion - optimizedModelVersion >= maxStaleUpdates) {
+            return true;
+        }
+
+        return maxStalenessMS > 0 && System.currentTimeMillis() - lastOptimizationTime >= maxStalenessMS;
+    }
+
     /**
      * Optimize if there were any modelUpdates since the last optimization.
+     * With background optimization, wait for the optimizer to cover them instead.
      */
     private void optimize() {
+        if (optimizer != null) {
+            awaitOptimization();
+            return;
+        }
+
         if (!modelUpdates) {
             return;
         }
 
+        runOptimization(false);
+    }
+
+    /**
+     * Run the reasoner over all the model updates so far and publish the new values.
+     * Updates applied between the reasoner's passes are left for the next optimization.
+     * A preemptible optimization that gets preempted keeps the values it reached,
+     * but leaves its updates pending (and publishes nothing).
+     * Returns false if the optimization was preempted.
+     */
+    private boolean runOptimization(boolean preemptible) {
+        // Choose the pages before taking the version, so every update counted in the version is covered.
+        boolean local = selectLocalPages();
+
+        long version = 0;
+        double optimizationBudget = OptimizationBudget.FULL_BUDGET;
+        synchronized (optimizationMonitor) {
+            modelUpdates = false;
+            version = modelVersion;
+
+            if (budget != null) {
+                optimizationBudget = budget.take(atomManager.getCachedRVACount() + atomManager.getCachedObsCount());
+            }
+        }
+
+        if (budget != null) {
+            reasoner.setBudget(optimizationBudget);
+        }
+
+        long absorbedUpdates = version - Math.max(0, optimizedModelVersion);
+        long startTime = System.currentTimeMillis();
+        double oldObjective = objective;
+
+        OnlineTermStore onlineTermStore = (OnlineTermStore)termStore;
+        onlineTermStore.setPreemptible(preemptible);
+
         log.trace("Optimization Start");
-        objective = reasoner.optimize(termStore, evaluators, trainingMap, evaluationPredicates);
+        double newObjective = 0.0;
+        boolean preempted = false;
+        try {
+            newObjective = reasoner.optimize(termStore, evaluators, trainingMap, evaluationPredicates);
+        } finally {
+            preempted = onlineTermStore.isPreempted();
+            if (local) {
+                onlineTermStore.clearLocalPages();
+            }
+            onlineTermStore.setPreemptible(false);
+        }
         log.trace("Optimization End");
 
-        modelUpdates = false;
+        if (preempted) {
+            synchronized (optimizationMonitor) {
+                modelUpdates = true;
+
+                if (budget != null) {
+                    budget.restore();
+                }
+
+                preemptedOptimizations++;
+            }
+
+            log.debug(String.format("Optimization preempted after %d ms.", System.currentTimeMillis() - startTime));
+            return false;
+        }
+
+        // The objective of a local optimization only covers some of the terms.
+        if (local) {
+            newObjective = objective;
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        log.debug(String.format("Optimization absorbed %d model updates in %d ms.", absorbedUpdates, duration));
+
+        if (budget != null) {
+            log.debug(String.format("Optimization budget: %.4f (update magnitude: %.6f), objective: %f => %f.",
+                    optimizationBudget, budget.getLastMagnitude(), oldObjective, newObjective));
+        }
+
+        modelLock.lock();
+        try {
+            trigger.onOptimization(absorbedUpdates, duration);
+
+            synchronized (optimizationMonitor) {
+                objective = newObjective;
+                optimizedModelVersion = version;
+                lastOptimizationTime = System.currentTimeMillis();
+                optimizationMonitor.notifyAll();
+            }
+
+            if (snapshotReads) {
+                AtomValueSnapshot.Index index = snapshotIndex;
+                if (index == null) {
+                    index = new AtomValueSnapshot.Index(((OnlineAtomManager)atomManager).getCachedAtoms());
+                    snapshotIndex = index;
+                }
+
+                server.setSnapshot(new AtomValueSnapshot(index, version));
+            }
+
+            publishSubscriptions();
+        } finally {
+            modelLock.unlock();
+        }
+
+        if (compaction) {
+            onlineTermStore.compactPages(compactionMinLive, compactionMinFill);
+        }
+
+        return true;
+    }
+
+    /**
+     * Restrict the next optimization to the neighborhood of the changed atoms, if local optimization is enabled.
+     * Every fullSweepInterval optimizations (and whenever the term store needs it) all the terms are optimized instead.
+     * Returns true if the optimization will be local.
+     */
+    private boolean selectLocalPages() {
+        if (localHops <= 0) {
+            return false;
+        }
+
+        OnlineTermStore onlineTermStore = (OnlineTermStore)termStore;
+        if (!onlineTermStore.selectLocalPages(localHops)) {
+            return false;
+        }
+
+        log.debug(String.format("Local optimization over %d of %d term pages.",
+                onlineTermStore.getLocalPageCount(), onlineTermStore.getActivePageCount()));
+        return true;
+    }
+
+    /**
+     * Wait until the background optimizer has covered all the model updates so far.
+     * The model lock is given up while waiting so that the optimizer can make its passes.
+     */
+    private void awaitOptimization() {
+        int holdCount = modelLock.getHoldCount();
+        for (int i = 0; i < holdCount; i++) {
+            modelLock.unlock();
+        }
+
+        try {
+            synchronized (optimizationMonitor) {
+                optimizationWaiters++;
+                try {
+                    long version = modelVersion;
+                    while (optimizedModelVersion < version && !optimizer.isFinished()) {
+                        optimizationMonitor.wait();
+                    }
+                } finally {
+                    optimizationWaiters--;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for optimization.", ex);
+        } finally {
+            for (int i = 0; i < holdCount; i++) {
+                modelLock.lock();
+            }
+        }
+
+        checkOptimizer();
+    }
+
+    /**
+     * Optimize pending updates if the trigger asks for it.
+     */
+    private void checkTrigger() {
+        if (optimizer != null || !modelUpdates) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long pendingUpdates = modelVersion - Math.max(0, optimizedModelVersion);
+
+        if (!trigger.shouldOptimize(pendingUpdates, now - lastOptimizationTime, now - lastActionTime)) {
+            return;
+        }
+
+        modelLock.lock();
+        try {
+            runOptimization(preemptibleOptimization);
+        } finally {
+            modelLock.unlock();
+        }
+    }
+
+    /**
+     * Check if any action is waiting on an optimization that nothing else is waiting on.
+     * Actions wait either in the server's queue or (with background optimization) on the model lock.
+     */
+    private boolean hasWaitingActions() {
+        if (optimizationWaiters > 0) {
+            return false;
+        }
+
+        OnlineServer server = this.server;
+        return modelLock.hasQueuedThreads() || (server != null && server.getQueueDepth() > 0);
+    }
+
+    public OptimizationTrigger getOptimizationTrigger() {
+        return trigger;
+    }
+
+    /**
+     * Get the adaptive budget of the optimizations, null if every optimization gets the full budget.
+     */
+    public OptimizationBudget getOptimizationBudget() {
+        return budget;
+    }
+
+    /**
+     * Get the number of optimizations that were preempted so far.
+     */
+    public long getPreemptedOptimizationCount() {
+        return preemptedOptimizations;
+    }
+
+    /**
+     * Get the model version of the last finished optimization (-1 before the first one).
+     */
+    public long getOptimizedModelVersion() {
+        return optimizedModelVersion;
+    }
+
+    /**
+     * The reasoner's maximum iterations, which the smallest adaptive budget covers one of.
+     * Non-positive if unknown.
+     */
+    protected int getMaxReasonerIterations() {
+        return 0;
+    }
+
+    private void checkOptimizer() {
+        if (optimizer != null && optimizer.getFailure() != null) {
+            throw new RuntimeException("Background optimization failed.", optimizer.getFailure());
+        }
+    }
+
+    /**
+     * Take the model lock, giving up if the optimizer dies while holding it.
+     */
+    private void lockModel() {
+        try {
+            while (!modelLock.tryLock(100, TimeUnit.MILLISECONDS)) {
+                checkOptimizer();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the model.", ex);
+        }
+    }
+
+    /**
+     * Push the atoms that moved in the last optimization to their subscribers.
+     */
+    private void publishSubscriptions() {
+        if (subscriptions == null || subscriptions.isEmpty()) {
+            return;
+        }
+
+        for (AtomValueDelta delta : subscriptions.computeDeltas()) {
+            if (!server.publish(delta.getActionIdentifier(), delta)) {
+                log.debug(String.format("Dropping subscription for a disconnected client: %s", delta.getActionIdentifier()));
+                subscriptions.remove(delta.getActionIdentifier());
+            }
+        }
     }
 
     @Override
@@ -410,28 +1188,237 @@ public abstract class OnlineInference extends InferenceApplication {
         this.trainingMap = trainingMap;
         this.evaluationPredicates = evaluationPredicates;
 
-        // Initial round of inference.
-        optimize();
+        if (OnlineOptions.ONLINE_BACKGROUND_OPTIMIZATION.getBoolean()) {
+            // The optimizer picks up the initial round of inference.
+            optimizer = new OptimizerThread();
+            optimizer.start();
+        } else {
+            // Initial round of inference.
+            optimize();
+        }
 
+        List<OnlineMessage> window = new ArrayList<OnlineMessage>();
         while (!stopped) {
-            OnlineMessage action = server.getAction();
+            OnlineMessage action = server.getAction(trigger.getPollInterval());
             if (action == null) {
+                checkTrigger();
                 continue;
             }
 
-            try {
-//                log.trace(String.format("Executing action: %s", action));
-                executeAction(action);
-            } catch (IllegalArgumentException ex) {
-                server.onActionExecution(action, new ActionStatus(action, false, ex.getMessage()));
-            } catch (RuntimeException ex) {
-                server.onActionExecution(action, new ActionStatus(action, false, ex.getMessage()));
-                closeServer();
-                throw new RuntimeException(String.format("Critically failed to execute action: %s", action), ex);
+            window.clear();
+            window.add(action);
+
+            if (coalescer != null) {
+                server.drainActions(window, coalesceWindow);
+                coalescer.coalesce(window);
+
+                if (coalescer.getSkippedCount() > 0) {
+                    log.trace(String.format("Coalesced %d of %d queued actions.", coalescer.getSkippedCount(), window.size()));
+                    executeCoalescedWindow(window);
+                    continue;
+                }
+            }
+
+            for (OnlineMessage windowAction : window) {
+                executeQueuedAction(windowAction);
             }
         }
+        stopOptimizer();
         closeServer();
 
+        log.info(trigger.toString());
+
+        if (compaction) {
+            OnlineTermStore onlineTermStore = (OnlineTermStore)termStore;
+            log.info(String.format("Page compaction: %d pages rewritten into %d pages, %d dead terms dropped, %d fewer bytes read per pass.",
+                    onlineTermStore.getCompactedPageCount(), onlineTermStore.getWrittenPageCount(),
+                    onlineTermStore.getDroppedTermCount(), onlineTermStore.getSavedBytesPerPass()));
+        }
+
         return objective;
     }
+
+    /**
+     * Execute a window of actions where some actions were superseded.
+     * A superseded action is only answered once the action that superseded it has run,
+     * so responses are held and released in window order: each action is answered as soon as it
+     * and every action before it have been answered.
+     */
+    private void executeCoalescedWindow(List<OnlineMessage> window) {
+        for (OnlineMessage action : window) {
+            server.holdResponses(action);
+        }
+
+        // If an action critically fails, the server sends whatever is still held when it is closed.
+        Set<UUID> answered = new HashSet<UUID>();
+        int nextRelease = 0;
+
+        for (OnlineMessage action : window) {
+            if (coalescer.isSkipped(action)) {
+                continue;
+            }
+
+            executeQueuedAction(action);
+
+            answered.add(action.getIdentifier());
+            for (OnlineMessage superseded : coalescer.getSuperseded(action)) {
+                answered.add(superseded.getIdentifier());
+            }
+
+            while (nextRelease < window.size() && answered.contains(window.get(nextRelease).getIdentifier())) {
+                server.releaseResponses(window.get(nextRelease));
+                nextRelease++;
+            }
+        }
+    }
+
+    /**
+     * Execute an action from the queue, and then answer any actions that it superseded with the same outcome.
+     */
+    private void executeQueuedAction(OnlineMessage action) {
+        String failure = null;
+
+        try {
+//            log.trace(String.format("Executing action: %s", action));
+            lockModel();
+            try {
+                if (coalescer != null && coalescer.isDeleteAfterAdd(action) && !hasAtom((DeleteAtom)action)) {
+                    // The add that this delete cancels was never executed.
+                    server.onActionExecution(action, new ActionStatus(action, true, String.format("Deleted atom: %s(%s)",
+                            ((DeleteAtom)action).getPredicate(), StringUtils.join(", ", ((DeleteAtom)action).getArguments()))));
+                } else {
+                    executeAction(action);
+                }
+            } finally {
+                modelLock.unlock();
+            }
+
+            lastActionTime = System.currentTimeMillis();
+            checkTrigger();
+        } catch (IllegalArgumentException ex) {
+            failure = ex.getMessage();
+            server.onActionExecution(action, new ActionStatus(action, false, failure));
+        } catch (RuntimeException ex) {
+            server.onActionExecution(action, new ActionStatus(action, false, ex.getMessage()));
+            stopOptimizer();
+            closeServer();
+            throw new RuntimeException(String.format("Critically failed to execute action: %s", action), ex);
+        }
+
+        if (coalescer == null) {
+            return;
+        }
+
+        for (OnlineMessage superseded : coalescer.getSuperseded(action)) {
+            if (failure == null) {
+                server.onActionExecution(superseded, new ActionStatus(superseded, true, String.format("Coalesced into: %s", action)));
+            } else {
+                server.onActionExecution(superseded, new ActionStatus(superseded, false, failure));
+            }
+        }
+    }
+
+    private boolean hasAtom(AtomAction action) {
+        return atomManager.getDatabase().hasAtom(action.getPredicate(), action.getArguments());
+    }
+
+    /**
+     * Optimizes whenever there are model updates, so actions do not have to wait on the reasoner.
+     */
+    private class OptimizerThread extends Thread {
+        private volatile boolean done;
+        private volatile boolean finished;
+        private volatile RuntimeException failure;
+
+        public OptimizerThread() {
+            super("OnlinePSL Optimizer");
+            setDaemon(true);
+
+            done = false;
+            finished = false;
+            failure = null;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Preemptions in a row.
+                int preemptions = 0;
+
+                while (true) {
+                    synchronized (optimizationMonitor) {
+                        while (!modelUpdates && !done) {
+                            optimizationMonitor.wait();
+                        }
+
+                        if (done) {
+                            return;
+                        }
+                    }
+
+                    boolean preemptible = preemptibleOptimization && (maxPreemptions <= 0 || preemptions < maxPreemptions);
+                    if (runOptimization(preemptible)) {
+                        preemptions = 0;
+                    } else {
+                        preemptions++;
+                        backOff(preemptions);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                log.debug("Background optimizer interrupted.");
+            } catch (RuntimeException ex) {
+                log.warn("Background optimization failed.", ex);
+                failure = ex;
+            } finally {
+                synchronized (optimizationMonitor) {
+                    finished = true;
+                    optimizationMonitor.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * After a preemption, let the waiting actions in before optimizing again:
+         * wait until none are waiting, but no longer than a time that doubles with every preemption in a row.
+         */
+        private void backOff(int preemptions) throws InterruptedException {
+            long backoffMS = Math.min(MAX_PREEMPTION_BACKOFF_MS, MIN_PREEMPTION_BACKOFF_MS << Math.min(preemptions - 1, 16));
+            long endTime = System.currentTimeMillis() + backoffMS;
+
+            synchronized (optimizationMonitor) {
+                while (!done && hasWaitingActions()) {
+                    long remainingMS = endTime - System.currentTimeMillis();
+                    if (remainingMS <= 0) {
+                        break;
+                    }
+
+                    optimizationMonitor.wait(Math.min(remainingMS, PREEMPTION_BACKOFF_POLL_MS));
+                }
+            }
+        }
+
+        /**
+         * Stop after the current optimization (if any).
+         */
+        public void shutdown() {
+            synchronized (optimizationMonitor) {
+                done = true;
+                optimizationMonitor.notifyAll();
+            }
+
+            try {
+                join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
@@ -17,40 +17,77 @@
  */
 package org.linqs.psl.application.inference.online;
 
+import org.linqs.psl.application.inference.online.messages.CodecSelection;
+import org.linqs.psl.application.inference.online.messages.JavaMessageCodec;
+import org.linqs.psl.application.inference.online.messages.MessageCodec;
 import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.ModelRequest;
 import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.OnlineMessageSerializer;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ReadConsistency;
 import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
 import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
+import org.linqs.psl.application.inference.online.messages.responses.RejectedActionStatus;
 import org.linqs.psl.config.OnlineOptions;
-import org.linqs.psl.model.predicate.FunctionalPredicate;
-import org.linqs.psl.model.predicate.Predicate;
 import org.linqs.psl.model.rule.Rule;
 import org.linqs.psl.util.FileUtils;
 import org.linqs.psl.util.Logger;
+import org.linqs.psl.util.StringUtils;
 import org.linqs.psl.util.SystemUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A class for listening for new client connections, queueing actions from OnlineClients, and sending OnlineResponses.
+ *
+ * All messages (in both directions) are sent as length-prefixed frames (see OnlineMessageSerializer).
+ * Each connection starts with the Java codec and a ModelRequest from the client,
+ * which is answered with the full model or only the rule changes since the client's cached model.
+ * The client may then switch codecs with a CodecSelection.
+ * Connections can either be handled with a dedicated thread per client (THREAD),
+ * or multiplexed over a small set of non-blocking IO threads (NIO).
+ * In THREAD mode, the per-client threads may be virtual threads (see ConnectionThreads).
+ * The UNIX transport (for clients on the same host) always uses NIO connection handling.
+ * Alternatively, the IN_PROCESS transport skips sockets (and serialization) entirely
+ * for clients in the same JVM (see InProcessTransport).
+ *
+ * Queued actions can be split into priority lanes, and clients can be scheduled fairly (see ActionQueue).
+ * Admission is controlled by a queue capacity and a per-client quota of in-flight actions.
+ * An action over either limit is answered with a RejectedActionStatus instead of being queued.
+ * The capacity is checked and the action queued under the queue's lock (see ActionQueue.offer()),
+ * and a client's quota slot is reserved before queueing, so concurrent IO threads cannot overrun either limit.
+ *
+ * Subscriptions are routed separately from actions, since they outlive the status of the action that started them.
+ *
+ * If the inference publishes snapshots of the atom values (see AtomValueSnapshot),
+ * IMMEDIATE GetAtom reads are answered from the latest snapshot on the thread that received them,
+ * as long as the client has no other actions in flight (which the read would otherwise overtake).
  */
 public class OnlineServer {
     private static final Logger log = Logger.getLogger(OnlineServer.class);
@@ -58,32 +95,149 @@ public class OnlineServer {
     public static final String TEMP_FILE_DIR_PREFIX = "onlinePSLServer";
     public static final String TEMP_FILE_NAME = "onlinePSLServer.lock";
 
+    /**
+     * How messages move between clients and the server.
+     */
+    public static enum Transport {
+        SOCKET,
+        UNIX,
+        IN_PROCESS
+    }
+
+    /**
+     * How socket client connections are handled.
+     */
+    public static enum ConnectionMode {
+        THREAD,
+        NIO
+    }
+
     private boolean listening;
+    private Transport transport;
+    private int port;
+    private ConnectionMode connectionMode;
     private ServerConnectionThread serverThread;
-    private Set<ClientConnectionThread> clientConnectionThreads;
-    private BlockingQueue<OnlineMessage> queue;
-    private ConcurrentMap<UUID, ClientConnectionThread> messageIDConnectionMap;
-    private List<Rule> rules;
+    private NIOServer nioServer;
+    private Set<ClientConnection> clientConnections;
+    private ActionQueue queue;
+    private ConcurrentMap<UUID, ClientConnection> messageIDConnectionMap;
+    private ConcurrentMap<ClientConnection, AtomicInteger> inFlightCounts;
+    private ConcurrentMap<UUID, ClientConnection> subscriptionConnectionMap;
+    private ConcurrentMap<UUID, HeldResponses> heldResponses;
+    private ModelVersions modelVersions;
     private File tempFile;
 
+    private boolean fairScheduling;
+    private Map<String, Integer> clientWeights;
+
+    private volatile AtomValueSnapshot snapshot;
+    private ReadConsistency defaultReadConsistency;
+
+    private int queueCapacity;
+    private int clientQuota;
+    private long retryAfterMS;
+    private AtomicInteger peakQueueDepth;
+    private AtomicLong rejectedActionCount;
+
     public OnlineServer(List<Rule> rules) {
         listening = false;
-        serverThread = new ServerConnectionThread();
+        transport = Transport.valueOf(OnlineOptions.ONLINE_TRANSPORT.getString().toUpperCase());
+        port = OnlineOptions.ONLINE_PORT_NUMBER.getInt();
+        connectionMode = ConnectionMode.valueOf(OnlineOptions.ONLINE_CONNECTION_MODE.getString().toUpperCase());
+        serverThread = null;
+        nioServer = null;
         tempFile = null;
-        queue = new LinkedBlockingQueue<OnlineMessage>();
-        messageIDConnectionMap = new ConcurrentHashMap<UUID, ClientConnectionThread>();
-        clientConnectionThreads = Collections.newSetFromMap(new ConcurrentHashMap<ClientConnectionThread, Boolean>());
-        this.rules = rules;
+        fairScheduling = OnlineOptions.ONLINE_FAIR_SCHEDULING.getBoolean();
+        clientWeights = parseClientWeights(OnlineOptions.ONLINE_CLIENT_WEIGHTS.getString());
+        queue = createQueue(fairScheduling);
+        messageIDConnectionMap = new ConcurrentHashMap<UUID, ClientConnection>();
+        inFlightCounts = new ConcurrentHashMap<ClientConnection, AtomicInteger>();
+        subscriptionConnectionMap = new ConcurrentHashMap<UUID, ClientConnection>();
+        heldResponses = new ConcurrentHashMap<UUID, HeldResponses>();
+        clientConnections = Collections.newSetFromMap(new ConcurrentHashMap<ClientConnection, Boolean>());
+        modelVersions = new ModelVersions(rules);
+
+        snapshot = null;
+        defaultReadConsistency = ReadConsistency.valueOf(OnlineOptions.ONLINE_READ_CONSISTENCY.getString().toUpperCase());
+
+        queueCapacity = OnlineOptions.ONLINE_QUEUE_CAPACITY.getInt();
+        clientQuota = OnlineOptions.ONLINE_CLIENT_QUOTA.getInt();
+        retryAfterMS = OnlineOptions.ONLINE_RETRY_AFTER.getInt();
+        peakQueueDepth = new AtomicInteger(0);
+        rejectedActionCount = new AtomicLong(0);
+    }
+
+    private static ActionQueue createQueue(boolean fairScheduling) {
+        if (!OnlineOptions.ONLINE_PRIORITY_LANES.getBoolean()) {
+            return new ActionQueue(null, fairScheduling);
+        }
+
+        String[] parts = OnlineOptions.ONLINE_LANE_WEIGHTS.getString().split(",");
+        int[] weights = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                weights[i] = Integer.parseInt(parts[i].trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Bad lane weight: '" + parts[i] + "'.", ex);
+            }
+        }
+
+        return new ActionQueue(weights, fairScheduling);
+    }
+
+    /**
+     * Parse client weights of the form: "name=weight,name=weight".
+     */
+    private static Map<String, Integer> parseClientWeights(String text) {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+
+        for (String part : text.split(",")) {
+            if (part.trim().isEmpty()) {
+                continue;
+            }
+
+            String[] pair = part.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Bad client weight: '" + part + "'. Expected name=weight.");
+            }
+
+            try {
+                weights.put(pair[0].trim(), Integer.valueOf(pair[1].trim()));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Bad client weight: '" + part + "'.", ex);
+            }
+        }
+
+        return weights;
     }
 
     /**
      * Start up the server and listen for new connections on the configured port.
-     * This method does not block. A new thread is started to wait for connections.
+     * This method does not block. New threads are started to wait for connections.
      */
     public void start() {
         listening = true;
-        serverThread.start();
-        serverThread.blockUntilReady();
+
+        if (transport == Transport.IN_PROCESS) {
+            InProcessTransport.bind(port, this);
+        } else if (transport == Transport.UNIX) {
+            if (connectionMode != ConnectionMode.NIO) {
+                log.debug("Unix domain sockets always use the NIO connection mode.");
+            }
+
+            nioServer = new NIOServer(this, port, OnlineOptions.ONLINE_UNIX_SOCKET_PATH.getString(),
+                    OnlineOptions.ONLINE_NIO_THREADS.getInt());
+            nioServer.start();
+            createServerTempFile();
+        } else if (connectionMode == ConnectionMode.NIO) {
+            nioServer = new NIOServer(this, port, OnlineOptions.ONLINE_NIO_THREADS.getInt());
+            nioServer.start();
+            createServerTempFile();
+        } else {
+            serverThread = new ServerConnectionThread();
+            serverThread.start();
+            serverThread.blockUntilReady();
+        }
     }
 
     /**
@@ -113,11 +267,27 @@ public class OnlineServer {
      * This method will block until an action is available to take from the queue.
      */
     public OnlineMessage getAction() {
+        return getAction(0);
+    }
+
+    /**
+     * Get the next action from the client, waiting at most the given time for one.
+     * Returns null if no action arrived in time.
+     * A non-positive timeout waits until an action is available.
+     */
+    public OnlineMessage getAction(long timeoutMS) {
         OnlineMessage nextAction = null;
 
         do {
             try {
-                nextAction = queue.take();
+                if (timeoutMS > 0) {
+                    nextAction = queue.poll(timeoutMS);
+                    if (nextAction == null) {
+                        return null;
+                    }
+                } else {
+                    nextAction = queue.take();
+                }
             } catch (InterruptedException ex) {
                 log.warn("Interrupted while taking an online action from the queue.", ex);
                 return null;
@@ -132,37 +302,324 @@ public class OnlineServer {
         return nextAction;
     }
 
+    /**
+     * Move already queued actions into the given list (up to maxActions in the list) without waiting.
+     * Stops before an Exit and after a Stop, so a session only ends once its earlier actions have been executed.
+     */
+    public void drainActions(List<OnlineMessage> actions, int maxActions) {
+        if (actions.size() > 0 && actions.get(actions.size() - 1) instanceof Stop) {
+            return;
+        }
+
+        queue.drainTo(actions, maxActions);
+    }
+
+    /**
+     * Hold the responses to an action instead of sending them, until releaseResponses() is called.
+     * Used to answer actions in the order they were queued even if they finish out of order.
+     */
+    public void holdResponses(OnlineMessage action) {
+        heldResponses.put(action.getIdentifier(), new HeldResponses(action));
+    }
+
+    /**
+     * Send (in order) the responses held for an action, and stop holding them.
+     */
+    public void releaseResponses(OnlineMessage action) {
+        HeldResponses held = heldResponses.remove(action.getIdentifier());
+        if (held == null) {
+            return;
+        }
+
+        for (OnlineResponse response : held.responses) {
+            sendResponse(action, response);
+        }
+    }
+
     public void onActionExecution(OnlineMessage action, OnlineResponse onlineResponse) {
-        ClientConnectionThread clientConnectionThread = messageIDConnectionMap.get(action.getIdentifier());
-        ObjectOutputStream outputStream = clientConnectionThread.outputStream;
+        HeldResponses held = heldResponses.get(action.getIdentifier());
+        if (held != null) {
+            held.responses.add(onlineResponse);
+            return;
+        }
 
-        try {
-            outputStream.writeObject(onlineResponse);
-        } catch (IOException ex) {
-            log.warn(String.format("Failed to send client onlineResponse: %s", onlineResponse), ex);
+        sendResponse(action, onlineResponse);
+    }
+
+    private void sendResponse(OnlineMessage action, OnlineResponse onlineResponse) {
+        ClientConnection clientConnection = messageIDConnectionMap.get(action.getIdentifier());
+        if (clientConnection == null) {
+            log.warn(String.format("No client connection for onlineResponse: %s", onlineResponse));
+            return;
         }
 
+        // An ActionStatus is always the last response to an action.
+        // The action stops being in flight before the client can see its status,
+        // so a read the client sends after the status is never held back behind it.
+        if (onlineResponse instanceof ActionStatus) {
+            messageIDConnectionMap.remove(action.getIdentifier());
+
+            AtomicInteger inFlightCount = inFlightCounts.get(clientConnection);
+            if (inFlightCount != null) {
+                inFlightCount.decrementAndGet();
+            }
+        }
+
+        clientConnection.send(onlineResponse);
+
         if (action instanceof Exit || action instanceof Stop) {
-            closeClient(clientConnectionThread);
+            closeClient(clientConnection);
+        }
+    }
+
+    /**
+     * The number of actions currently waiting for execution.
+     */
+    public int getQueueDepth() {
+        ActionQueue queue = this.queue;
+        if (queue == null) {
+            return 0;
         }
 
-        if (onlineResponse instanceof ActionStatus) {
+        return queue.size();
+    }
+
+    /**
+     * The largest queue depth seen since the server was created.
+     */
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    /**
+     * The number of actions that have been rejected because the server was saturated.
+     */
+    public long getRejectedActionCount() {
+        return rejectedActionCount.get();
+    }
+
+    /**
+     * Queue an action that was received from a client.
+     * Responses to the action will be routed back to the given connection.
+     */
+    void queueAction(ClientConnection clientConnection, OnlineMessage action) {
+        ActionQueue queue = this.queue;
+        if (queue == null) {
+            // The server has been closed.
+            return;
+        }
+
+        if (answerFromSnapshot(clientConnection, action)) {
+            return;
+        }
+
+        AtomicInteger inFlightCount = getInFlightCount(clientConnection);
+
+        // Session controls are always accepted so that clients can always disconnect.
+        boolean limited = !(action instanceof Exit || action instanceof Stop);
+
+        // Reserve a slot in the client's quota before queueing, so concurrent IO threads cannot overrun it.
+        int reserved = inFlightCount.incrementAndGet();
+        if (limited && clientQuota > 0 && reserved > clientQuota) {
+            inFlightCount.decrementAndGet();
+            rejectAction(clientConnection, action, String.format("Client has too many actions in flight (%d).", clientQuota));
+            return;
+        }
+
+        messageIDConnectionMap.put(action.getIdentifier(), clientConnection);
+        if (!queue.offer(clientConnection, action, (limited ? queueCapacity : 0))) {
             messageIDConnectionMap.remove(action.getIdentifier());
+            inFlightCount.decrementAndGet();
+            rejectAction(clientConnection, action, String.format("Action queue is full (%d actions).", queueCapacity));
+            return;
+        }
+
+        int depth = queue.size();
+        int peak = peakQueueDepth.get();
+        while (depth > peak && !peakQueueDepth.compareAndSet(peak, depth)) {
+            peak = peakQueueDepth.get();
+        }
+    }
+
+    private void rejectAction(ClientConnection clientConnection, OnlineMessage action, String reason) {
+        rejectedActionCount.incrementAndGet();
+        log.trace(String.format("Rejecting action %s: %s", action.getIdentifier(), reason));
+        clientConnection.send(new RejectedActionStatus(action, retryAfterMS, reason));
+    }
+
+    /**
+     * Replace the snapshot that immediate reads are answered from.
+     */
+    void setSnapshot(AtomValueSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Answer an immediate read from the latest snapshot, without going through the queue.
+     * Returns false if the action has to be executed by the inference.
+     */
+    private boolean answerFromSnapshot(ClientConnection clientConnection, OnlineMessage action) {
+        AtomValueSnapshot snapshot = this.snapshot;
+        if (snapshot == null || action.getClass() != GetAtom.class) {
+            return false;
+        }
+
+        GetAtom getAtom = (GetAtom)action;
+
+        ReadConsistency readConsistency = getAtom.getReadConsistency();
+        if (readConsistency == null) {
+            readConsistency = defaultReadConsistency;
+        }
+
+        if (readConsistency != ReadConsistency.IMMEDIATE) {
+            return false;
+        }
+
+        // A client's read must not be answered ahead of its own queued actions.
+        // Actions from one connection are queued by a single thread, so none can be added while this one is answered.
+        AtomicInteger inFlightCount = inFlightCounts.get(clientConnection);
+        if (inFlightCount != null && inFlightCount.get() > 0) {
+            return false;
+        }
+
+        // The atom may have been added since the snapshot was taken.
+        int index = snapshot.getIndex(getAtom.getPredicate(), getAtom.getArguments());
+        if (index < 0) {
+            return false;
+        }
+
+        clientConnection.send(new GetAtomResponse(getAtom, snapshot.getValue(index), snapshot.getModelVersion()));
+        clientConnection.send(new ActionStatus(getAtom, true, String.format("Atom: %s(%s) found. Returned to client.",
+                getAtom.getPredicate(), StringUtils.join(", ", getAtom.getArguments()))));
+
+        return true;
+    }
+
+    private AtomicInteger getInFlightCount(ClientConnection clientConnection) {
+        AtomicInteger inFlightCount = inFlightCounts.get(clientConnection);
+        if (inFlightCount == null) {
+            inFlightCounts.putIfAbsent(clientConnection, new AtomicInteger(0));
+            inFlightCount = inFlightCounts.get(clientConnection);
+        }
+
+        return inFlightCount;
+    }
+
+    /**
+     * Route all later pushes for a subscription to the client that sent the subscribing action.
+     * Must be called before the final status of the action is sent.
+     * Returns false if the client is no longer connected.
+     */
+    public boolean addSubscription(OnlineMessage action) {
+        ClientConnection clientConnection = messageIDConnectionMap.get(action.getIdentifier());
+        if (clientConnection == null) {
+            return false;
+        }
+
+        subscriptionConnectionMap.put(action.getIdentifier(), clientConnection);
+        return true;
+    }
+
+    public void removeSubscription(UUID subscriptionIdentifier) {
+        subscriptionConnectionMap.remove(subscriptionIdentifier);
+    }
+
+    /**
+     * Push a message to a subscriber.
+     * Returns false if the subscriber is no longer connected (the subscription should then be dropped).
+     */
+    public boolean publish(UUID subscriptionIdentifier, OnlineResponse message) {
+        ClientConnection clientConnection = subscriptionConnectionMap.get(subscriptionIdentifier);
+        if (clientConnection == null) {
+            return false;
+        }
+
+        clientConnection.send(message);
+        return true;
+    }
+
+    /**
+     * Update the model sent to new clients after a rule was added to the model.
+     */
+    public void onRuleAdded(Rule rule) {
+        modelVersions.addRule(rule);
+    }
+
+    /**
+     * Update the model sent to new clients after a rule was deleted from the model.
+     */
+    public void onRuleDeleted(Rule rule) {
+        modelVersions.deleteRule(rule);
+    }
+
+    /**
+     * Answer the first message from a client, which must be a ModelRequest.
+     * Returns the model the client has after the response, which the connection's codec is based on.
+     */
+    ModelInformation answerModelRequest(ClientConnection clientConnection, OnlineMessage request) throws IOException {
+        if (!(request instanceof ModelRequest)) {
+            throw new IOException(String.format("Expected a ModelRequest from the client, got: %s", request));
         }
+
+        ModelVersions.Version version = modelVersions.getCurrent();
+        OnlineMessage response = modelVersions.getHandshakeResponse(version, ((ModelRequest)request).getCachedModelHash());
+
+        String clientName = ((ModelRequest)request).getClientName();
+        ActionQueue queue = this.queue;
+        if (fairScheduling && queue != null) {
+            Integer weight = (clientName == null) ? null : clientWeights.get(clientName);
+            queue.setSource(clientConnection, clientName, (weight == null) ? ActionQueue.DEFAULT_WEIGHT : weight.intValue());
+        }
+
+        log.trace(String.format("Answering model request with: %s", response));
+
+        clientConnection.send(response);
+        return version.getModelInformation();
     }
 
-    public void closeClient(ClientConnectionThread clientConnectionThread) {
-        clientConnectionThread.close();
-        clientConnectionThreads.remove(clientConnectionThread);
+    void closeClient(ClientConnection clientConnection) {
+        clientConnection.close();
+        removeClient(clientConnection);
     }
 
-    public void addClient(ClientConnectionThread clientConnectionThread) {
-        clientConnectionThreads.add(clientConnectionThread);
+    void addClient(ClientConnection clientConnection) {
+        Set<ClientConnection> clientConnections = this.clientConnections;
+        if (clientConnections != null) {
+            clientConnections.add(clientConnection);
+        }
+    }
+
+    void removeClient(ClientConnection clientConnection) {
+        Set<ClientConnection> clientConnections = this.clientConnections;
+        if (clientConnections != null) {
+            clientConnections.remove(clientConnection);
+        }
+
+        inFlightCounts.remove(clientConnection);
+
+        ActionQueue queue = this.queue;
+        if (queue != null) {
+            ActionQueue.SourceStats stats = queue.removeSource(clientConnection);
+            if (stats != null) {
+                log.debug(stats.toString());
+            }
+        }
+
+        Iterator<ClientConnection> subscribers = subscriptionConnectionMap.values().iterator();
+        while (subscribers.hasNext()) {
+            if (subscribers.next() == clientConnection) {
+                subscribers.remove();
+            }
+        }
     }
 
     public void close() {
         listening = false;
 
+        if (transport == Transport.IN_PROCESS) {
+            InProcessTransport.unbind(port, this);
+        }
+
         if (tempFile != null) {
             FileUtils.delete(tempFile);
             tempFile = null;
@@ -173,14 +630,37 @@ public class OnlineServer {
             serverThread = null;
         }
 
-        if (clientConnectionThreads != null) {
-            for (ClientConnectionThread clientConnection : clientConnectionThreads) {
+        // Answers that were still held (e.g. because an action critically failed) are sent before the clients are closed.
+        for (HeldResponses held : heldResponses.values()) {
+            releaseResponses(held.action);
+        }
+
+        if (clientConnections != null) {
+            for (ClientConnection clientConnection : clientConnections) {
                 closeClient(clientConnection);
             }
-            clientConnectionThreads = null;
+        }
+
+        // The NIO server flushes pending responses to the clients closed above before closing the sockets.
+        if (nioServer != null) {
+            nioServer.close();
+            nioServer = null;
+        }
+
+        clientConnections = null;
+
+        if (rejectedActionCount.get() > 0) {
+            log.info(String.format("Online server rejected %d actions. Peak queue depth: %d.",
+                    rejectedActionCount.get(), peakQueueDepth.get()));
+        } else {
+            log.debug(String.format("Online server peak queue depth: %d.", peakQueueDepth.get()));
         }
 
         if (queue != null) {
+            for (ActionQueue.SourceStats stats : queue.getSourceStats()) {
+                log.debug(stats.toString());
+            }
+
             queue.clear();
             queue = null;
         }
@@ -190,12 +670,10 @@ public class OnlineServer {
      * The thread that waits for client connections.
      */
     private class ServerConnectionThread extends Thread {
-        private int port;
         private ServerSocket socket;
         private Semaphore readyLock;
 
         public ServerConnectionThread() {
-            port = OnlineOptions.ONLINE_PORT_NUMBER.getInt();
             socket = null;
 
             readyLock = new Semaphore(1);
@@ -230,7 +708,7 @@ public class OnlineServer {
         @Override
         public void run() {
             Socket client = null;
-            ClientConnectionThread connectionThread = null;
+            ClientConnectionHandler connectionHandler = null;
 
             openListenSocket();
             createServerTempFile();
@@ -247,9 +725,9 @@ public class OnlineServer {
                     throw new RuntimeException(ex);
                 }
 
-                connectionThread = new ClientConnectionThread(client);
-                addClient(connectionThread);
-                connectionThread.start();
+                connectionHandler = new ClientConnectionHandler(client);
+                addClient(connectionHandler);
+                ConnectionThreads.start(connectionHandler, "OnlineClientConnection-" + client.getRemoteSocketAddress());
             }
         }
 
@@ -264,60 +742,74 @@ public class OnlineServer {
         }
     }
 
-    private class ClientConnectionThread extends Thread {
+    /**
+     * Handles a single client with blocking IO on its own (platform or virtual) thread.
+     */
+    private class ClientConnectionHandler implements Runnable, ClientConnection {
         public Socket socket;
-        public ObjectInputStream inputStream;
-        public ObjectOutputStream outputStream;
+        public DataInputStream inputStream;
+        public DataOutputStream outputStream;
+        private ModelInformation modelInformation;
+        private volatile MessageCodec codec;
 
-        public ClientConnectionThread(Socket socket) {
-            this.socket = socket;
+        // Not a monitor, so a virtual thread blocked on a write does not pin its carrier thread.
+        private final ReentrantLock sendLock;
 
-            setUncaughtExceptionHandler(new ClientConnectionExceptionHandler());
+        public ClientConnectionHandler(Socket socket) {
+            this.socket = socket;
+            modelInformation = null;
+            codec = JavaMessageCodec.getInstance();
+            sendLock = new ReentrantLock();
         }
 
         private void initializeConnection() {
             try {
-                inputStream = new ObjectInputStream(socket.getInputStream());
-                outputStream = new ObjectOutputStream(socket.getOutputStream());
+                inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
             }
         }
 
-        private void sendModelInformation() {
-            // Send Client model information for action validation.
-            List<Predicate> predicates = new ArrayList<Predicate>(Predicate.getAll());
-            List<Predicate> modelInformationPredicates = new ArrayList<Predicate>();
-
-            // Add non-functional predicates.
-            for (Predicate predicate : predicates) {
-                if (!(predicate instanceof FunctionalPredicate)) {
-                    modelInformationPredicates.add(predicate);
-                }
-            }
-
-            ModelInformation modelInformation = new ModelInformation(
-                    modelInformationPredicates.toArray(new Predicate[]{}),
-                    rules.toArray(new Rule[]{}));
+        @Override
+        public void send(OnlineMessage message) {
+            sendLock.lock();
             try {
-                outputStream.writeObject(modelInformation);
+                OnlineMessageSerializer.writeFrame(outputStream, codec, message);
+                outputStream.flush();
             } catch (IOException ex) {
-                throw new RuntimeException(ex);
+                log.warn(String.format("Failed to send client message: %s", message), ex);
+            } finally {
+                sendLock.unlock();
             }
         }
 
         @Override
         public void run() {
+            try {
+                handleClient();
+            } catch (RuntimeException ex) {
+                log.warn(String.format("Uncaught exception in client connection. "
+                        + " Exception message: %s", ex.getMessage()));
+                closeClient(this);
+            }
+        }
+
+        private void handleClient() {
             OnlineMessage newAction = null;
 
             initializeConnection();
 
-            sendModelInformation();
+            try {
+                modelInformation = answerModelRequest(this, OnlineMessageSerializer.readFrame(inputStream, codec));
+            } catch (IOException | ClassNotFoundException ex) {
+                throw new RuntimeException("Failed to complete the client handshake.", ex);
+            }
 
             // Read and queue new actions from client until exit or stop.
             while (true) {
                 try {
-                    newAction = (OnlineMessage)inputStream.readObject();
+                    newAction = OnlineMessageSerializer.readFrame(inputStream, codec);
                     log.trace(String.format("Server received action from client: %s", newAction));
                 } catch (EOFException ex) {
                     throw new RuntimeException("Client closed socket without Exit or Stop action.", ex);
@@ -334,13 +826,14 @@ public class OnlineServer {
                     continue;
                 }
 
-                try {
-                    messageIDConnectionMap.put(newAction.getIdentifier(), this);
-                    queue.put(newAction);
-                } catch (InterruptedException ex) {
+                if (newAction instanceof CodecSelection) {
+                    codec = CodecSelection.createCodec(((CodecSelection)newAction).getCodecType(), modelInformation);
+                    log.debug(String.format("Client selected codec: %s.", codec.getType()));
                     continue;
                 }
 
+                queueAction(this, newAction);
+
                 if (newAction instanceof Exit || newAction instanceof Stop) {
                     // Break loop.
                     break;
@@ -348,6 +841,7 @@ public class OnlineServer {
             }
         }
 
+        @Override
         public void close() {
             try {
                 socket.close();
@@ -357,18 +851,13 @@ public class OnlineServer {
         }
     }
 
-    private class ClientConnectionExceptionHandler implements Thread.UncaughtExceptionHandler {
-        @Override
-        public void uncaughtException(Thread thread, Throwable ex) {
-            if (!(thread instanceof ClientConnectionThread)) {
-                throw new RuntimeException("ClientConnectionExceptionHandler can only be used by ClientConnectionThreads.", ex);
-            }
-
-            log.warn(String.format("Uncaught exception in ClientConnectionThread. "
-                    + " Exception message: %s", ex.getMessage()));
+    private static class HeldResponses {
+        public final OnlineMessage action;
+        public final List<OnlineResponse> responses;
 
-            ClientConnectionThread clientConnectionThread = (ClientConnectionThread)thread;
-            closeClient(clientConnectionThread);
+        public HeldResponses(OnlineMessage action) {
+            this.action = action;
+            this.responses = new ArrayList<OnlineResponse>();
         }
     }
 }
@@ -0,0 +1,175 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+/**
+ * Sizes the reasoner's iteration budget for an optimization by the model updates it covers.
+ * Adding and deleting atoms changes the terms, so they count double against observation changes.
+ * The size of the updates relative to the model (the magnitude) is scaled into a share of the reasoner's
+ * maximum iterations, between the minimum budget and all of them.
+ * Any rule change, and the first optimization, get the full budget.
+ * When the reasoner's maximum iterations are known, no budget is less than one iteration.
+ *
+ * The updates behind a budget are given back with restore() if its optimization does not finish,
+ * so the next optimization is sized for them as well.
+ *
+ * Updates may be counted from any thread.
+ */
+public class OptimizationBudget {
+    public static final double FULL_BUDGET = 1.0;
+
+    public enum Update {
+        ATOM_ADDED,
+        ATOM_DELETED,
+        OBSERVATION_CHANGED,
+        RULE_CHANGED
+    }
+
+    private final double minBudget;
+    private final double scale;
+
+    private long addedAtoms;
+    private long deletedAtoms;
+    private long changedObservations;
+    private boolean ruleChanges;
+    private boolean firstOptimization;
+
+    // The updates behind the last budget that was taken.
+    private long takenAddedAtoms;
+    private long takenDeletedAtoms;
+    private long takenChangedObservations;
+    private boolean takenRuleChanges;
+    private boolean takenFirstOptimization;
+
+    private double lastMagnitude;
+    private double lastBudget;
+
+    public OptimizationBudget(double minBudget, double scale) {
+        this(minBudget, scale, 0);
+    }
+
+    /**
+     * @param maxIterations the reasoner's maximum iterations, the smallest budget is one of them.
+     *  Non-positive if unknown.
+     */
+    public OptimizationBudget(double minBudget, double scale, int maxIterations) {
+        if (minBudget <= 0.0 || minBudget > FULL_BUDGET) {
+            throw new IllegalArgumentException(String.format("Minimum budget must be in (0, 1], got: %f.", minBudget));
+        }
+
+        if (scale <= 0.0) {
+            throw new IllegalArgumentException(String.format("Budget scale must be positive, got: %f.", scale));
+        }
+
+        if (maxIterations > 0) {
+            // Just above one iteration, so a budget that is rounded down to whole iterations still gets one.
+            minBudget = Math.max(minBudget, Math.min(FULL_BUDGET, Math.nextUp(1.0 / maxIterations)));
+        }
+
+        this.minBudget = minBudget;
+        this.scale = scale;
+
+        firstOptimization = true;
+        lastMagnitude = 0.0;
+        lastBudget = FULL_BUDGET;
+        reset();
+    }
+
+    public synchronized void onUpdate(Update update) {
+        switch (update) {
+            case ATOM_ADDED:
+                addedAtoms++;
+                break;
+            case ATOM_DELETED:
+                deletedAtoms++;
+                break;
+            case OBSERVATION_CHANGED:
+                changedObservations++;
+                break;
+            case RULE_CHANGED:
+                ruleChanges = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown update: " + update + ".");
+        }
+    }
+
+    /**
+     * Choose the budget for the updates counted so far, and start counting again.
+     * @param variableCount the number of atoms in the model.
+     */
+    public synchronized double take(long variableCount) {
+        lastMagnitude = (2.0 * (addedAtoms + deletedAtoms) + changedObservations) / Math.max(1, variableCount);
+
+        double budget = FULL_BUDGET;
+        if (!firstOptimization && !ruleChanges) {
+            budget = Math.max(minBudget, Math.min(FULL_BUDGET, lastMagnitude * scale));
+        }
+
+        takenAddedAtoms = addedAtoms;
+        takenDeletedAtoms = deletedAtoms;
+        takenChangedObservations = changedObservations;
+        takenRuleChanges = ruleChanges;
+        takenFirstOptimization = firstOptimization;
+
+        firstOptimization = false;
+        reset();
+
+        lastBudget = budget;
+        return budget;
+    }
+
+    /**
+     * Give back the updates behind the last budget that was taken (when its optimization did not finish),
+     * so they count towards the next budget along with the updates counted since.
+     */
+    public synchronized void restore() {
+        addedAtoms += takenAddedAtoms;
+        deletedAtoms += takenDeletedAtoms;
+        changedObservations += takenChangedObservations;
+        ruleChanges |= takenRuleChanges;
+        firstOptimization |= takenFirstOptimization;
+
+        takenAddedAtoms = 0;
+        takenDeletedAtoms = 0;
+        takenChangedObservations = 0;
+        takenRuleChanges = false;
+        takenFirstOptimization = false;
+    }
+
+    /**
+     * The last budget that was taken.
+     */
+    public synchronized double getLastBudget() {
+        return lastBudget;
+    }
+
+    /**
+     * The magnitude behind the last budget that was taken.
+     */
+    public synchronized double getLastMagnitude() {
+        return lastMagnitude;
+    }
+
+    private void reset() {
+        addedAtoms = 0;
+        deletedAtoms = 0;
+        changedObservations = 0;
+        ruleChanges = false;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+/**
+ * Decides when OnlineInference optimizes without being asked to by a read.
+ * Reads (and other actions that need a MAP state) always optimize pending updates,
+ * a trigger can additionally optimize after mutations, after some time, or when the server is idle.
+ *
+ * Triggers also keep metrics on how many model updates each optimization absorbed.
+ * Triggers are only used from the inference thread.
+ */
+public abstract class OptimizationTrigger {
+    private long optimizationCount;
+    private long absorbedUpdateCount;
+    private long maxAbsorbedUpdates;
+    private long optimizationTimeMS;
+
+    protected OptimizationTrigger() {
+        optimizationCount = 0;
+        absorbedUpdateCount = 0;
+        maxAbsorbedUpdates = 0;
+        optimizationTimeMS = 0;
+    }
+
+    /**
+     * Check whether to optimize now.
+     * Only called when there are pending model updates,
+     * after every action and whenever no action arrived for a poll interval.
+     * @param pendingUpdates the number of model updates since the last optimization.
+     * @param msSinceOptimization the time since the last optimization finished.
+     * @param msIdle the time since the last action finished.
+     */
+    public abstract boolean shouldOptimize(long pendingUpdates, long msSinceOptimization, long msIdle);
+
+    /**
+     * How long (in milliseconds) to wait for an action before checking the trigger without one.
+     * Non-positive values mean that the trigger is only checked after actions.
+     */
+    public long getPollInterval() {
+        return 0;
+    }
+
+    public void onOptimization(long absorbedUpdates, long durationMS) {
+        optimizationCount++;
+        absorbedUpdateCount += absorbedUpdates;
+        maxAbsorbedUpdates = Math.max(maxAbsorbedUpdates, absorbedUpdates);
+        optimizationTimeMS += durationMS;
+    }
+
+    public long getOptimizationCount() {
+        return optimizationCount;
+    }
+
+    /**
+     * The total number of model updates covered by all optimizations.
+     */
+    public long getAbsorbedUpdateCount() {
+        return absorbedUpdateCount;
+    }
+
+    public long getMaxAbsorbedUpdates() {
+        return maxAbsorbedUpdates;
+    }
+
+    public double getMeanAbsorbedUpdates() {
+        if (optimizationCount == 0) {
+            return 0.0;
+        }
+
+        return (double)absorbedUpdateCount / optimizationCount;
+    }
+
+    public long getOptimizationTimeMS() {
+        return optimizationTimeMS;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d optimizations, %d absorbed updates (mean: %.2f, max: %d), %d ms optimizing",
+                getClass().getSimpleName(), optimizationCount, absorbedUpdateCount, getMeanAbsorbedUpdates(),
+                maxAbsorbedUpdates, optimizationTimeMS);
+    }
+}
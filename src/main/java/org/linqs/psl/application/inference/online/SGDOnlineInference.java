@@ -17,6 +17,7 @@
  */
 package org.linqs.psl.application.inference.online;
 
+import org.linqs.psl.config.Options;
 import org.linqs.psl.database.Database;
 import org.linqs.psl.grounding.GroundRuleStore;
 import org.linqs.psl.model.rule.Rule;
@@ -48,6 +49,11 @@ public class SGDOnlineInference extends OnlineInference {
         return new SGDOnlineTermStore(rules, atomManager, (SGDTermGenerator)termGenerator);
     }
 
+    @Override
+    protected int getMaxReasonerIterations() {
+        return Options.SGD_MAX_ITER.getInt();
+    }
+
     @Override
     protected GroundRuleStore createGroundRuleStore() {
         return null;
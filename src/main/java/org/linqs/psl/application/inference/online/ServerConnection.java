@@ -0,0 +1,56 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.MessageCodec;
+import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+
+import java.io.IOException;
+
+/**
+ * A client's view of its connection to a server.
+ * This is the client side counterpart to ClientConnection.
+ *
+ * send() and flush() are only called from the client's session thread,
+ * and receive() is only called from the client's reading thread.
+ */
+interface ServerConnection {
+    /**
+     * Send a message to the server.
+     * The message may not be sent until the next flush().
+     * Messages may be passed to the server without a copy, so they should not be modified after they are sent.
+     */
+    public void send(OnlineMessage message) throws IOException;
+
+    public void flush() throws IOException;
+
+    /**
+     * Block until the next message from the server is available.
+     * An EOFException is thrown once the server has closed the connection.
+     */
+    public OnlineMessage receive() throws IOException, ClassNotFoundException;
+
+    /**
+     * Switch to a different codec for all further messages (in both directions).
+     * Must be called before the client starts reading responses.
+     */
+    public void selectCodec(MessageCodec.Type codecType, ModelInformation modelInformation) throws IOException;
+
+    public void close();
+}
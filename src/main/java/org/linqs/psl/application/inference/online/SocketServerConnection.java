@@ -0,0 +1,91 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.CodecSelection;
+import org.linqs.psl.application.inference.online.messages.JavaMessageCodec;
+import org.linqs.psl.application.inference.online.messages.MessageCodec;
+import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.OnlineMessageSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A connection to a server over a TCP socket.
+ * Messages are sent as frames (see OnlineMessageSerializer).
+ */
+class SocketServerConnection implements ServerConnection {
+    private Socket socket;
+    private DataInputStream inputStream;
+    private DataOutputStream outputStream;
+    private volatile MessageCodec codec;
+
+    public SocketServerConnection(String hostname, int port) throws IOException {
+        socket = new Socket(hostname, port);
+
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+
+        codec = JavaMessageCodec.getInstance();
+    }
+
+    @Override
+    public void send(OnlineMessage message) throws IOException {
+        OnlineMessageSerializer.writeFrame(outputStream, codec, message);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    @Override
+    public OnlineMessage receive() throws IOException, ClassNotFoundException {
+        return OnlineMessageSerializer.readFrame(inputStream, codec);
+    }
+
+    @Override
+    public void selectCodec(MessageCodec.Type codecType, ModelInformation modelInformation) throws IOException {
+        if (codecType == codec.getType()) {
+            return;
+        }
+
+        send(new CodecSelection(codecType));
+        codec = CodecSelection.createCodec(codecType, modelInformation);
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // Ignore.
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Opens Unix domain socket channels.
+ *
+ * Unix domain socket channels were added in JDK 16, but this module is built for Java 8.
+ * So, the required methods are looked up reflectively and an IOException is thrown when they are not available.
+ */
+final class UnixDomainSockets {
+    private static final ProtocolFamily unixFamily = findUnixFamily();
+    private static final Method addressOf = findMethod("java.net.UnixDomainSocketAddress", "of", String.class);
+    private static final Method openServerChannel = findMethod("java.nio.channels.ServerSocketChannel", "open", ProtocolFamily.class);
+    private static final Method openChannel = findMethod("java.nio.channels.SocketChannel", "open", ProtocolFamily.class);
+
+    // Static only.
+    private UnixDomainSockets() {}
+
+    public static boolean isSupported() {
+        return unixFamily != null && addressOf != null && openServerChannel != null && openChannel != null;
+    }
+
+    /**
+     * Open a server channel that is bound to the given path.
+     * The socket file must not already exist.
+     */
+    public static ServerSocketChannel bind(String path) throws IOException {
+        ServerSocketChannel channel = (ServerSocketChannel)invoke(openServerChannel, unixFamily);
+
+        try {
+            channel.bind(getAddress(path));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Open a (blocking) channel that is connected to the server at the given path.
+     */
+    public static SocketChannel connect(String path) throws IOException {
+        SocketChannel channel = (SocketChannel)invoke(openChannel, unixFamily);
+
+        try {
+            channel.connect(getAddress(path));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        return channel;
+    }
+
+    private static SocketAddress getAddress(String path) throws IOException {
+        return (SocketAddress)invoke(addressOf, path);
+    }
+
+    private static Object invoke(Method method, Object argument) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets are not supported by this JVM (JDK 16+ is required).");
+        }
+
+        try {
+            return method.invoke(null, argument);
+        } catch (IllegalAccessException ex) {
+            throw new IOException("Unable to access Unix domain sockets.", ex);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException)ex.getCause();
+            }
+
+            throw new IOException("Unable to open a Unix domain socket.", ex.getCause());
+        }
+    }
+
+    private static ProtocolFamily findUnixFamily() {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(String className, String methodName, Class<?> argumentType) {
+        try {
+            return Class.forName(className).getMethod(methodName, argumentType);
+        } catch (ClassNotFoundException | NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
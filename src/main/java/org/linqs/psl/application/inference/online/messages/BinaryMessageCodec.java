@@ -0,0 +1,646 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages;
+
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
+import org.linqs.psl.application.inference.online.messages.actions.controls.WriteInferredPredicates;
+import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomAction;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomActionBatch;
+import org.linqs.psl.application.inference.online.messages.actions.model.DeleteAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.FixAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ObserveAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.BatchActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.model.predicate.Predicate;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.DoubleAttribute;
+import org.linqs.psl.model.term.IntegerAttribute;
+import org.linqs.psl.model.term.LongAttribute;
+import org.linqs.psl.model.term.StringAttribute;
+import org.linqs.psl.model.term.UniqueIntID;
+import org.linqs.psl.model.term.UniqueStringID;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A compact binary codec for the high-volume messages (atom actions, simple controls, and their responses).
+ *
+ * Predicates are sent as an index into the predicate list of the ModelInformation
+ * that the server sent on this connection, so both sides agree on the ids without any extra round trip.
+ * Lengths, counts, and integers use (zig-zag) varints, and constants are tagged with their type.
+ *
+ * Any message that is not handled here (e.g. rule actions),
+ * or that references a predicate or constant type outside of the table,
+ * is sent using Java serialization behind a JAVA tag.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    private static final byte TAG_JAVA = 0;
+    private static final byte TAG_ADD_ATOM = 1;
+    private static final byte TAG_DELETE_ATOM = 2;
+    private static final byte TAG_OBSERVE_ATOM = 3;
+    private static final byte TAG_UPDATE_OBSERVATION = 4;
+    private static final byte TAG_GET_ATOM = 5;
+    private static final byte TAG_FIX_ATOM = 6;
+    private static final byte TAG_EXIT = 7;
+    private static final byte TAG_STOP = 8;
+    private static final byte TAG_SYNC = 9;
+    private static final byte TAG_WRITE_INFERRED_PREDICATES = 10;
+    private static final byte TAG_ATOM_ACTION_BATCH = 11;
+    private static final byte TAG_ACTION_STATUS = 20;
+    private static final byte TAG_GET_ATOM_RESPONSE = 21;
+    private static final byte TAG_BATCH_ACTION_STATUS = 22;
+
+    private static final byte CONSTANT_UNIQUE_STRING_ID = 1;
+    private static final byte CONSTANT_UNIQUE_INT_ID = 2;
+    private static final byte CONSTANT_STRING_ATTRIBUTE = 3;
+    private static final byte CONSTANT_INTEGER_ATTRIBUTE = 4;
+    private static final byte CONSTANT_LONG_ATTRIBUTE = 5;
+    private static final byte CONSTANT_DOUBLE_ATTRIBUTE = 6;
+
+    private static final int INITIAL_BUFFER_SIZE = 128;
+
+    private final Predicate[] predicates;
+    private final Map<String, Integer> predicateIds;
+
+    /**
+     * @param predicates the predicates (in order) of the ModelInformation that was sent on this connection.
+     */
+    public BinaryMessageCodec(Predicate[] predicates) {
+        this.predicates = Arrays.copyOf(predicates, predicates.length);
+
+        predicateIds = new HashMap<String, Integer>(predicates.length);
+        for (int i = 0; i < predicates.length; i++) {
+            predicateIds.put(predicates[i].getName(), i);
+        }
+    }
+
+    @Override
+    public Type getType() {
+        return Type.BINARY;
+    }
+
+    @Override
+    public byte[] encode(OnlineMessage message) {
+        Writer writer = new Writer();
+
+        if (!encodeBinary(writer, message)) {
+            writer = new Writer();
+            writer.writeByte(TAG_JAVA);
+            writer.writeBytes(JavaMessageCodec.getInstance().encode(message));
+        }
+
+        return writer.toByteArray();
+    }
+
+    @Override
+    public OnlineMessage decode(byte[] payload, int offset, int length) throws IOException, ClassNotFoundException {
+        if (length < 1) {
+            throw new IOException("Empty binary message.");
+        }
+
+        if (payload[offset] == TAG_JAVA) {
+            return JavaMessageCodec.getInstance().decode(payload, offset + 1, length - 1);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload, offset, length);
+        try {
+            return decodeBinary(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("Truncated binary message.", ex);
+        }
+    }
+
+    /**
+     * Try to write a message in the binary format.
+     * Returns false if the message (or something in it) is not supported,
+     * in which case the writer is left in an undefined state.
+     */
+    private boolean encodeBinary(Writer writer, OnlineMessage message) {
+        Class<?> messageClass = message.getClass();
+
+        if (messageClass == AddAtom.class || messageClass == DeleteAtom.class
+                || messageClass == ObserveAtom.class || messageClass == UpdateObservation.class) {
+            AtomAction action = (AtomAction)message;
+            writer.writeByte(getMutationTag(action));
+            writer.writeUUID(action.getIdentifier());
+            return writeMutation(writer, action);
+        } else if (messageClass == AtomActionBatch.class) {
+            // Batched mutations only carry their tag and body, the batch identifier is used for the status.
+            AtomActionBatch batch = (AtomActionBatch)message;
+            writer.writeByte(TAG_ATOM_ACTION_BATCH);
+            writer.writeUUID(batch.getIdentifier());
+            writer.writeVarInt(batch.size());
+            for (AtomAction action : batch.getActions()) {
+                writer.writeByte(getMutationTag(action));
+                if (!writeMutation(writer, action)) {
+                    return false;
+                }
+            }
+        } else if (messageClass == GetAtom.class) {
+            // Reads with an explicit consistency are rare, so they are left to the Java codec.
+            if (((GetAtom)message).getReadConsistency() != null) {
+                return false;
+            }
+
+            writer.writeByte(TAG_GET_ATOM);
+            writer.writeUUID(message.getIdentifier());
+            return writeAtom(writer, (AtomAction)message);
+        } else if (messageClass == FixAtom.class) {
+            writer.writeByte(TAG_FIX_ATOM);
+            writer.writeUUID(message.getIdentifier());
+            return writeAtom(writer, (AtomAction)message);
+        } else if (messageClass == Exit.class) {
+            writer.writeByte(TAG_EXIT);
+            writer.writeUUID(message.getIdentifier());
+        } else if (messageClass == Stop.class) {
+            writer.writeByte(TAG_STOP);
+            writer.writeUUID(message.getIdentifier());
+        } else if (messageClass == Sync.class) {
+            writer.writeByte(TAG_SYNC);
+            writer.writeUUID(message.getIdentifier());
+        } else if (messageClass == WriteInferredPredicates.class) {
+            WriteInferredPredicates action = (WriteInferredPredicates)message;
+            writer.writeByte(TAG_WRITE_INFERRED_PREDICATES);
+            writer.writeUUID(action.getIdentifier());
+            writer.writeNullableString(action.getOutputDirectoryPath());
+        } else if (messageClass == ActionStatus.class) {
+            ActionStatus response = (ActionStatus)message;
+            writer.writeByte(TAG_ACTION_STATUS);
+            writer.writeUUID(response.getIdentifier());
+            writer.writeUUID(response.getActionIdentifier());
+            writer.writeBoolean(response.isSuccess());
+            writer.writeNullableString(response.getStatusMessage());
+        } else if (messageClass == GetAtomResponse.class) {
+            GetAtomResponse response = (GetAtomResponse)message;
+            writer.writeByte(TAG_GET_ATOM_RESPONSE);
+            writer.writeUUID(response.getIdentifier());
+            writer.writeUUID(response.getActionIdentifier());
+            if (!writeAtom(writer, response.getPredicate(), response.getArguments())) {
+                return false;
+            }
+            writer.writeDouble(response.getAtomValue());
+            writer.writeZigZagLong(response.getModelVersion());
+        } else if (messageClass == BatchActionStatus.class) {
+            // Failed indexes are sorted, so they are sent as deltas.
+            BatchActionStatus response = (BatchActionStatus)message;
+            writer.writeByte(TAG_BATCH_ACTION_STATUS);
+            writer.writeUUID(response.getIdentifier());
+            writer.writeUUID(response.getActionIdentifier());
+            writer.writeVarInt(response.getActionCount());
+
+            int[] failedIndexes = response.getFailedIndexes();
+            writer.writeVarInt(failedIndexes.length);
+            int previousIndex = 0;
+            for (int failedIndex : failedIndexes) {
+                writer.writeVarInt(failedIndex - previousIndex);
+                previousIndex = failedIndex;
+            }
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    private OnlineMessage decodeBinary(ByteBuffer buffer) throws IOException {
+        byte tag = buffer.get();
+        UUID identifier = readUUID(buffer);
+
+        OnlineMessage message = null;
+        switch (tag) {
+            case TAG_ADD_ATOM:
+            case TAG_DELETE_ATOM:
+            case TAG_OBSERVE_ATOM:
+            case TAG_UPDATE_OBSERVATION:
+                message = readMutation(tag, buffer);
+                break;
+            case TAG_ATOM_ACTION_BATCH: {
+                int size = readVarInt(buffer);
+                AtomActionBatch batch = new AtomActionBatch();
+                for (int i = 0; i < size; i++) {
+                    batch.add(readMutation(buffer.get(), buffer));
+                }
+                message = batch;
+                break;
+            }
+            case TAG_GET_ATOM:
+                message = new GetAtom(readPredicate(buffer), readArguments(buffer));
+                break;
+            case TAG_FIX_ATOM:
+                message = new FixAtom(readPredicate(buffer), readArguments(buffer));
+                break;
+            case TAG_EXIT:
+                message = new Exit();
+                break;
+            case TAG_STOP:
+                message = new Stop();
+                break;
+            case TAG_SYNC:
+                message = new Sync();
+                break;
+            case TAG_WRITE_INFERRED_PREDICATES:
+                message = new WriteInferredPredicates(readNullableString(buffer));
+                break;
+            case TAG_ACTION_STATUS: {
+                UUID actionIdentifier = readUUID(buffer);
+                boolean success = readBoolean(buffer);
+                message = new ActionStatus(actionIdentifier, success, readNullableString(buffer));
+                break;
+            }
+            case TAG_GET_ATOM_RESPONSE: {
+                UUID actionIdentifier = readUUID(buffer);
+                StandardPredicate predicate = readPredicate(buffer);
+                Constant[] arguments = readArguments(buffer);
+                double atomValue = buffer.getDouble();
+                message = new GetAtomResponse(actionIdentifier, predicate, arguments, atomValue, readZigZagLong(buffer));
+                break;
+            }
+            case TAG_BATCH_ACTION_STATUS: {
+                UUID actionIdentifier = readUUID(buffer);
+                int actionCount = readVarInt(buffer);
+
+                int failedCount = readVarInt(buffer);
+                if (failedCount > buffer.remaining()) {
+                    throw new IOException(String.format("Invalid failed index count: %d.", failedCount));
+                }
+
+                int[] failedIndexes = new int[failedCount];
+                int previousIndex = 0;
+                for (int i = 0; i < failedIndexes.length; i++) {
+                    failedIndexes[i] = previousIndex + readVarInt(buffer);
+                    previousIndex = failedIndexes[i];
+                }
+
+                message = new BatchActionStatus(actionIdentifier, actionCount, failedIndexes);
+                break;
+            }
+            default:
+                throw new IOException(String.format("Unknown binary message tag: %d.", tag));
+        }
+
+        message.setIdentifier(identifier);
+        return message;
+    }
+
+    private byte getMutationTag(AtomAction action) {
+        Class<?> actionClass = action.getClass();
+
+        if (actionClass == AddAtom.class) {
+            return TAG_ADD_ATOM;
+        } else if (actionClass == DeleteAtom.class) {
+            return TAG_DELETE_ATOM;
+        } else if (actionClass == ObserveAtom.class) {
+            return TAG_OBSERVE_ATOM;
+        } else if (actionClass == UpdateObservation.class) {
+            return TAG_UPDATE_OBSERVATION;
+        }
+
+        throw new IllegalArgumentException("Not an atom mutation: " + actionClass.getName() + ".");
+    }
+
+    /**
+     * Write the body (everything after the tag and identifier) of an atom mutation.
+     */
+    private boolean writeMutation(Writer writer, AtomAction action) {
+        Class<?> actionClass = action.getClass();
+
+        if (actionClass == AddAtom.class) {
+            AddAtom addAtom = (AddAtom)action;
+            writer.writeString(addAtom.getPartitionName());
+            if (!writeAtom(writer, addAtom)) {
+                return false;
+            }
+
+            writer.writeBoolean(addAtom.hasValue());
+            if (addAtom.hasValue()) {
+                writer.writeFloat(addAtom.getValue());
+            }
+        } else if (actionClass == DeleteAtom.class) {
+            DeleteAtom deleteAtom = (DeleteAtom)action;
+            writer.writeString(deleteAtom.getPartitionName());
+            return writeAtom(writer, deleteAtom);
+        } else if (actionClass == ObserveAtom.class) {
+            if (!writeAtom(writer, action)) {
+                return false;
+            }
+            writer.writeFloat(((ObserveAtom)action).getValue());
+        } else if (actionClass == UpdateObservation.class) {
+            if (!writeAtom(writer, action)) {
+                return false;
+            }
+            writer.writeFloat(((UpdateObservation)action).getValue());
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    private AtomAction readMutation(byte tag, ByteBuffer buffer) throws IOException {
+        switch (tag) {
+            case TAG_ADD_ATOM: {
+                String partition = readString(buffer);
+                StandardPredicate predicate = readPredicate(buffer);
+                Constant[] arguments = readArguments(buffer);
+                if (readBoolean(buffer)) {
+                    return new AddAtom(partition, predicate, arguments, buffer.getFloat());
+                }
+                return new AddAtom(partition, predicate, arguments);
+            }
+            case TAG_DELETE_ATOM: {
+                String partition = readString(buffer);
+                return new DeleteAtom(partition, readPredicate(buffer), readArguments(buffer));
+            }
+            case TAG_OBSERVE_ATOM: {
+                StandardPredicate predicate = readPredicate(buffer);
+                Constant[] arguments = readArguments(buffer);
+                return new ObserveAtom(predicate, arguments, buffer.getFloat());
+            }
+            case TAG_UPDATE_OBSERVATION: {
+                StandardPredicate predicate = readPredicate(buffer);
+                Constant[] arguments = readArguments(buffer);
+                return new UpdateObservation(predicate, arguments, buffer.getFloat());
+            }
+            default:
+                throw new IOException(String.format("Unknown binary mutation tag: %d.", tag));
+        }
+    }
+
+    private boolean writeAtom(Writer writer, AtomAction action) {
+        return writeAtom(writer, action.getPredicate(), action.getArguments());
+    }
+
+    private boolean writeAtom(Writer writer, StandardPredicate predicate, Constant[] arguments) {
+        Integer predicateId = predicateIds.get(predicate.getName());
+        if (predicateId == null) {
+            return false;
+        }
+
+        writer.writeVarInt(predicateId.intValue());
+        writer.writeVarInt(arguments.length);
+        for (Constant argument : arguments) {
+            if (!writeConstant(writer, argument)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean writeConstant(Writer writer, Constant constant) {
+        Class<?> constantClass = constant.getClass();
+
+        if (constantClass == UniqueStringID.class) {
+            writer.writeByte(CONSTANT_UNIQUE_STRING_ID);
+            writer.writeString(((UniqueStringID)constant).getID());
+        } else if (constantClass == UniqueIntID.class) {
+            writer.writeByte(CONSTANT_UNIQUE_INT_ID);
+            writer.writeZigZagLong(((UniqueIntID)constant).getID());
+        } else if (constantClass == StringAttribute.class) {
+            writer.writeByte(CONSTANT_STRING_ATTRIBUTE);
+            writer.writeString(((StringAttribute)constant).getValue());
+        } else if (constantClass == IntegerAttribute.class) {
+            writer.writeByte(CONSTANT_INTEGER_ATTRIBUTE);
+            writer.writeZigZagLong(((IntegerAttribute)constant).getValue().intValue());
+        } else if (constantClass == LongAttribute.class) {
+            writer.writeByte(CONSTANT_LONG_ATTRIBUTE);
+            writer.writeZigZagLong(((LongAttribute)constant).getValue().longValue());
+        } else if (constantClass == DoubleAttribute.class) {
+            writer.writeByte(CONSTANT_DOUBLE_ATTRIBUTE);
+            writer.writeDouble(((DoubleAttribute)constant).getValue().doubleValue());
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    private StandardPredicate readPredicate(ByteBuffer buffer) throws IOException {
+        int predicateId = readVarInt(buffer);
+        if (predicateId < 0 || predicateId >= predicates.length || !(predicates[predicateId] instanceof StandardPredicate)) {
+            throw new IOException(String.format("Unknown predicate id: %d.", predicateId));
+        }
+
+        return (StandardPredicate)predicates[predicateId];
+    }
+
+    private Constant[] readArguments(ByteBuffer buffer) throws IOException {
+        int numArguments = readVarInt(buffer);
+        if (numArguments < 0 || numArguments > buffer.remaining()) {
+            throw new IOException(String.format("Invalid argument count: %d.", numArguments));
+        }
+
+        Constant[] arguments = new Constant[numArguments];
+        for (int i = 0; i < numArguments; i++) {
+            arguments[i] = readConstant(buffer);
+        }
+
+        return arguments;
+    }
+
+    private Constant readConstant(ByteBuffer buffer) throws IOException {
+        byte type = buffer.get();
+        switch (type) {
+            case CONSTANT_UNIQUE_STRING_ID:
+                return new UniqueStringID(readString(buffer));
+            case CONSTANT_UNIQUE_INT_ID:
+                return new UniqueIntID((int)readZigZagLong(buffer));
+            case CONSTANT_STRING_ATTRIBUTE:
+                return new StringAttribute(readString(buffer));
+            case CONSTANT_INTEGER_ATTRIBUTE:
+                return new IntegerAttribute(Integer.valueOf((int)readZigZagLong(buffer)));
+            case CONSTANT_LONG_ATTRIBUTE:
+                return new LongAttribute(Long.valueOf(readZigZagLong(buffer)));
+            case CONSTANT_DOUBLE_ATTRIBUTE:
+                return new DoubleAttribute(Double.valueOf(buffer.getDouble()));
+            default:
+                throw new IOException(String.format("Unknown constant type: %d.", type));
+        }
+    }
+
+    private static UUID readUUID(ByteBuffer buffer) {
+        long mostSignificantBits = buffer.getLong();
+        long leastSignificantBits = buffer.getLong();
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    private static boolean readBoolean(ByteBuffer buffer) {
+        return buffer.get() != 0;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = readVarInt(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException(String.format("Invalid string length: %d.", length));
+        }
+
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static String readNullableString(ByteBuffer buffer) throws IOException {
+        if (!readBoolean(buffer)) {
+            return null;
+        }
+
+        return readString(buffer);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) throws IOException {
+        long value = readVarLong(buffer);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Varint out of range: %d.", value));
+        }
+
+        return (int)value;
+    }
+
+    private static long readZigZagLong(ByteBuffer buffer) throws IOException {
+        long value = readVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte current = buffer.get();
+            value |= (long)(current & 0x7F) << shift;
+            if ((current & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varint.");
+    }
+
+    /**
+     * A minimal growable byte buffer.
+     */
+    private static class Writer {
+        private byte[] buffer;
+        private int size;
+
+        public Writer() {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+            size = 0;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional <= buffer.length) {
+                return;
+            }
+
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+
+        public void writeByte(byte value) {
+            ensureCapacity(1);
+            buffer[size++] = value;
+        }
+
+        public void writeBoolean(boolean value) {
+            writeByte(value ? (byte)1 : (byte)0);
+        }
+
+        public void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        public void writeLong(long value) {
+            ensureCapacity(Long.SIZE / 8);
+            for (int shift = Long.SIZE - 8; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte)(value >>> shift);
+            }
+        }
+
+        public void writeInt(int value) {
+            ensureCapacity(Integer.SIZE / 8);
+            for (int shift = Integer.SIZE - 8; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte)(value >>> shift);
+            }
+        }
+
+        public void writeFloat(float value) {
+            writeInt(Float.floatToIntBits(value));
+        }
+
+        public void writeDouble(double value) {
+            writeLong(Double.doubleToLongBits(value));
+        }
+
+        public void writeUUID(UUID value) {
+            writeLong(value.getMostSignificantBits());
+            writeLong(value.getLeastSignificantBits());
+        }
+
+        public void writeVarInt(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative varint: " + value);
+            }
+
+            writeVarLong(value);
+        }
+
+        public void writeZigZagLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        public void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte)value;
+        }
+
+        public void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            writeBytes(bytes);
+        }
+
+        public void writeNullableString(String value) {
+            writeBoolean(value != null);
+            if (value != null) {
+                writeString(value);
+            }
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages;
+
+/**
+ * Sent by a client (right after it receives the server's model) to switch the connection to a different codec.
+ * This message is handled by the connection and is never queued as an action.
+ */
+public class CodecSelection extends OnlineMessage {
+    private MessageCodec.Type codecType;
+
+    public CodecSelection(MessageCodec.Type codecType) {
+        super();
+        this.codecType = codecType;
+    }
+
+    public MessageCodec.Type getCodecType() {
+        return codecType;
+    }
+
+    /**
+     * Build the codec for a connection that was sent the given model.
+     */
+    public static MessageCodec createCodec(MessageCodec.Type codecType, ModelInformation modelInformation) {
+        switch (codecType) {
+            case JAVA:
+                return JavaMessageCodec.getInstance();
+            case BINARY:
+                return new BinaryMessageCodec(modelInformation.getPredicates());
+            default:
+                throw new IllegalArgumentException("Unknown codec: " + codecType);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CODECSELECTION\t%s", codecType);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * A codec that uses standard Java serialization.
+ * Every message type is supported, and this is the codec used for the handshake.
+ */
+public class JavaMessageCodec implements MessageCodec {
+    private static final JavaMessageCodec instance = new JavaMessageCodec();
+
+    public static JavaMessageCodec getInstance() {
+        return instance;
+    }
+
+    private JavaMessageCodec() {}
+
+    @Override
+    public Type getType() {
+        return Type.JAVA;
+    }
+
+    @Override
+    public byte[] encode(OnlineMessage message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(bytes)) {
+            objectStream.writeObject(message);
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Failed to serialize message: %s", message), ex);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public OnlineMessage decode(byte[] payload, int offset, int length) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(payload, offset, length))) {
+            return (OnlineMessage)objectStream.readObject();
+        }
+    }
+}
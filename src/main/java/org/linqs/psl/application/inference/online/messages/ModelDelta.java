@@ -0,0 +1,67 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages;
+
+import org.linqs.psl.model.rule.Rule;
+
+/**
+ * The rule changes between a model a client has cached and the server's current model.
+ * Sent instead of the full ModelInformation when the predicates have not changed.
+ * If the client's model is current, both rule lists are empty.
+ */
+public class ModelDelta extends OnlineMessage {
+    private String baseModelHash;
+    private String modelHash;
+    private Rule[] addedRules;
+    private Rule[] deletedRules;
+
+    public ModelDelta(String baseModelHash, String modelHash, Rule[] addedRules, Rule[] deletedRules) {
+        super();
+        this.baseModelHash = baseModelHash;
+        this.modelHash = modelHash;
+        this.addedRules = addedRules;
+        this.deletedRules = deletedRules;
+    }
+
+    public String getBaseModelHash() {
+        return baseModelHash;
+    }
+
+    public String getModelHash() {
+        return modelHash;
+    }
+
+    public Rule[] getAddedRules() {
+        return addedRules;
+    }
+
+    public Rule[] getDeletedRules() {
+        return deletedRules;
+    }
+
+    public boolean isEmpty() {
+        return addedRules.length == 0 && deletedRules.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "MODELDELTA\t%s\t%s\t+%d\t-%d",
+                baseModelHash, modelHash, addedRules.length, deletedRules.length);
+    }
+}
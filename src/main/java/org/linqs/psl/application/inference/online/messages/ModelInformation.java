@@ -21,14 +21,24 @@ import org.linqs.psl.model.predicate.Predicate;
 import org.linqs.psl.model.rule.Rule;
 import org.linqs.psl.util.StringUtils;
 
+/**
+ * The full model (predicates and rules) sent to a client during the handshake.
+ * The model hash identifies the content of the model, so clients can cache it (see ModelRequest).
+ */
 public class ModelInformation extends OnlineMessage {
     private Predicate[] predicates;
     private Rule[] rules;
+    private String modelHash;
 
     public ModelInformation(Predicate[] predicates, Rule[] rules) {
+        this(predicates, rules, null);
+    }
+
+    public ModelInformation(Predicate[] predicates, Rule[] rules, String modelHash) {
         super();
         this.predicates = predicates;
         this.rules = rules;
+        this.modelHash = modelHash;
     }
 
     public Predicate[] getPredicates() {
@@ -39,6 +49,10 @@ public class ModelInformation extends OnlineMessage {
         return rules;
     }
 
+    public String getModelHash() {
+        return modelHash;
+    }
+
     @Override
     public String toString() {
         return String.format(
@@ -0,0 +1,56 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages;
+
+/**
+ * The first message a client sends on a new connection.
+ * It carries the hash of the model the client has cached (or null),
+ * and the server answers with either the full ModelInformation or a ModelDelta from the cached model.
+ * A client can also name itself (e.g. for per-client scheduling weights on the server).
+ */
+public class ModelRequest extends OnlineMessage {
+    private String cachedModelHash;
+    private String clientName;
+
+    public ModelRequest(String cachedModelHash) {
+        this(cachedModelHash, null);
+    }
+
+    public ModelRequest(String cachedModelHash, String clientName) {
+        super();
+        this.cachedModelHash = cachedModelHash;
+        this.clientName = clientName;
+    }
+
+    public String getCachedModelHash() {
+        return cachedModelHash;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    @Override
+    public String toString() {
+        if (clientName == null) {
+            return String.format("MODELREQUEST\t%s", cachedModelHash);
+        }
+
+        return String.format("MODELREQUEST\t%s\t%s", cachedModelHash, clientName);
+    }
+}
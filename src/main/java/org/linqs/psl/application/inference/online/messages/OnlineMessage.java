@@ -36,4 +36,11 @@ public abstract class OnlineMessage implements Serializable {
     public UUID getIdentifier() {
         return identifier;
     }
+
+    /**
+     * Only used by codecs when rebuilding a message that was sent over the wire.
+     */
+    void setIdentifier(UUID identifier) {
+        this.identifier = identifier;
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Static utilities for moving OnlineMessages over the wire.
+ *
+ * Every message is sent as a frame: a four byte (big-endian) payload length followed by the payload.
+ * Frames are self-contained, so a reader can pull complete messages out of a byte stream
+ * without blocking on a partially received object (which is required for non-blocking IO).
+ * The payload is produced by a MessageCodec that is negotiated for each connection.
+ *
+ * The handshake is always done with the Java codec:
+ * the client sends a ModelRequest, the server answers with a ModelInformation or ModelDelta,
+ * and the client may then send a CodecSelection.
+ * After a CodecSelection, both sides use the selected codec for all further frames.
+ */
+public final class OnlineMessageSerializer {
+    /**
+     * The size of the length header in front of every frame.
+     */
+    public static final int FRAME_HEADER_SIZE = Integer.SIZE / 8;
+
+    /**
+     * Frames larger than this are considered corrupt.
+     */
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    // Static only.
+    private OnlineMessageSerializer() {}
+
+    /**
+     * Encode a message into a full frame that is ready to be written.
+     */
+    public static ByteBuffer encodeFrame(MessageCodec codec, OnlineMessage message) {
+        byte[] payload = codec.encode(message);
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(payload.length);
+        frame.put(payload);
+        frame.flip();
+
+        return frame;
+    }
+
+    /**
+     * Write a full frame (header and payload) for a message.
+     * The stream is not flushed.
+     */
+    public static void writeFrame(DataOutputStream outputStream, MessageCodec codec, OnlineMessage message) throws IOException {
+        byte[] payload = codec.encode(message);
+        outputStream.writeInt(payload.length);
+        outputStream.write(payload);
+    }
+
+    /**
+     * Read a full frame from the stream.
+     * This method will block until the entire frame is available.
+     * An EOFException is thrown if the stream closes before a frame starts.
+     * Since the full frame is consumed before decoding,
+     * the stream is still positioned at the next frame if a ClassNotFoundException is thrown.
+     */
+    public static OnlineMessage readFrame(DataInputStream inputStream, MessageCodec codec) throws IOException, ClassNotFoundException {
+        int length = inputStream.readInt();
+        checkFrameLength(length);
+
+        byte[] payload = new byte[length];
+        inputStream.readFully(payload);
+
+        return codec.decode(payload, 0, length);
+    }
+
+    public static void checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException(String.format("Invalid frame length: %d.", length));
+        }
+    }
+}
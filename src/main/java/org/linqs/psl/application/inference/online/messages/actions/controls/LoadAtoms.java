@@ -0,0 +1,64 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages.actions.controls;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.model.predicate.StandardPredicate;
+
+/**
+ * Load atoms for a single predicate from a file on the server.
+ * The file must be in the server's load directory (see onlineserver.loaddirectory),
+ * and relative paths are resolved against that directory.
+ * The file uses the standard PSL data format: one atom per line,
+ * tab-separated arguments, and an optional truth value (1.0 if missing) as the last column.
+ * Existing atoms are replaced, just like AddAtom.
+ * String format: LoadAtoms <READ/WRITE> <predicate> 'path'
+ */
+public class LoadAtoms extends OnlineMessage {
+    private String partition;
+    private StandardPredicate predicate;
+    private String path;
+
+    public LoadAtoms(String partition, StandardPredicate predicate, String path) {
+        super();
+        this.partition = partition.toUpperCase();
+        this.predicate = predicate;
+        this.path = path;
+    }
+
+    public String getPartitionName() {
+        return partition;
+    }
+
+    public StandardPredicate getPredicate() {
+        return predicate;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "LOADATOMS\t%s\t%s\t%s",
+                partition,
+                predicate.getName(),
+                path);
+    }
+}
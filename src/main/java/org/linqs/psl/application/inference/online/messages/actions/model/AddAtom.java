@@ -57,6 +57,13 @@ public class AddAtom extends AtomAction {
         }
     }
 
+    /**
+     * Whether an explicit value was provided for this atom (otherwise a random value is used).
+     */
+    public boolean hasValue() {
+        return !MathUtils.equals(value, -1.0f);
+    }
+
     public String getPartitionName() {
         return partition;
     }
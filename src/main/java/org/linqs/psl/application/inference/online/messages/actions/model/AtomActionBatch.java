@@ -0,0 +1,76 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages.actions.model;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Many atom mutations (AddAtom, DeleteAtom, ObserveAtom, and UpdateObservation) sent as a single action.
+ * The mutations are applied in order and answered with a single BatchActionStatus
+ * that holds the indexes of the mutations that could not be applied.
+ */
+public class AtomActionBatch extends OnlineMessage {
+    private List<AtomAction> actions;
+
+    public AtomActionBatch() {
+        this(new ArrayList<AtomAction>());
+    }
+
+    public AtomActionBatch(List<? extends AtomAction> actions) {
+        super();
+
+        this.actions = new ArrayList<AtomAction>(actions.size());
+        for (AtomAction action : actions) {
+            add(action);
+        }
+    }
+
+    public AtomActionBatch add(AtomAction action) {
+        if (!isBatchable(action)) {
+            throw new IllegalArgumentException("Action cannot be batched: " + action.getClass().getName() + ".");
+        }
+
+        actions.add(action);
+        return this;
+    }
+
+    public List<AtomAction> getActions() {
+        return Collections.unmodifiableList(actions);
+    }
+
+    public int size() {
+        return actions.size();
+    }
+
+    public static boolean isBatchable(AtomAction action) {
+        Class<?> actionClass = action.getClass();
+        return actionClass == AddAtom.class
+                || actionClass == DeleteAtom.class
+                || actionClass == ObserveAtom.class
+                || actionClass == UpdateObservation.class;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ATOMBATCH\t%d", actions.size());
+    }
+}
@@ -23,18 +23,36 @@ import org.linqs.psl.util.StringUtils;
 
 /**
  * Query the value of an existing atom.
+ * If no read consistency is given, the server's default is used.
  * String format: GetAtom <predicate> <arg>...
  */
 public class GetAtom extends AtomAction {
+    private ReadConsistency readConsistency;
+
     public GetAtom(StandardPredicate predicate, Constant[] arguments) {
+        this(predicate, arguments, null);
+    }
+
+    public GetAtom(StandardPredicate predicate, Constant[] arguments, ReadConsistency readConsistency) {
         super(predicate, arguments);
+        this.readConsistency = readConsistency;
+    }
+
+    public ReadConsistency getReadConsistency() {
+        return readConsistency;
     }
 
     @Override
     public String toString() {
-        return String.format(
+        String value = String.format(
                 "GETATOM\t%s\t%s",
                 predicate.getName(),
                 StringUtils.join("\t", arguments));
+
+        if (readConsistency != null) {
+            value += "\t" + readConsistency;
+        }
+
+        return value;
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages.actions.model;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Query the values of many atoms at once.
+ * The atoms are either an explicit list of ground atoms (see add()),
+ * or all the atoms of a single predicate that match a pattern (null pattern arguments are wildcards).
+ * All values are read after (at most) one optimization and returned in a single GetAtomsResponse.
+ * If no read consistency is given, the server's default is used.
+ * String format: GetAtoms <predicate> <arg|*>...
+ */
+public class GetAtoms extends OnlineMessage {
+    public static final String WILDCARD = "*";
+
+    private List<StandardPredicate> predicates;
+    private List<Constant[]> arguments;
+
+    private StandardPredicate patternPredicate;
+    private Constant[] pattern;
+
+    private ReadConsistency readConsistency;
+
+    /**
+     * Query an explicit list of atoms, which are added with add().
+     */
+    public GetAtoms() {
+        this((ReadConsistency)null);
+    }
+
+    public GetAtoms(ReadConsistency readConsistency) {
+        super();
+
+        this.readConsistency = readConsistency;
+
+        predicates = new ArrayList<StandardPredicate>();
+        arguments = new ArrayList<Constant[]>();
+        patternPredicate = null;
+        pattern = null;
+    }
+
+    /**
+     * Query all the atoms of a predicate that match the pattern.
+     */
+    public GetAtoms(StandardPredicate predicate, Constant[] pattern) {
+        this(predicate, pattern, null);
+    }
+
+    public GetAtoms(StandardPredicate predicate, Constant[] pattern, ReadConsistency readConsistency) {
+        super();
+
+        this.readConsistency = readConsistency;
+
+        if (pattern.length != predicate.getArity()) {
+            throw new IllegalArgumentException(String.format("Pattern for %s has %d arguments, expected %d.",
+                    predicate.getName(), pattern.length, predicate.getArity()));
+        }
+
+        predicates = null;
+        arguments = null;
+        patternPredicate = predicate;
+        this.pattern = pattern;
+    }
+
+    public GetAtoms add(StandardPredicate predicate, Constant[] arguments) {
+        if (isPattern()) {
+            throw new IllegalStateException("Cannot add atoms to a pattern query.");
+        }
+
+        predicates.add(predicate);
+        this.arguments.add(arguments);
+        return this;
+    }
+
+    public ReadConsistency getReadConsistency() {
+        return readConsistency;
+    }
+
+    public boolean isPattern() {
+        return pattern != null;
+    }
+
+    /**
+     * The number of atoms in an explicit list.
+     */
+    public int size() {
+        if (isPattern()) {
+            throw new IllegalStateException("Pattern queries do not have a fixed size.");
+        }
+
+        return predicates.size();
+    }
+
+    public List<StandardPredicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    public List<Constant[]> getArguments() {
+        return Collections.unmodifiableList(arguments);
+    }
+
+    public StandardPredicate getPatternPredicate() {
+        return patternPredicate;
+    }
+
+    public Constant[] getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Check if the arguments of a ground atom match the pattern.
+     */
+    public boolean matches(Constant[] atomArguments) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (pattern[i] != null && !pattern[i].equals(atomArguments[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("GETATOMS\t");
+
+        if (!isPattern()) {
+            builder.append(predicates.size());
+        } else {
+            builder.append(patternPredicate.getName());
+            for (Constant argument : pattern) {
+                builder.append("\t");
+                builder.append((argument == null) ? WILDCARD : argument.toString());
+            }
+        }
+
+        if (readConsistency != null) {
+            builder.append("\t");
+            builder.append(readConsistency);
+        }
+
+        return builder.toString();
+    }
+}
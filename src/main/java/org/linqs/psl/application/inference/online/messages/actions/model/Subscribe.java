@@ -0,0 +1,47 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages.actions.model;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+
+/**
+ * Subscribe to changes in the values of the atoms selected by a GetAtoms query.
+ *
+ * The server first answers with an AtomValueDelta that holds the current value of every selected atom.
+ * After that, every optimization that moves a selected atom (by more than the server's epsilon)
+ * is followed by an AtomValueDelta that holds only the atoms that moved.
+ * All deltas reference this action's identifier, which is also used to Unsubscribe.
+ * Subscriptions end when the client disconnects.
+ */
+public class Subscribe extends OnlineMessage {
+    private GetAtoms query;
+
+    public Subscribe(GetAtoms query) {
+        super();
+        this.query = query;
+    }
+
+    public GetAtoms getQuery() {
+        return query;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SUBSCRIBE\t%s", query);
+    }
+}
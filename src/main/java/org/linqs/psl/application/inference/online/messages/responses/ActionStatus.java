@@ -19,16 +19,30 @@ package org.linqs.psl.application.inference.online.messages.responses;
 
 import org.linqs.psl.application.inference.online.messages.OnlineMessage;
 
+import java.util.UUID;
+
 public class ActionStatus extends OnlineResponse {
     private boolean success;
     private String statusMessage;
 
     public ActionStatus(OnlineMessage onlineAction, boolean success, String statusMessage) {
-        super(onlineAction.getIdentifier());
+        this(onlineAction.getIdentifier(), success, statusMessage);
+    }
+
+    public ActionStatus(UUID onlineActionID, boolean success, String statusMessage) {
+        super(onlineActionID);
         this.success = success;
         this.statusMessage = statusMessage;
     }
 
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
     @Override
     public String toString() {
         return String.format(
@@ -0,0 +1,67 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages.responses;
+
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+
+import java.util.UUID;
+
+/**
+ * The atoms of a subscription whose values changed since they were last sent to the subscriber.
+ * An atom that no longer exists has a value of -1.
+ */
+public class AtomValueDelta extends OnlineResponse {
+    private StandardPredicate[] predicates;
+    private Constant[][] arguments;
+    private float[] values;
+
+    public AtomValueDelta(UUID subscriptionIdentifier, StandardPredicate[] predicates, Constant[][] arguments, float[] values) {
+        super(subscriptionIdentifier);
+
+        if (predicates.length != values.length || arguments.length != values.length) {
+            throw new IllegalArgumentException(String.format("Mismatched delta sizes. Predicates: %d, Arguments: %d, Values: %d.",
+                    predicates.length, arguments.length, values.length));
+        }
+
+        this.predicates = predicates;
+        this.arguments = arguments;
+        this.values = values;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public StandardPredicate getPredicate(int index) {
+        return predicates[index];
+    }
+
+    public Constant[] getArguments(int index) {
+        return arguments[index];
+    }
+
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AtomValueDelta\t%s\t%d", onlineActionID, values.length);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages.responses;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The single status for an AtomActionBatch.
+ * Instead of a message per mutation, this only carries the (sorted) indexes of the mutations that were not applied.
+ * The batch is only marked as a success if every mutation was applied.
+ */
+public class BatchActionStatus extends ActionStatus {
+    private int actionCount;
+    private int[] failedIndexes;
+
+    public BatchActionStatus(OnlineMessage onlineAction, int actionCount, int[] failedIndexes) {
+        this(onlineAction.getIdentifier(), actionCount, failedIndexes);
+    }
+
+    public BatchActionStatus(UUID onlineActionID, int actionCount, int[] failedIndexes) {
+        super(onlineActionID, failedIndexes.length == 0,
+                String.format("Applied %d of %d batched actions.", actionCount - failedIndexes.length, actionCount));
+        this.actionCount = actionCount;
+        this.failedIndexes = failedIndexes;
+    }
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    public int[] getFailedIndexes() {
+        return failedIndexes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "BatchActionStatus\t%s\t%s\t%s\t%s",
+                onlineActionID,
+                isSuccess(),
+                getStatusMessage(),
+                Arrays.toString(failedIndexes));
+    }
+}
@@ -22,16 +22,39 @@ import org.linqs.psl.model.predicate.StandardPredicate;
 import org.linqs.psl.model.term.Constant;
 import org.linqs.psl.util.StringUtils;
 
+import java.util.UUID;
+
+/**
+ * The value of a single atom.
+ * The model version is the number of model updates reflected by the value (see OnlineInference),
+ * or UNKNOWN_MODEL_VERSION.
+ */
 public class GetAtomResponse extends OnlineResponse {
+    public static final long UNKNOWN_MODEL_VERSION = -1;
+
     private double atomValue;
     private StandardPredicate predicate;
     private Constant[] arguments;
+    private long modelVersion;
 
     public GetAtomResponse(GetAtom getAtomAction, double atomValue) {
-        super(getAtomAction.getIdentifier());
+        this(getAtomAction, atomValue, UNKNOWN_MODEL_VERSION);
+    }
+
+    public GetAtomResponse(GetAtom getAtomAction, double atomValue, long modelVersion) {
+        this(getAtomAction.getIdentifier(), getAtomAction.getPredicate(), getAtomAction.getArguments(), atomValue, modelVersion);
+    }
+
+    public GetAtomResponse(UUID onlineActionID, StandardPredicate predicate, Constant[] arguments, double atomValue) {
+        this(onlineActionID, predicate, arguments, atomValue, UNKNOWN_MODEL_VERSION);
+    }
+
+    public GetAtomResponse(UUID onlineActionID, StandardPredicate predicate, Constant[] arguments, double atomValue, long modelVersion) {
+        super(onlineActionID);
         this.atomValue = atomValue;
-        this.predicate = getAtomAction.getPredicate();
-        this.arguments = getAtomAction.getArguments();
+        this.predicate = predicate;
+        this.arguments = arguments;
+        this.modelVersion = modelVersion;
     }
 
     public double getAtomValue() {
@@ -46,6 +69,10 @@ public class GetAtomResponse extends OnlineResponse {
         return arguments;
     }
 
+    public long getModelVersion() {
+        return modelVersion;
+    }
+
     @Override
     public String toString() {
         return String.format(
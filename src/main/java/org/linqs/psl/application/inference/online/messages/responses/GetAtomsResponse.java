@@ -0,0 +1,111 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages.responses;
+
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtoms;
+import org.linqs.psl.model.term.Constant;
+
+/**
+ * The values of the atoms queried by a GetAtoms action.
+ *
+ * Values are packed into a single array.
+ * For an explicit list of atoms, the values are in the same order as the atoms in the action
+ * (an atom that does not exist has a value of -1).
+ * For a pattern, the values are aligned with a list of keys,
+ * where each key only holds the arguments at the pattern's wildcard positions.
+ * The model version has the same meaning as in GetAtomResponse.
+ */
+public class GetAtomsResponse extends OnlineResponse {
+    private Constant[] pattern;
+    private Constant[][] keys;
+    private float[] values;
+    private long modelVersion;
+
+    /**
+     * A response for an explicit list of atoms.
+     */
+    public GetAtomsResponse(GetAtoms action, float[] values, long modelVersion) {
+        this(action, null, values, modelVersion);
+    }
+
+    /**
+     * A response for a pattern.
+     */
+    public GetAtomsResponse(GetAtoms action, Constant[][] keys, float[] values, long modelVersion) {
+        super(action.getIdentifier());
+
+        if (keys != null && keys.length != values.length) {
+            throw new IllegalArgumentException(String.format("Got %d keys for %d values.", keys.length, values.length));
+        }
+
+        this.pattern = action.getPattern();
+        this.keys = keys;
+        this.values = values;
+        this.modelVersion = modelVersion;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    public float[] getValues() {
+        return values;
+    }
+
+    public long getModelVersion() {
+        return modelVersion;
+    }
+
+    /**
+     * The wildcard arguments for a pattern value.
+     */
+    public Constant[] getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * The full arguments for a pattern value (the pattern with the wildcards filled in by the key).
+     */
+    public Constant[] getArguments(int index) {
+        if (pattern == null) {
+            throw new IllegalStateException("Responses to a list of atoms do not hold arguments.");
+        }
+
+        Constant[] arguments = new Constant[pattern.length];
+        int keyIndex = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            if (pattern[i] != null) {
+                arguments[i] = pattern[i];
+            } else {
+                arguments[i] = keys[index][keyIndex];
+                keyIndex++;
+            }
+        }
+
+        return arguments;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GetAtoms\t%s\t%d", onlineActionID, values.length);
+    }
+}
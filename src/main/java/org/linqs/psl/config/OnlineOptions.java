@@ -17,6 +17,8 @@
  */
 package org.linqs.psl.config;
 
+import org.linqs.psl.application.inference.online.ReadOptimizationTrigger;
+
 /**
  * Additional options for the psl-onine module.
  */
@@ -33,6 +35,271 @@ public class OnlineOptions {
         "The port number for the online server."
     );
 
+    public static final Option ONLINE_TRANSPORT = new Option(
+        "inference.onlinetransport",
+        "SOCKET",
+        "How online clients and servers exchange messages."
+        + " SOCKET uses TCP (see onlineserver.connectionmode)."
+        + " UNIX uses a Unix domain socket (see inference.onlineunixsocketpath), which requires JDK 16+."
+        + " IN_PROCESS passes messages as objects between a client and a server in the same JVM"
+        + " (matched by port number) without serialization."
+    );
+
+    public static final Option ONLINE_UNIX_SOCKET_PATH = new Option(
+        "inference.onlineunixsocketpath",
+        "/tmp/onlinePSLServer/onlinePSLServer.sock",
+        "The path of the socket file when the transport is UNIX."
+        + " An existing file at this path is replaced when the server starts."
+    );
+
+    public static final Option ONLINE_IN_PROCESS_BUFFER = new Option(
+        "onlineserver.inprocessbuffer",
+        1024,
+        "The number of responses that can wait for an in-process client before the server blocks."
+    );
+
+    public static final Option ONLINE_CONNECTION_MODE = new Option(
+        "onlineserver.connectionmode",
+        "THREAD",
+        "How the online server handles client connections."
+        + " THREAD uses a dedicated thread (with blocking IO) for every client."
+        + " NIO multiplexes all clients over a small, fixed set of non-blocking IO threads."
+    );
+
+    public static final Option ONLINE_NIO_THREADS = new Option(
+        "onlineserver.niothreads",
+        2,
+        "The number of IO threads to use when the connection mode is NIO."
+    );
+
+    public static final Option ONLINE_VIRTUAL_THREADS = new Option(
+        "inference.onlinevirtualthreads",
+        false,
+        "Whether to run blocking connection handlers (THREAD connection mode on the server,"
+        + " and the response reader on the client) on virtual threads."
+        + " Requires a JDK with virtual threads (21+), platform threads are used otherwise."
+    );
+
+    public static final Option ONLINE_QUEUE_CAPACITY = new Option(
+        "onlineserver.queuecapacity",
+        100000,
+        "The maximum number of actions that can wait for execution on the online server."
+        + " Actions that arrive while the queue is full are rejected (Exit and Stop are always accepted)."
+        + " A non-positive value means no limit."
+    );
+
+    public static final Option ONLINE_CLIENT_QUOTA = new Option(
+        "onlineserver.clientquota",
+        -1,
+        "The maximum number of actions a single client can have queued or executing at once."
+        + " Actions over the quota are rejected."
+        + " A non-positive value means no limit."
+    );
+
+    public static final Option ONLINE_RETRY_AFTER = new Option(
+        "onlineserver.retryafter",
+        100,
+        "The delay (in milliseconds) a client is asked to wait before resending a rejected action."
+    );
+
+    public static final Option ONLINE_LOAD_DIRECTORY = new Option(
+        "onlineserver.loaddirectory",
+        "",
+        "The directory on the server that LoadAtoms actions can read atom files from."
+        + " Relative paths are resolved against this directory, and paths that lead outside of it"
+        + " (after resolving links) are rejected."
+        + " Empty disables LoadAtoms."
+    );
+
+    public static final Option ONLINE_PRIORITY_LANES = new Option(
+        "onlineserver.prioritylanes",
+        false,
+        "Split queued actions into control (Exit, Stop, Sync, WriteInferredPredicates), read, template (rule),"
+        + " and atom mutation lanes, so that actions from other clients do not wait behind a backlog of mutations."
+        + " Actions from a single client are still executed in order."
+    );
+
+    public static final Option ONLINE_LANE_WEIGHTS = new Option(
+        "onlineserver.laneweights",
+        "8,4,2,1",
+        "The weights of the control, read, template, and mutation lanes (in that order) when using priority lanes."
+        + " While lanes have waiting actions, each lane executes up to its weight in actions per round."
+        + " Weights must be positive, so no lane is starved."
+    );
+
+    public static final Option ONLINE_FAIR_SCHEDULING = new Option(
+        "onlineserver.fairscheduling",
+        false,
+        "Give every client connection its own action queue, and let clients take turns (deficit round robin)"
+        + " so that one client flooding the server does not hold up the others."
+        + " On its turn, a client executes up to its weight (see onlineserver.clientweights) in actions."
+    );
+
+    public static final Option ONLINE_CLIENT_WEIGHTS = new Option(
+        "onlineserver.clientweights",
+        "",
+        "The scheduling weights of named clients (see onlineclient.name) for fair scheduling,"
+        + " as a comma separated list of name=weight. Other clients get a weight of 1."
+    );
+
+    public static final Option ONLINE_READ_CONSISTENCY = new Option(
+        "onlineserver.readconsistency",
+        "STRICT",
+        "The consistency of reads (GetAtom and GetAtoms) that do not ask for one."
+        + " STRICT optimizes any pending model updates before every read."
+        + " BOUNDED only optimizes when the last optimization is older than onlineserver.maxstaleness"
+        + " or more than onlineserver.maxstaleupdates updates behind."
+        + " IMMEDIATE never optimizes for a read."
+    );
+
+    public static final Option ONLINE_MAX_STALENESS = new Option(
+        "onlineserver.maxstaleness",
+        1000,
+        "The maximum age (in milliseconds) of values served by BOUNDED reads."
+        + " A non-positive value means no limit."
+    );
+
+    public static final Option ONLINE_MAX_STALE_UPDATES = new Option(
+        "onlineserver.maxstaleupdates",
+        1000,
+        "The maximum number of model updates that values served by BOUNDED reads can be behind."
+        + " A non-positive value means no limit."
+    );
+
+    public static final Option ONLINE_SUBSCRIPTION_EPSILON = new Option(
+        "onlineserver.subscriptionepsilon",
+        1e-4,
+        "How much an atom's value has to move before it is pushed to the clients subscribed to it."
+    );
+
+    public static final Option ONLINE_BACKGROUND_OPTIMIZATION = new Option(
+        "onlineserver.backgroundoptimization",
+        false,
+        "Run optimization on its own thread instead of on the thread that executes actions."
+        + " Actions are then applied between the reasoner's passes over the terms,"
+        + " and only reads that need fresh values (see onlineserver.readconsistency) wait on the optimizer."
+    );
+
+    public static final Option ONLINE_OPTIMIZATION_TRIGGER = new Option(
+        "onlineserver.optimizationtrigger",
+        ReadOptimizationTrigger.class.getName(),
+        "The OptimizationTrigger that decides when to optimize model updates that no read has asked for."
+        + " ReadOptimizationTrigger only optimizes for reads."
+        + " CountOptimizationTrigger optimizes after onlineserver.triggerupdates updates."
+        + " IntervalOptimizationTrigger optimizes at most every onlineserver.triggerinterval milliseconds."
+        + " IdleOptimizationTrigger optimizes when no action arrived for onlineserver.triggeridle milliseconds."
+        + " Not used with background optimization, which always optimizes pending updates."
+    );
+
+    public static final Option ONLINE_TRIGGER_UPDATES = new Option(
+        "onlineserver.triggerupdates",
+        100,
+        "The number of pending model updates that makes a CountOptimizationTrigger optimize."
+    );
+
+    public static final Option ONLINE_TRIGGER_INTERVAL = new Option(
+        "onlineserver.triggerinterval",
+        1000,
+        "The time (in milliseconds) between optimizations for an IntervalOptimizationTrigger."
+    );
+
+    public static final Option ONLINE_TRIGGER_IDLE = new Option(
+        "onlineserver.triggeridle",
+        100,
+        "How long (in milliseconds) the server has to be without actions before an IdleOptimizationTrigger optimizes."
+    );
+
+    public static final Option ONLINE_COALESCE_WINDOW = new Option(
+        "onlineserver.coalescewindow",
+        0,
+        "The maximum number of queued actions to coalesce at once."
+        + " Within a window, an UpdateObservation followed by another UpdateObservation of the same atom,"
+        + " or an AddAtom followed by a DeleteAtom of the same atom, is not executed (but still answered)."
+        + " Values less than 2 disable coalescing."
+    );
+
+    public static final Option ONLINE_LOCAL_HOPS = new Option(
+        "onlineserver.localhops",
+        0,
+        "Optimize only the term pages within this many hops of the atoms that changed since the last optimization."
+        + " The pages that use a changed atom are one hop away, and every further hop adds the pages that share an atom"
+        + " with the pages already chosen."
+        + " Pages are indexed as they are read, so pages that were not read yet are always optimized."
+        + " Rule changes force a full optimization. A non-positive value always optimizes all the terms."
+    );
+
+    public static final Option ONLINE_FULL_SWEEP_INTERVAL = new Option(
+        "onlineserver.fullsweepinterval",
+        10,
+        "With local optimization (see onlineserver.localhops), optimize all the terms every this many optimizations"
+        + " to bound the drift of the terms that local optimizations skip."
+        + " A non-positive value means only when the model requires it."
+    );
+
+    public static final Option ONLINE_ADAPTIVE_BUDGET = new Option(
+        "onlineserver.adaptivebudget",
+        false,
+        "Size the reasoner's iteration budget for each optimization by the model updates it covers,"
+        + " instead of always allowing the reasoner's maximum iterations."
+        + " The update magnitude is (2 * added and deleted atoms + changed observations) / atoms in the model,"
+        + " and the budget (a share of the maximum iterations) is the magnitude times onlineserver.budgetscale,"
+        + " but no less than onlineserver.minbudget."
+        + " Rule changes always get the full budget."
+    );
+
+    public static final Option ONLINE_MIN_BUDGET = new Option(
+        "onlineserver.minbudget",
+        0.001,
+        "The smallest share (in (0, 1]) of the reasoner's maximum iterations that an adaptive budget can give an optimization."
+        + " An optimization always gets at least one iteration."
+    );
+
+    public static final Option ONLINE_BUDGET_SCALE = new Option(
+        "onlineserver.budgetscale",
+        10.0,
+        "The budget an optimization gets per unit of update magnitude when using an adaptive budget."
+    );
+
+    public static final Option ONLINE_PREEMPTIBLE_OPTIMIZATION = new Option(
+        "onlineserver.preemptibleoptimization",
+        false,
+        "Let optimizations that no action is waiting on (trigger and background optimizations) stop between term pages"
+        + " when actions arrive. The values reached so far are kept, and the updates are optimized again later."
+        + " Optimizations for reads are never preempted."
+    );
+
+    public static final Option ONLINE_MAX_PREEMPTIONS = new Option(
+        "onlineserver.maxpreemptions",
+        3,
+        "With preemptible optimization, the number of background optimizations in a row that can be preempted."
+        + " After each preemption the background optimizer backs off until the waiting actions are in"
+        + " (for at most a time that doubles with every preemption in a row),"
+        + " and once the limit is reached the next optimization runs to completion, so updates get published under steady load."
+        + " A non-positive value means no limit."
+    );
+
+    public static final Option ONLINE_SNAPSHOT_READS = new Option(
+        "onlineserver.snapshotreads",
+        false,
+        "Copy all atom values after every optimization, and answer IMMEDIATE GetAtom reads from the latest copy"
+        + " on the connection threads instead of through the action queue."
+        + " Atoms that are not in the copy (e.g. added since the last optimization) are still read through the queue."
+    );
+
+    public static final Option ONLINE_CODEC = new Option(
+        "onlineclient.codec",
+        "JAVA",
+        "The codec the online client asks the server to use after the handshake."
+        + " JAVA uses standard Java serialization for every message."
+        + " BINARY uses a compact binary format for atom actions, simple controls, and their responses."
+    );
+
+    public static final Option ONLINE_CLIENT_NAME = new Option(
+        "onlineclient.name",
+        "",
+        "The name the online client gives itself when connecting (used for per-client scheduling weights on the server)."
+    );
+
     public static final Option ONLINE_READ_PARTITION = new Option(
         "onlineatommanager.read",
         -1,
@@ -40,6 +307,40 @@ public class OnlineOptions {
         + " If negative, the first read partition in the database will be used."
     );
 
+    public static final Option ONLINE_MAPPED_PAGES = new Option(
+        "onlinetermstore.mappedpages",
+        false,
+        "Read term pages through memory mappings that are kept between passes,"
+        + " instead of reading every page from a new stream on every pass."
+        + " Deleted pages may keep their disk space until their mappings are garbage collected."
+    );
+
+    public static final Option ONLINE_PREFETCH_PAGES = new Option(
+        "onlinetermstore.prefetchpages",
+        false,
+        "Load the next term page on a background thread while the terms of the current page are optimized."
+        + " With mapped pages (see onlinetermstore.mappedpages), the next mapping is brought into memory instead."
+    );
+
+    public static final Option ONLINE_COMPACTION = new Option(
+        "onlinetermstore.compaction",
+        false,
+        "After every optimization, rewrite the sparse and undersized term pages of each rule into full pages,"
+        + " dropping the terms that use deleted atoms (see onlinetermstore.compactionminlive and onlinetermstore.compactionminfill)."
+    );
+
+    public static final Option ONLINE_COMPACTION_MIN_LIVE = new Option(
+        "onlinetermstore.compactionminlive",
+        0.5,
+        "Term pages where less than this share of the terms are live (use no deleted atoms) are compacted."
+    );
+
+    public static final Option ONLINE_COMPACTION_MIN_FILL = new Option(
+        "onlinetermstore.compactionminfill",
+        0.25,
+        "Term pages with fewer live terms than this share of the page size are compacted."
+    );
+
     public static final Option PARTIAL_GROUNDING_POWERSET = new Option(
         "partialgrounding.powerset",
         false,
@@ -0,0 +1,273 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.database.atom;
+
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.DoubleAttribute;
+import org.linqs.psl.model.term.IntegerAttribute;
+import org.linqs.psl.model.term.LongAttribute;
+import org.linqs.psl.model.term.StringAttribute;
+import org.linqs.psl.model.term.UniqueIntID;
+import org.linqs.psl.model.term.UniqueStringID;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the atoms of a single predicate from a PSL data file (tab-separated arguments and an optional value)
+ * through memory-mapped windows of the file, without going through a Reader or building a String per line.
+ *
+ * Usage: while (reader.next()) { reader.getArguments(); reader.getValue(); }
+ */
+public class MappedAtomFileReader implements AutoCloseable {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final float DEFAULT_VALUE = 1.0f;
+
+    private final StandardPredicate predicate;
+    private final String path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private byte[] field;
+    private Constant[] arguments;
+    private float value;
+    private long lineNumber;
+
+    public MappedAtomFileReader(String path, StandardPredicate predicate) throws IOException {
+        this(path, predicate, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedAtomFileReader(String path, StandardPredicate predicate, int windowSize) throws IOException {
+        this.predicate = predicate;
+        this.path = path;
+        this.windowSize = windowSize;
+
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        fileSize = channel.size();
+
+        window = null;
+        windowStart = 0;
+
+        field = new byte[256];
+        arguments = null;
+        value = DEFAULT_VALUE;
+        lineNumber = 0;
+    }
+
+    /**
+     * Move to the next atom.
+     * Returns false when there are no more atoms in the file.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            long lineStart = getPosition();
+            if (lineStart >= fileSize) {
+                return false;
+            }
+
+            int lineLength = findLineLength();
+            lineNumber++;
+
+            int contentLength = lineLength;
+            if (contentLength > 0 && window.get(window.position() + contentLength - 1) == '\r') {
+                contentLength--;
+            }
+
+            if (contentLength == 0) {
+                skip(lineLength);
+                continue;
+            }
+
+            parseLine(contentLength);
+            skip(lineLength);
+            return true;
+        }
+    }
+
+    public Constant[] getArguments() {
+        return arguments;
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+        file.close();
+    }
+
+    private long getPosition() {
+        if (window == null) {
+            return windowStart;
+        }
+
+        return windowStart + window.position();
+    }
+
+    /**
+     * Make sure the line starting at the current position is fully inside the window,
+     * and return its length (not including the newline).
+     */
+    private int findLineLength() throws IOException {
+        if (window == null) {
+            map(windowStart);
+        }
+
+        boolean remapped = false;
+        while (true) {
+            for (int i = window.position(); i < window.limit(); i++) {
+                if (window.get(i) == '\n') {
+                    return i - window.position();
+                }
+            }
+
+            // The last line does not need a newline.
+            if (windowStart + window.limit() >= fileSize) {
+                return window.limit() - window.position();
+            }
+
+            if (remapped) {
+                throw new IOException(String.format("Line %d of %s is longer than the mapping window (%d bytes).",
+                        lineNumber + 1, path, windowSize));
+            }
+
+            // Move the window to start at this line.
+            map(getPosition());
+            remapped = true;
+        }
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        long size = Math.min(windowSize, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+
+    private void skip(int lineLength) {
+        int next = window.position() + lineLength + 1;
+        if (next >= window.limit()) {
+            // Past the end of the window (or file), the next call will remap.
+            windowStart += next;
+            window = null;
+            return;
+        }
+
+        window.position(next);
+    }
+
+    private void parseLine(int length) {
+        // A new array for every atom, since ground atoms hold on to their arguments.
+        arguments = new Constant[predicate.getArity()];
+
+        int start = window.position();
+        int end = start + length;
+        int column = 0;
+
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && window.get(i) != '\t') {
+                continue;
+            }
+
+            if (column < arguments.length) {
+                arguments[column] = parseArgument(column, fieldStart, i - fieldStart);
+            } else if (column == arguments.length) {
+                value = parseValue(fieldStart, i - fieldStart);
+            } else {
+                throw new IllegalArgumentException(String.format("Too many columns on line %d of %s. Expected at most %d.",
+                        lineNumber, path, arguments.length + 1));
+            }
+
+            column++;
+            fieldStart = i + 1;
+        }
+
+        if (column < arguments.length) {
+            throw new IllegalArgumentException(String.format("Too few columns on line %d of %s. Expected at least %d, found %d.",
+                    lineNumber, path, arguments.length, column));
+        }
+
+        if (column == arguments.length) {
+            value = DEFAULT_VALUE;
+        }
+    }
+
+    private Constant parseArgument(int column, int start, int length) {
+        String text = readField(start, length);
+
+        try {
+            switch (predicate.getArgumentType(column)) {
+                case UniqueStringID:
+                    return new UniqueStringID(text);
+                case UniqueIntID:
+                    return new UniqueIntID(Integer.parseInt(text));
+                case String:
+                    return new StringAttribute(text);
+                case Integer:
+                    return new IntegerAttribute(Integer.valueOf(text));
+                case Long:
+                    return new LongAttribute(Long.valueOf(text));
+                case Double:
+                    return new DoubleAttribute(Double.valueOf(text));
+                default:
+                    throw new IllegalArgumentException("Unknown argument type: " + predicate.getArgumentType(column));
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("Bad value for argument %d on line %d of %s.",
+                    column, lineNumber, path), ex);
+        }
+    }
+
+    private float parseValue(int start, int length) {
+        try {
+            return Float.parseFloat(readField(start, length));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("Bad truth value on line %d of %s.", lineNumber, path), ex);
+        }
+    }
+
+    private String readField(int start, int length) {
+        if (field.length < length) {
+            field = new byte[Math.max(length, field.length * 2)];
+        }
+
+        for (int i = 0; i < length; i++) {
+            field[i] = window.get(start + i);
+        }
+
+        return new String(field, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -28,7 +28,9 @@ import org.linqs.psl.model.predicate.StandardPredicate;
 import org.linqs.psl.model.term.Constant;
 import org.linqs.psl.reasoner.InitialValue;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -113,6 +115,29 @@ public class OnlineAtomManager extends PersistedAtomManager {
         return atom;
     }
 
+    /**
+     * Get all the cached atoms.
+     */
+    public Iterable<GroundAtom> getCachedAtoms() {
+        return db.getCache().getCachedAtoms();
+    }
+
+    /**
+     * Get all the cached atoms of a predicate.
+     * This includes every target atom, and every observation that has been involved in grounding.
+     */
+    public List<GroundAtom> getCachedAtoms(StandardPredicate predicate) {
+        List<GroundAtom> atoms = new ArrayList<GroundAtom>();
+
+        for (GroundAtom atom : db.getCache().getCachedAtoms()) {
+            if (atom.getPredicate() == predicate) {
+                atoms.add(atom);
+            }
+        }
+
+        return atoms;
+    }
+
     @Override
     public GroundAtom getAtom(Predicate predicate, Constant... arguments) {
         GroundAtom atom = super.getAtom(predicate, arguments);
@@ -26,6 +26,7 @@ import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.linqs.psl.application.inference.online.messages.OnlineMessage;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.LoadAtoms;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
 import org.linqs.psl.application.inference.online.messages.actions.controls.WriteInferredPredicates;
@@ -33,6 +34,7 @@ import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom
 import org.linqs.psl.application.inference.online.messages.actions.model.DeleteAtom;
 import org.linqs.psl.application.inference.online.messages.actions.model.FixAtom;
 import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtoms;
 import org.linqs.psl.application.inference.online.messages.actions.model.ObserveAtom;
 import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
 import org.linqs.psl.application.inference.online.messages.actions.template.ActivateRule;
@@ -55,6 +57,8 @@ import org.linqs.psl.parser.antlr.OnlinePSLParser.DeactivateRuleContext;
 import org.linqs.psl.parser.antlr.OnlinePSLParser.DeleteAtomContext;
 import org.linqs.psl.parser.antlr.OnlinePSLParser.ExitContext;
 import org.linqs.psl.parser.antlr.OnlinePSLParser.GetAtomContext;
+import org.linqs.psl.parser.antlr.OnlinePSLParser.GetAtomsContext;
+import org.linqs.psl.parser.antlr.OnlinePSLParser.LoadAtomsContext;
 import org.linqs.psl.parser.antlr.OnlinePSLParser.NumberContext;
 import org.linqs.psl.parser.antlr.OnlinePSLParser.FixAtomContext;
 import org.linqs.psl.parser.antlr.OnlinePSLParser.ObserveAtomContext;
@@ -175,12 +179,16 @@ public class OnlineActionLoader extends OnlinePSLBaseVisitor<Object> {
             return visitFixAtom(ctx.fixAtom());
         } else if (ctx.getAtom() != null) {
             return visitGetAtom(ctx.getAtom());
+        } else if (ctx.getAtoms() != null) {
+            return visitGetAtoms(ctx.getAtoms());
         } else if (ctx.stop() != null) {
             return visitStop(ctx.stop());
         } else if (ctx.sync() != null) {
             return visitSync(ctx.sync());
         } else if (ctx.updateObservation() != null) {
             return visitUpdateObservation(ctx.updateObservation());
+        } else if (ctx.loadAtoms() != null) {
+            return visitLoadAtoms(ctx.loadAtoms());
         } else if (ctx.writeInferredPredicates() != null) {
             return visitWriteInferredPredicates(ctx.writeInferredPredicates());
         } else {
@@ -261,6 +269,21 @@ public class OnlineActionLoader extends OnlinePSLBaseVisitor<Object> {
         return new GetAtom((StandardPredicate)atom.getPredicate(), constants);
     }
 
+    @Override
+    public GetAtoms visitGetAtoms(GetAtomsContext ctx) {
+        Atom atom = ModelLoader.loadAtom(ctx.atom().getText());
+
+        // Variables are wildcards.
+        Constant[] pattern = new Constant[atom.getArguments().length];
+        for (int i = 0; i < pattern.length; i++) {
+            if (atom.getArguments()[i] instanceof Constant) {
+                pattern[i] = (Constant)atom.getArguments()[i];
+            }
+        }
+
+        return new GetAtoms((StandardPredicate)atom.getPredicate(), pattern);
+    }
+
     @Override
     public AddRule visitAddRule(AddRuleContext ctx) {
         Rule rule = ModelLoader.loadRule(ctx.pslRule().getText());
@@ -310,6 +333,17 @@ public class OnlineActionLoader extends OnlinePSLBaseVisitor<Object> {
         return new WriteInferredPredicates(outputDirectoryPath);
     }
 
+    @Override
+    public LoadAtoms visitLoadAtoms(LoadAtomsContext ctx) {
+        StandardPredicate predicate = StandardPredicate.get(ctx.predicate().getText());
+        if (predicate == null) {
+            throw new IllegalArgumentException("Unknown predicate: " + ctx.predicate().getText() + ".");
+        }
+
+        String path = ctx.STRING_LITERAL().getText().substring(1, ctx.STRING_LITERAL().getText().length() - 1);
+        return new LoadAtoms(ctx.PARTITION().getText(), predicate, path);
+    }
+
     @Override
     public Float visitNumber(NumberContext ctx) {
         return Float.parseFloat(ctx.getText());
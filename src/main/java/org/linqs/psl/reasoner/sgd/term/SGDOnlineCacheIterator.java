@@ -19,6 +19,7 @@ package org.linqs.psl.reasoner.sgd.term;
 
 import org.linqs.psl.reasoner.term.online.OnlineCacheIterator;
 import org.linqs.psl.reasoner.term.online.OnlineTermStore;
+import org.linqs.psl.reasoner.term.online.TermPageMappings;
 import org.linqs.psl.util.RuntimeStats;
 
 import java.io.FileInputStream;
@@ -39,24 +40,62 @@ public class SGDOnlineCacheIterator extends OnlineCacheIterator<SGDObjectiveTerm
 
     @Override
     protected void readPage(String termPagePath, String volatilePagePath) {
+        ByteBuffer page = takePrefetchedPage(termPagePath);
+
+        if (page == null) {
+            TermPageMappings termPageMappings = parentStore.getTermPageMappings();
+            if (termPageMappings != null) {
+                page = termPageMappings.get(termPagePath);
+            } else {
+                page = readPageFile(termPagePath, termBuffer);
+            }
+        }
+
+        // Skip the size of the terms.
+        page.getInt();
+        int numTerms = page.getInt();
+
+        // Convert all the terms from binary to objects.
+        // Use the terms from the pool.
+        for (int i = 0; i < numTerms; i++) {
+            SGDObjectiveTerm term = termPool.get(i);
+            term.read(page, volatileBuffer);
+            termCache.add(term);
+        }
+    }
+
+    @Override
+    protected ByteBuffer loadPage(String termPagePath) {
+        TermPageMappings termPageMappings = parentStore.getTermPageMappings();
+        if (termPageMappings != null) {
+            return termPageMappings.load(termPagePath);
+        }
+
+        return readPageFile(termPagePath, prefetchBuffer);
+    }
+
+    /**
+     * Read a whole page into the given buffer, and return the buffer positioned at the start of the page.
+     */
+    private ByteBuffer readPageFile(String termPagePath, ByteBuffer buffer) {
         int termsSize = 0;
-        int numTerms = 0;
         int headerSize = (Integer.SIZE / 8) * 2;
 
+        buffer.clear();
+
         try (FileInputStream termStream = new FileInputStream(termPagePath)) {
             // First read the term size information.
-            int readSize = termStream.read(termBuffer.array(), 0, headerSize);
+            int readSize = termStream.read(buffer.array(), 0, headerSize);
             if (readSize != headerSize) {
                 throw new RuntimeException(String.format(
                     "Short read for page header. Page: [%s], expected size: %d, read size: %d.",
                     termPagePath, headerSize, readSize));
             }
 
-            termsSize = termBuffer.getInt();
-            numTerms = termBuffer.getInt();
+            termsSize = buffer.getInt(0);
 
             // Now read in all the terms.
-            readSize = termStream.read(termBuffer.array(), headerSize, termsSize);
+            readSize = termStream.read(buffer.array(), headerSize, termsSize);
             if (readSize != termsSize) {
                 throw new RuntimeException(String.format(
                     "Short read for page terms. Page: [%s], expected size: %d, read size: %d.",
@@ -69,13 +108,8 @@ public class SGDOnlineCacheIterator extends OnlineCacheIterator<SGDObjectiveTerm
         // Log io.
         RuntimeStats.logDiskRead(headerSize + termsSize);
 
-        // Convert all the terms from binary to objects.
-        // Use the terms from the pool.
-        for (int i = 0; i < numTerms; i++) {
-            SGDObjectiveTerm term = termPool.get(i);
-            term.read(termBuffer, volatileBuffer);
-            termCache.add(term);
-        }
+        buffer.limit(headerSize + termsSize);
+        return buffer;
     }
 
     @Override
@@ -23,6 +23,7 @@ import org.linqs.psl.model.rule.Rule;
 import org.linqs.psl.reasoner.term.online.OnlineTermStore;
 import org.linqs.psl.reasoner.term.streaming.StreamingIterator;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class SGDOnlineTermStore extends OnlineTermStore<SGDObjectiveTerm> {
@@ -58,18 +59,23 @@ public class SGDOnlineTermStore extends OnlineTermStore<SGDObjectiveTerm> {
 
     @Override
     public boolean rejectCacheTerm(SGDObjectiveTerm term, int pageIndex) {
-        boolean allObservedAtoms = true;
         int[] variableIndexes = term.getVariableIndexes();
 
-        for (int i=0; i < term.size(); i++) {
-            if (variableAtoms[variableIndexes[i]] == null) {
-                return true;
-            }
+        indexTerm(pageIndex, variableIndexes, term.size());
+
+        boolean dead = isDeadTerm(term);
+        countPageTerm(pageIndex, dead);
+        if (dead) {
+            return true;
+        }
 
-            // If a random variable atom is present in the term,
-            // then the term contributes to optimization and should not be rejected.
+        // If a random variable atom is present in the term,
+        // then the term contributes to optimization and should not be rejected.
+        boolean allObservedAtoms = true;
+        for (int i = 0; i < term.size(); i++) {
             if (variableAtoms[variableIndexes[i]] instanceof RandomVariableAtom) {
                 allObservedAtoms = false;
+                break;
             }
         }
 
@@ -78,4 +84,22 @@ public class SGDOnlineTermStore extends OnlineTermStore<SGDObjectiveTerm> {
 
         return allObservedAtoms;
     }
+
+    @Override
+    protected boolean isDeadTerm(SGDObjectiveTerm term) {
+        int[] variableIndexes = term.getVariableIndexes();
+
+        for (int i = 0; i < term.size(); i++) {
+            if (variableAtoms[variableIndexes[i]] == null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    protected void readPageTerm(SGDObjectiveTerm term, ByteBuffer page) {
+        term.read(page, volatileBuffer);
+    }
 }
@@ -24,6 +24,10 @@ import org.linqs.psl.util.RandUtils;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Iterate over all the terms from the disk cache.
@@ -31,6 +35,9 @@ import java.util.List;
  *
  * This iterator can be constructed as read-only.
  * In this case, pages will not be written to disk.
+ *
+ * If the parent store has a prefetch executor, then the next page (in access order) is loaded (see loadPage())
+ * on the executor while the terms of the current page are used.
  */
 public abstract class OnlineCacheIterator<T extends ReasonerTerm> implements StreamingIterator<T> {
     protected OnlineTermStore<T> parentStore;
@@ -63,6 +70,12 @@ public abstract class OnlineCacheIterator<T extends ReasonerTerm> implements Str
 
     protected int numPages;
 
+    // Null when not prefetching.
+    protected ExecutorService prefetchExecutor;
+    protected ByteBuffer prefetchBuffer;
+    private Future<ByteBuffer> prefetch;
+    private String prefetchPath;
+
     public OnlineCacheIterator(
             OnlineTermStore<T> parentStore, boolean readonly,
             List<T> termCache, List<T> termPool,
@@ -92,9 +105,12 @@ public abstract class OnlineCacheIterator<T extends ReasonerTerm> implements Str
 
         this.shufflePage = shufflePage;
 
+        // Local optimizations only read some of the pages.
         pageAccessOrder = new ArrayList<Integer>(numPages);
         for (int i = 0; i < numPages; i++) {
-            pageAccessOrder.add(i);
+            if (parentStore.isPageSelected(i)) {
+                pageAccessOrder.add(i);
+            }
         }
 
         if (randomizePageAccess) {
@@ -103,7 +119,15 @@ public abstract class OnlineCacheIterator<T extends ReasonerTerm> implements Str
 
         closed = false;
 
-        // Note that we cannot pre-fetch.
+        prefetchExecutor = parentStore.getPrefetchExecutor();
+        prefetchBuffer = null;
+        if (prefetchExecutor != null) {
+            prefetchBuffer = parentStore.getPrefetchBuffer();
+        }
+        prefetch = null;
+        prefetchPath = null;
+
+        // Note that we cannot pre-fetch terms (only pages).
         nextTerm = null;
     }
 
@@ -185,11 +209,16 @@ public abstract class OnlineCacheIterator<T extends ReasonerTerm> implements Str
         currentPage++;
         nextCachedTermIndex = 0;
 
-        if (currentPage >= numPages) {
+        if (currentPage >= pageAccessOrder.size()) {
             // Out of pages.
             return false;
         }
 
+        // Let waiting actions in between pages, but never before the first page of a pass that was not preempted.
+        if ((currentPage > 0 || parentStore.isPreempted()) && parentStore.checkPreemption()) {
+            return false;
+        }
+
         currentPageIndex = pageAccessOrder.get(currentPage);
         String termPagePath = parentStore.getTermPagePath(currentPageIndex);
         String volatilePagePath = parentStore.getVolatilePagePath(currentPageIndex);
@@ -200,6 +229,7 @@ public abstract class OnlineCacheIterator<T extends ReasonerTerm> implements Str
         volatileBuffer.clear();
 
         readPage(termPagePath, volatilePagePath);
+        startPrefetch();
 
         if (shufflePage) {
             // Remember that the shuffle map may be larger than the term cache (for not full pages).
@@ -247,6 +277,11 @@ public abstract class OnlineCacheIterator<T extends ReasonerTerm> implements Str
 
         flushCache();
 
+        // An unused prefetch has to finish before its page can be deleted (or its buffer reused).
+        if (prefetch != null) {
+            awaitPrefetch(false);
+        }
+
         // All the terms have been iterated over and the volatile buffer has been flushed,
         // the term cache is now invalid.
         termCache.clear();
@@ -254,6 +289,79 @@ public abstract class OnlineCacheIterator<T extends ReasonerTerm> implements Str
         parentStore.cacheIterationComplete(termCount);
     }
 
+    /**
+     * Start loading the page after the current one.
+     */
+    private void startPrefetch() {
+        if (prefetchExecutor == null || currentPage + 1 >= pageAccessOrder.size()) {
+            return;
+        }
+
+        final String nextPagePath = parentStore.peekTermPagePath(pageAccessOrder.get(currentPage + 1));
+        if (nextPagePath == null) {
+            return;
+        }
+
+        prefetchPath = nextPagePath;
+        prefetch = prefetchExecutor.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() {
+                return loadPage(nextPagePath);
+            }
+        });
+    }
+
+    /**
+     * Get the contents of the given page if it was prefetched (waiting for the prefetch to finish if needed),
+     * or null if it was not.
+     */
+    protected ByteBuffer takePrefetchedPage(String termPagePath) {
+        if (prefetch == null) {
+            return null;
+        }
+
+        boolean prefetched = termPagePath.equals(prefetchPath);
+        ByteBuffer page = awaitPrefetch(prefetched);
+
+        if (!prefetched) {
+            return null;
+        }
+
+        return page;
+    }
+
+    private ByteBuffer awaitPrefetch(boolean needed) {
+        Future<ByteBuffer> pending = prefetch;
+        String pendingPath = prefetchPath;
+
+        prefetch = null;
+        prefetchPath = null;
+
+        try {
+            return pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(String.format("Interrupted while prefetching cache page: [%s].", pendingPath), ex);
+        } catch (ExecutionException ex) {
+            if (!needed) {
+                // The page will be read again (or never).
+                return null;
+            }
+
+            throw new RuntimeException(String.format("Unable to prefetch cache page: [%s].", pendingPath), ex.getCause());
+        }
+    }
+
+    /**
+     * Load a page on the prefetch executor so that readPage() can get it from takePrefetchedPage().
+     * Pages loaded into the prefetch buffer must be fully used by readPage(),
+     * since the buffer is reused for the next prefetch.
+     * By default, pages are not prefetched.
+     */
+    protected ByteBuffer loadPage(String termPagePath) {
+        return null;
+    }
+
     /**
      * Read a page and fill the termCache using freed terms from the termPool.
      * The child is responsible for all IO, but shuffling will be handled by the parent.
@@ -17,6 +17,7 @@
  */
 package org.linqs.psl.reasoner.term.online;
 
+import org.linqs.psl.config.OnlineOptions;
 import org.linqs.psl.database.atom.AtomManager;
 import org.linqs.psl.database.atom.OnlineAtomManager;
 import org.linqs.psl.model.atom.GroundAtom;
@@ -31,23 +32,40 @@ import org.linqs.psl.util.FileUtils;
 import org.linqs.psl.util.IteratorUtils;
 import org.linqs.psl.util.Logger;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 /**
  * A term store that supports online operations.
  *
  * The numPages class variable represents the number of active pages in OnlineTermStores.
+ *
+ * When the page index is enabled, the store remembers which variables the terms of every page use
+ * (learned as pages are read from the cache) and which variables changed since the last optimization.
+ * A local optimization can then restrict cache passes to the pages around the changed variables.
  */
 public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingTermStore<T> {
     private static final Logger log = Logger.getLogger(OnlineTermStore.class);
 
+    // The size of the term page header: the size of the terms and the number of terms.
+    private static final int PAGE_HEADER_SIZE = (Integer.SIZE / 8) * 2;
+
     protected List<Integer> activeTermPages;
     protected List<Integer> activeVolatilePages;
     protected Map<Integer, Boolean> validTermPages;
@@ -60,6 +78,49 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
 
     protected Boolean joinIteration;
 
+    // Held for every full pass over the terms and while syncing atoms.
+    // Model changes made from other threads should hold this lock, so they only land between passes.
+    private final ReentrantLock iterationLock;
+    private boolean iterationLocked;
+
+    // Page index (all keyed by term page, not active page index).
+    // Pages that have not been read since they were written are not indexed.
+    private boolean pageIndexEnabled;
+    private Map<Integer, Set<Integer>> pageVariables;
+    private Map<Integer, List<Integer>> variablePages;
+    private Set<Integer> indexingPages;
+    private Set<Integer> dirtyVariables;
+    private boolean fullSweepRequired;
+    private int fullSweepInterval;
+    private int localPassesSinceFullSweep;
+
+    // The pages of the current local optimization, null when passes cover all the pages.
+    private Set<Integer> localPages;
+    // The pages of a preempted local optimization, to include in the next one.
+    private Set<Integer> unfinishedPages;
+
+    // While preemptible, cache passes stop between pages once the preemption check is true,
+    // and every pass after that is empty until preemption is turned off again.
+    private BooleanSupplier preemptionCheck;
+    private volatile boolean preemptible;
+    private volatile boolean preempted;
+
+    // Null when pages are read through streams.
+    private TermPageMappings termPageMappings;
+
+    // The number of terms and dead terms (keyed by term page) seen in every page's last read.
+    // Only kept when compaction is enabled.
+    private boolean compactionEnabled;
+    private Map<Integer, int[]> pageTermCounts;
+    private long compactedPageCount;
+    private long writtenPageCount;
+    private long droppedTermCount;
+    private long savedBytesPerPass;
+
+    // Null when cache iterators do not prefetch pages.
+    private ExecutorService prefetchExecutor;
+    private ByteBuffer prefetchBuffer;
+
     public OnlineTermStore(List<Rule> rules, AtomManager atomManager,
                            HyperplaneTermGenerator<T, GroundAtom> termGenerator) {
         super(rules, atomManager, termGenerator);
@@ -80,6 +141,105 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
         nextVolatilePageIndex = 0;
 
         joinIteration = false;
+
+        // Fair, so a waiting model change gets in before the next pass.
+        iterationLock = new ReentrantLock(true);
+        iterationLocked = false;
+
+        pageIndexEnabled = false;
+        pageVariables = new HashMap<Integer, Set<Integer>>();
+        variablePages = new HashMap<Integer, List<Integer>>();
+        indexingPages = new HashSet<Integer>();
+        dirtyVariables = new HashSet<Integer>();
+        fullSweepRequired = true;
+        fullSweepInterval = 0;
+        localPassesSinceFullSweep = 0;
+        localPages = null;
+        unfinishedPages = new HashSet<Integer>();
+
+        preemptionCheck = null;
+        preemptible = false;
+        preempted = false;
+
+        termPageMappings = null;
+        if (OnlineOptions.ONLINE_MAPPED_PAGES.getBoolean()) {
+            termPageMappings = new TermPageMappings();
+        }
+
+        compactionEnabled = false;
+        pageTermCounts = new HashMap<Integer, int[]>();
+        compactedPageCount = 0;
+        writtenPageCount = 0;
+        droppedTermCount = 0;
+        savedBytesPerPass = 0;
+
+        prefetchExecutor = null;
+        prefetchBuffer = null;
+        if (OnlineOptions.ONLINE_PREFETCH_PAGES.getBoolean()) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "OnlinePSL Page Prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public ReentrantLock getIterationLock() {
+        return iterationLock;
+    }
+
+    /**
+     * Get the mappings that cache iterators should read term pages through, or null to read pages through streams.
+     */
+    public TermPageMappings getTermPageMappings() {
+        return termPageMappings;
+    }
+
+    /**
+     * Get the executor that cache iterators should load their next page on, or null to not prefetch.
+     */
+    public ExecutorService getPrefetchExecutor() {
+        return prefetchExecutor;
+    }
+
+    /**
+     * Get the buffer that pages are prefetched into (at least as large as the term buffer).
+     * Only one page is prefetched at a time, and a prefetched page is deserialized before the next prefetch starts.
+     */
+    public synchronized ByteBuffer getPrefetchBuffer() {
+        if (prefetchBuffer == null || prefetchBuffer.capacity() < termBuffer.capacity()) {
+            prefetchBuffer = ByteBuffer.allocate(termBuffer.capacity());
+        }
+
+        return prefetchBuffer;
+    }
+
+    /**
+     * Get the path of the term page at the given (active) index without preparing it for a read,
+     * or null if the page does not exist yet.
+     */
+    public String peekTermPagePath(int index) {
+        if (index >= activeTermPages.size()) {
+            return null;
+        }
+
+        return termPagePaths.get(activeTermPages.get(index));
+    }
+
+    @Override
+    public void close() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+
+        if (termPageMappings != null) {
+            termPageMappings.clear();
+        }
+
+        super.close();
     }
 
     @Override
@@ -92,6 +252,21 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
         return atomManager.getCachedRVACount() + atomManager.getCachedObsCount();
     }
 
+    /**
+     * Get the index of an atom's local variable (without creating one), or -1 if the atom is not used in any term.
+     */
+    public synchronized int getLocalVariableIndex(GroundAtom atom) {
+        return getVariableIndex(atom);
+    }
+
+    /**
+     * Get the current value of a local variable.
+     * Hold the iteration lock to not read values in the middle of an optimization.
+     */
+    public float getLocalVariableValue(int index) {
+        return variableValues[index];
+    }
+
     public synchronized void deleteLocalVariable(GroundAtom atom) {
         int index = getVariableIndex(atom);
         if (index == -1) {
@@ -99,6 +274,8 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
             return;
         }
 
+        markDirty(index);
+
         variables.remove(atom);
         variableValues[index] = -1.0f;
         variableAtoms[index] = null;
@@ -121,6 +298,8 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
 
         variableAtoms[getVariableIndex(atom)] = atom;
         variableValues[getVariableIndex(atom)] = newValue;
+
+        markDirty(getVariableIndex(atom));
     }
 
     public synchronized void activateRule(Rule rule) {
@@ -140,6 +319,7 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
         }
 
         activatedRules.put(rule, true);
+        fullSweepRequired = true;
     }
 
     public synchronized void addRule(Rule rule) {
@@ -169,6 +349,7 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
 
         removeActiveTermPages(rule);
         activatedRules.put(rule, false);
+        fullSweepRequired = true;
     }
 
     public synchronized void deleteRule(Rule rule) {
@@ -182,8 +363,14 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
         activatedRules.remove(rule);
         for (int i : rulePageMapping.get(rule)) {
             pageRuleMapping.remove(i);
+            removePageIndex(i);
+            pageTermCounts.remove(i);
+            if (termPageMappings != null) {
+                termPageMappings.remove(termPagePaths.get(i));
+            }
         }
         rulePageMapping.remove(rule);
+        fullSweepRequired = true;
     }
 
     private void removeActiveTermPages(Rule rule) {
@@ -200,6 +387,458 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
 
     public abstract StreamingIterator<T> getGroundingIterator(List<Rule> rules);
 
+    /**
+     * Start remembering the variables of every page and the variables that change, so local optimizations can be used.
+     */
+    public synchronized void enablePageIndex() {
+        pageIndexEnabled = true;
+    }
+
+    /**
+     * Make every fullSweepInterval-th call to selectLocalPages() a full sweep,
+     * so that errors outside of the local neighborhoods do not build up.
+     * A non-positive interval only sweeps when the store requires it.
+     */
+    public synchronized void setFullSweepInterval(int fullSweepInterval) {
+        this.fullSweepInterval = fullSweepInterval;
+        localPassesSinceFullSweep = 0;
+    }
+
+    /**
+     * Restrict the following cache passes to the pages within the given number of hops of the variables
+     * that changed since the last optimization (plus any pages that are not indexed yet).
+     * One hop is the pages that use a changed variable, every additional hop adds the pages that share a variable
+     * with the pages already chosen.
+     * Returns false (and leaves passes covering all the pages) when a full sweep is required,
+     * e.g. after rule changes, before the pages are indexed, or when the full sweep interval is up.
+     * Either way, the changed variables are now considered handled.
+     */
+    public synchronized boolean selectLocalPages(int hops) {
+        localPages = null;
+        localPassesSinceFullSweep++;
+
+        if (!pageIndexEnabled || initialRound || fullSweepRequired || hops <= 0
+                || (fullSweepInterval > 0 && localPassesSinceFullSweep >= fullSweepInterval)) {
+            // A full sweep also covers the pages of any preempted local optimization.
+            clearDirtyVariables();
+            unfinishedPages.clear();
+            localPassesSinceFullSweep = 0;
+            return false;
+        }
+
+        Set<Integer> pages = new HashSet<Integer>(unfinishedPages);
+        unfinishedPages.clear();
+
+        for (Integer page : activeTermPages) {
+            if (!pageVariables.containsKey(page) || indexingPages.contains(page)) {
+                pages.add(page);
+            }
+        }
+
+        Set<Integer> frontier = dirtyVariables;
+        for (int hop = 0; hop < hops && !frontier.isEmpty(); hop++) {
+            Set<Integer> nextFrontier = new HashSet<Integer>();
+
+            for (Integer variable : frontier) {
+                List<Integer> variablePageList = variablePages.get(variable);
+                if (variablePageList == null) {
+                    continue;
+                }
+
+                for (Integer page : variablePageList) {
+                    if (pages.add(page) && hop + 1 < hops) {
+                        nextFrontier.addAll(pageVariables.get(page));
+                    }
+                }
+            }
+
+            frontier = nextFrontier;
+        }
+
+        dirtyVariables = new HashSet<Integer>();
+        localPages = pages;
+        return true;
+    }
+
+    /**
+     * Go back to passes over all the pages.
+     * The pages of a preempted local optimization are kept for the next local optimization,
+     * and a preempted full pass makes the next optimization a full one.
+     */
+    public synchronized void clearLocalPages() {
+        if (preempted) {
+            if (localPages == null) {
+                fullSweepRequired = true;
+            } else {
+                unfinishedPages.addAll(localPages);
+            }
+        }
+
+        localPages = null;
+    }
+
+    /**
+     * Start counting the live and dead terms of every page as it is read, so pages can be compacted.
+     */
+    public synchronized void enableCompaction() {
+        compactionEnabled = true;
+    }
+
+    /**
+     * Rewrite the sparse pages (live terms under minLiveFraction of the page's terms)
+     * and undersized pages (live terms under minFillFraction of the page size) of every active rule
+     * into as few full pages as possible, dropping the terms that use deleted atoms.
+     * Only pages that were fully read since they were written are considered.
+     * Must be called between passes.
+     * Returns the number of pages removed.
+     */
+    public int compactPages(double minLiveFraction, double minFillFraction) {
+        iterationLock.lock();
+        try {
+            synchronized (this) {
+                if (!compactionEnabled || initialRound || termPool.isEmpty()) {
+                    return 0;
+                }
+
+                int removedPages = 0;
+                for (Rule rule : rules) {
+                    removedPages += compactRulePages(rule, minLiveFraction, minFillFraction);
+                }
+
+                return removedPages;
+            }
+        } finally {
+            iterationLock.unlock();
+        }
+    }
+
+    public long getCompactedPageCount() {
+        return compactedPageCount;
+    }
+
+    public long getWrittenPageCount() {
+        return writtenPageCount;
+    }
+
+    public long getDroppedTermCount() {
+        return droppedTermCount;
+    }
+
+    /**
+     * The number of bytes that compaction removed from a pass over all the pages.
+     */
+    public long getSavedBytesPerPass() {
+        return savedBytesPerPass;
+    }
+
+    private int compactRulePages(Rule rule, double minLiveFraction, double minFillFraction) {
+        if (!activatedRules.get(rule)) {
+            return 0;
+        }
+
+        List<Integer> candidates = new ArrayList<Integer>();
+        int deadTerms = 0;
+        for (Integer page : rulePageMapping.get(rule)) {
+            int[] counts = pageTermCounts.get(page);
+            if (counts == null || counts[0] == 0 || indexingPages.contains(page)) {
+                continue;
+            }
+
+            int liveTerms = counts[0] - counts[1];
+            if (liveTerms < minLiveFraction * counts[0] || liveTerms < minFillFraction * pageSize) {
+                candidates.add(page);
+                deadTerms += counts[1];
+            }
+        }
+
+        // A single page is only worth rewriting if it loses terms.
+        if (candidates.size() == 0 || (candidates.size() == 1 && deadTerms == 0)) {
+            return 0;
+        }
+
+        T term = termPool.get(0);
+        ByteBuffer output = ByteBuffer.allocate(Math.max(termBuffer.capacity(), PAGE_HEADER_SIZE));
+        output.position(PAGE_HEADER_SIZE);
+        int outputTerms = 0;
+
+        List<Integer> newPages = new ArrayList<Integer>();
+        long oldBytes = 0;
+        long newBytes = 0;
+        int droppedTerms = 0;
+
+        for (Integer page : candidates) {
+            ByteBuffer input = null;
+            try {
+                input = ByteBuffer.wrap(Files.readAllBytes(Paths.get(termPagePaths.get(page))));
+            } catch (IOException ex) {
+                throw new RuntimeException(String.format("Unable to read cache page for compaction: [%s].", termPagePaths.get(page)), ex);
+            }
+
+            oldBytes += input.capacity();
+
+            // Skip the size of the terms.
+            input.getInt();
+            int numTerms = input.getInt();
+
+            for (int i = 0; i < numTerms; i++) {
+                int start = input.position();
+                readPageTerm(term, input);
+                int length = input.position() - start;
+
+                if (isDeadTerm(term)) {
+                    droppedTerms++;
+                    continue;
+                }
+
+                if (outputTerms == pageSize) {
+                    newBytes += writeCompactedPage(output, outputTerms, newPages);
+                    outputTerms = 0;
+                }
+
+                if (output.remaining() < length) {
+                    ByteBuffer largerOutput = ByteBuffer.allocate(output.capacity() * 2 + length);
+                    output.flip();
+                    largerOutput.put(output);
+                    output = largerOutput;
+                }
+
+                output.put(input.array(), start, length);
+                outputTerms++;
+            }
+        }
+
+        if (outputTerms > 0) {
+            newBytes += writeCompactedPage(output, outputTerms, newPages);
+        }
+
+        List<Integer> rulePages = rulePageMapping.get(rule);
+        for (Integer page : candidates) {
+            rulePages.remove(page);
+            pageRuleMapping.remove(page);
+
+            int activePageIndex = activeTermPages.indexOf(page);
+            if (activePageIndex != -1) {
+                activeTermPages.remove(activePageIndex);
+                numPages--;
+            }
+
+            removePageIndex(page);
+            pageTermCounts.remove(page);
+            unfinishedPages.remove(page);
+
+            if (termPageMappings != null) {
+                termPageMappings.remove(termPagePaths.get(page));
+            }
+            FileUtils.delete(termPagePaths.get(page));
+        }
+
+        for (Integer page : newPages) {
+            rulePages.add(page);
+            pageRuleMapping.put(page, rule);
+            activeTermPages.add(page);
+            numPages++;
+        }
+
+        compactedPageCount += candidates.size();
+        writtenPageCount += newPages.size();
+        droppedTermCount += droppedTerms;
+        savedBytesPerPass += oldBytes - newBytes;
+
+        log.debug(String.format("Compacted %d pages of rule %s into %d pages, dropping %d dead terms (%d fewer bytes per pass).",
+                candidates.size(), rule, newPages.size(), droppedTerms, oldBytes - newBytes));
+
+        return candidates.size() - newPages.size();
+    }
+
+    /**
+     * Write the terms in the output buffer (after the header) to a new page, and clear the buffer for the next page.
+     * Returns the size of the page.
+     */
+    private int writeCompactedPage(ByteBuffer output, int numTerms, List<Integer> newPages) {
+        int termsSize = output.position() - PAGE_HEADER_SIZE;
+        output.putInt(0, termsSize);
+        output.putInt(Integer.SIZE / 8, numTerms);
+
+        int page = nextTermPageIndex;
+        nextTermPageIndex++;
+
+        String path = Paths.get(pageDir, String.format("%08d_term.page", page)).toString();
+        termPagePaths.add(path);
+
+        try (FileOutputStream stream = new FileOutputStream(path)) {
+            stream.write(output.array(), 0, output.position());
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Unable to write compacted cache page: [%s].", path), ex);
+        }
+
+        newPages.add(page);
+
+        output.clear();
+        output.position(PAGE_HEADER_SIZE);
+
+        return PAGE_HEADER_SIZE + termsSize;
+    }
+
+    /**
+     * Count a term of the page at the given (active) index for compaction.
+     */
+    protected void countPageTerm(int pageIndex, boolean dead) {
+        if (!compactionEnabled) {
+            return;
+        }
+
+        int[] counts = pageTermCounts.get(activeTermPages.get(pageIndex));
+        if (counts == null) {
+            return;
+        }
+
+        counts[0]++;
+        if (dead) {
+            counts[1]++;
+        }
+    }
+
+    /**
+     * Read the next term of a serialized page (moving the page's position past the term).
+     */
+    protected abstract void readPageTerm(T term, ByteBuffer page);
+
+    /**
+     * Check if a term uses a deleted atom (and so will never be used again).
+     */
+    protected abstract boolean isDeadTerm(T term);
+
+    /**
+     * Set the check that decides whether a preemptible optimization should stop.
+     */
+    public void setPreemptionCheck(BooleanSupplier preemptionCheck) {
+        this.preemptionCheck = preemptionCheck;
+    }
+
+    /**
+     * Allow (or disallow) the following passes to be preempted.
+     * Either way, this starts over with the store not preempted.
+     */
+    public void setPreemptible(boolean preemptible) {
+        this.preemptible = preemptible;
+        preempted = false;
+    }
+
+    /**
+     * Check if a pass was preempted since the last call to setPreemptible().
+     */
+    public boolean isPreempted() {
+        return preempted;
+    }
+
+    /**
+     * Called by cache iterators before reading any page after their first one.
+     * Terms are only ever updated whole, so stopping between pages leaves all the variables usable.
+     * Returns true if the pass should stop (and all the following passes be empty).
+     */
+    public boolean checkPreemption() {
+        if (preempted) {
+            return true;
+        }
+
+        if (!preemptible || preemptionCheck == null || !preemptionCheck.getAsBoolean()) {
+            return false;
+        }
+
+        log.trace("Optimization preempted.");
+        preempted = true;
+        return true;
+    }
+
+    /**
+     * Note that a full pass is about to cover every changed variable.
+     */
+    public synchronized void clearDirtyVariables() {
+        dirtyVariables.clear();
+        fullSweepRequired = false;
+    }
+
+    public synchronized int getLocalPageCount() {
+        if (localPages == null) {
+            return activeTermPages.size();
+        }
+
+        int count = 0;
+        for (Integer page : activeTermPages) {
+            if (localPages.contains(page)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public int getActivePageCount() {
+        return activeTermPages.size();
+    }
+
+    /**
+     * Check if the current pass should read the page at the given (active) index.
+     */
+    public boolean isPageSelected(int index) {
+        if (localPages == null || index >= activeTermPages.size()) {
+            return true;
+        }
+
+        return localPages.contains(activeTermPages.get(index));
+    }
+
+    /**
+     * Remember that a term of the page at the given (active) index uses the given variables.
+     * Only pages that are being indexed in this pass are changed.
+     */
+    protected void indexTerm(int pageIndex, int[] variableIndexes, int size) {
+        if (indexingPages.isEmpty()) {
+            return;
+        }
+
+        Integer page = activeTermPages.get(pageIndex);
+        if (!indexingPages.contains(page)) {
+            return;
+        }
+
+        Set<Integer> pageVariableSet = pageVariables.get(page);
+        for (int i = 0; i < size; i++) {
+            if (pageVariableSet.add(variableIndexes[i])) {
+                List<Integer> variablePageList = variablePages.get(variableIndexes[i]);
+                if (variablePageList == null) {
+                    variablePageList = new ArrayList<Integer>(2);
+                    variablePages.put(variableIndexes[i], variablePageList);
+                }
+
+                variablePageList.add(page);
+            }
+        }
+    }
+
+    private void markDirty(int variableIndex) {
+        if (pageIndexEnabled) {
+            dirtyVariables.add(variableIndex);
+        }
+    }
+
+    private void removePageIndex(Integer page) {
+        indexingPages.remove(page);
+
+        Set<Integer> pageVariableSet = pageVariables.remove(page);
+        if (pageVariableSet == null) {
+            return;
+        }
+
+        for (Integer variable : pageVariableSet) {
+            List<Integer> variablePageList = variablePages.get(variable);
+            variablePageList.remove(page);
+            if (variablePageList.isEmpty()) {
+                variablePages.remove(variable);
+            }
+        }
+    }
+
     /**
      * In addition to the typical behavior of setting values for random variable atoms,
      * also set the values for observed atoms.
@@ -207,6 +846,15 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
      */
     @Override
     public double syncAtoms() {
+        iterationLock.lock();
+        try {
+            return syncAtomsInternal();
+        } finally {
+            iterationLock.unlock();
+        }
+    }
+
+    private double syncAtomsInternal() {
         double movement = 0.0;
         for (int i = 0; i < totalVariableCount; i++) {
             if (variableAtoms[i] == null) {
@@ -227,7 +875,19 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
     @Override
     public String getTermPagePath(int index) {
         buildActivePagePath(index);
-        return termPagePaths.get(activeTermPages.get(index));
+
+        Integer page = activeTermPages.get(index);
+        if (compactionEnabled && !initialRound) {
+            pageTermCounts.put(page, new int[2]);
+        }
+
+        if (pageIndexEnabled && !initialRound && !pageVariables.containsKey(page)) {
+            // Index the page as its terms are read.
+            pageVariables.put(page, new HashSet<Integer>());
+            indexingPages.add(page);
+        }
+
+        return termPagePaths.get(page);
     }
 
     @Override
@@ -276,9 +936,6 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
         this.volatileBuffer = volatileBuffer;
 
         initialRound = false;
-        if (!joinIteration) {
-            activeIterator = null;
-        }
 
         // Deactivate any new pages corresponding to deactivated rules.
         for (Rule rule : rules) {
@@ -299,11 +956,21 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
         }
 
         validTermPages.clear();
+
+        if (!joinIteration) {
+            iterationComplete();
+        }
     }
 
     @Override
     public void cacheIterationComplete(long termCount) {
-        this.termCount = termCount;
+        // A local or preempted pass only counts the terms of the pages it read.
+        if (localPages == null && !preempted) {
+            this.termCount = termCount;
+        }
+
+        // Every page started in this pass has been read completely.
+        indexingPages.clear();
 
         if (joinIteration) {
             validTermPages.clear();
@@ -321,21 +988,49 @@ public abstract class OnlineTermStore<T extends ReasonerTerm> extends StreamingT
                     pageRuleMapping.remove(entry.getKey());
                     FileUtils.delete(termPagePaths.get(entry.getKey()));
                 }
+                if (termPageMappings != null) {
+                    termPageMappings.remove(termPagePaths.get(entry.getKey()));
+                }
+                removePageIndex(entry.getKey());
+                pageTermCounts.remove(entry.getKey());
                 numPages--;
             }
         }
 
-        activeIterator = null;
         validTermPages.clear();
+        iterationComplete();
     }
 
     private void joinIterationComplete() {
         joinIteration = false;
+        iterationComplete();
+    }
+
+    /**
+     * Called at the end of every full pass over the terms.
+     */
+    private void iterationComplete() {
         activeIterator = null;
+
+        if (iterationLocked) {
+            iterationLocked = false;
+            iterationLock.unlock();
+        }
     }
 
     @Override
     protected StreamingIterator<T> streamingIterator() {
+        // A pass that was abandoned before completing is still holding the lock.
+        if (!iterationLocked) {
+            iterationLock.lock();
+            iterationLocked = true;
+        }
+
+        // Drop the partial index of pages that an abandoned pass did not finish.
+        for (Integer page : new ArrayList<Integer>(indexingPages)) {
+            removePageIndex(page);
+        }
+
         activeIterator = super.streamingIterator();
 
         // If there are new atoms, then we need to iterate through the cache and new groundings.
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.term.online;
+
+import org.linqs.psl.util.RuntimeStats;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only memory mappings of term pages, kept across passes.
+ * Term pages are written once (new terms always go to new pages), so a mapping stays valid
+ * until its page is deleted.
+ *
+ * The mappings are released by the garbage collector once they are dropped.
+ */
+public class TermPageMappings {
+    private final Map<String, MappedByteBuffer> mappings;
+
+    public TermPageMappings() {
+        mappings = new HashMap<String, MappedByteBuffer>();
+    }
+
+    /**
+     * Get a view of a term page (positioned at the start of the page), mapping it if it is not already mapped.
+     */
+    public synchronized ByteBuffer get(String termPagePath) {
+        MappedByteBuffer mapping = mappings.get(termPagePath);
+        if (mapping == null) {
+            mapping = map(termPagePath);
+            mappings.put(termPagePath, mapping);
+        }
+
+        // Views have their own position, so several readers can share a mapping.
+        return mapping.duplicate();
+    }
+
+    /**
+     * Like get(), but also bring the whole page into memory.
+     */
+    public ByteBuffer load(String termPagePath) {
+        ByteBuffer page = get(termPagePath);
+
+        MappedByteBuffer mapping = null;
+        synchronized (this) {
+            mapping = mappings.get(termPagePath);
+        }
+
+        if (mapping != null) {
+            mapping.load();
+        }
+
+        return page;
+    }
+
+    public synchronized void remove(String termPagePath) {
+        mappings.remove(termPagePath);
+    }
+
+    public synchronized void clear() {
+        mappings.clear();
+    }
+
+    public synchronized int size() {
+        return mappings.size();
+    }
+
+    private MappedByteBuffer map(String termPagePath) {
+        try (RandomAccessFile file = new RandomAccessFile(termPagePath, "r")) {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            RuntimeStats.logDiskRead((int)size);
+
+            return mapping;
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Unable to map cache page: [%s].", termPagePath), ex);
+        }
+    }
+}
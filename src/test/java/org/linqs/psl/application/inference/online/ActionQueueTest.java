@@ -0,0 +1,329 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
+import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomActionBatch;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.term.UniqueStringID;
+import org.linqs.psl.test.PSLBaseTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ActionQueueTest extends PSLBaseTest {
+    private static final int[] WEIGHTS = new int[]{8, 4, 2, 1};
+
+    private StandardPredicate predicate;
+    private Object backfill;
+    private Object interactive;
+
+    @Before
+    public void setup() {
+        predicate = StandardPredicate.get("ActionQueueNice", ConstantType.UniqueStringID);
+        backfill = new Object();
+        interactive = new Object();
+    }
+
+    @Test
+    public void testFifo() {
+        ActionQueue queue = new ActionQueue();
+
+        List<OnlineMessage> actions = new ArrayList<OnlineMessage>();
+        for (int i = 0; i < 5; i++) {
+            actions.add(addAtom(i));
+        }
+        actions.add(getAtom(0));
+        actions.add(new Sync());
+
+        for (OnlineMessage action : actions) {
+            queue.put(interactive, action);
+        }
+
+        assertEquals(actions.size(), queue.size());
+        for (OnlineMessage action : actions) {
+            assertEquals(action, queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPriority() {
+        ActionQueue queue = new ActionQueue(WEIGHTS, false);
+
+        for (int i = 0; i < 10; i++) {
+            queue.put(backfill, addAtom(i));
+        }
+
+        GetAtom read = getAtom(0);
+        Sync sync = new Sync();
+        queue.put(interactive, read);
+        queue.put(interactive, sync);
+
+        // The interactive client's read and sync (which stays behind its read) go before the backfill.
+        assertEquals(read, queue.poll());
+        assertEquals(sync, queue.poll());
+        assertEquals(10, queue.size());
+    }
+
+    @Test
+    public void testSourceOrder() {
+        ActionQueue queue = new ActionQueue(WEIGHTS, false);
+
+        AddAtom add = addAtom(0);
+        GetAtom read = getAtom(0);
+        Exit exit = new Exit();
+
+        queue.put(interactive, add);
+        queue.put(interactive, read);
+        queue.put(interactive, exit);
+
+        assertEquals(add, queue.poll());
+        assertEquals(read, queue.poll());
+        assertEquals(exit, queue.poll());
+    }
+
+    /**
+     * A client's read followed by its mutation, while the read lane is out of credit.
+     */
+    @Test
+    public void testLaneSourceOrder() {
+        ActionQueue queue = new ActionQueue(new int[]{1, 1, 1, 1}, false);
+
+        GetAtom otherRead = getAtom(0);
+        GetAtom read = getAtom(1);
+        AddAtom add = addAtom(1);
+
+        queue.put(backfill, otherRead);
+        queue.put(interactive, read);
+        queue.put(interactive, add);
+
+        assertEquals(otherRead, queue.poll());
+        assertEquals(read, queue.poll());
+        assertEquals(add, queue.poll());
+    }
+
+    @Test
+    public void testFairness() {
+        ActionQueue queue = new ActionQueue(null, true);
+        queue.setSource(backfill, "backfill", 1);
+        queue.setSource(interactive, "interactive", 3);
+
+        for (int i = 0; i < 100; i++) {
+            queue.put(backfill, addAtom(i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            queue.put(interactive, getAtom(i));
+        }
+
+        int reads = 0;
+        for (int i = 0; i < 40; i++) {
+            if (queue.poll() instanceof GetAtom) {
+                reads++;
+            }
+        }
+
+        assertEquals(30, reads);
+    }
+
+    @Test
+    public void testBatchCost() {
+        ActionQueue queue = new ActionQueue(null, true);
+
+        AtomActionBatch batch = new AtomActionBatch();
+        for (int i = 0; i < 3; i++) {
+            batch.add(addAtom(i));
+        }
+
+        queue.put(backfill, batch);
+        for (int i = 0; i < 5; i++) {
+            queue.put(interactive, getAtom(i));
+        }
+
+        // The batch costs three turns of the interactive client.
+        List<OnlineMessage> actions = new ArrayList<OnlineMessage>();
+        queue.drainTo(actions, 6);
+
+        for (int i = 0; i < actions.size(); i++) {
+            assertEquals(i == 3, actions.get(i) == batch);
+        }
+    }
+
+    @Test
+    public void testStats() {
+        ActionQueue queue = new ActionQueue(null, true);
+        queue.setSource(interactive, "interactive", 1);
+
+        queue.put(interactive, getAtom(0));
+        queue.put(interactive, getAtom(1));
+        queue.put(backfill, addAtom(0));
+        queue.poll();
+
+        List<ActionQueue.SourceStats> allStats = queue.getSourceStats();
+        assertEquals(2, allStats.size());
+
+        ActionQueue.SourceStats stats = queue.removeSource(interactive);
+        assertEquals("interactive", stats.getName());
+        assertEquals(1L, stats.getTakenCount());
+        assertEquals(1, stats.getDepth());
+        assertEquals(2, stats.getPeakDepth());
+        assertTrue(stats.getMaxWaitMS() >= 0);
+
+        assertNull(queue.removeSource(interactive));
+        assertEquals(1, queue.getSourceStats().size());
+
+        // Actions of removed sources are still taken.
+        assertEquals(2, queue.size());
+        assertNotNull(queue.poll());
+        assertNotNull(queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testNoStarvation() {
+        ActionQueue queue = new ActionQueue(WEIGHTS, false);
+
+        for (int i = 0; i < 10; i++) {
+            queue.put(backfill, addAtom(i));
+        }
+
+        // Every reader is a different client, so none of the reads are held back.
+        for (int i = 0; i < 100; i++) {
+            queue.put(new Object(), getAtom(i));
+        }
+
+        int mutations = 0;
+        for (int i = 0; i < 10; i++) {
+            if (queue.poll() instanceof AddAtom) {
+                mutations++;
+            }
+        }
+
+        // A round is four reads and one mutation.
+        assertEquals(2, mutations);
+    }
+
+    @Test
+    public void testDrain() {
+        ActionQueue queue = new ActionQueue();
+
+        queue.put(interactive, addAtom(0));
+        queue.put(interactive, addAtom(1));
+        queue.put(interactive, new Exit());
+        queue.put(backfill, addAtom(2));
+
+        List<OnlineMessage> actions = new ArrayList<OnlineMessage>();
+        queue.drainTo(actions, 10);
+        assertEquals(2, actions.size());
+
+        assertTrue(queue.poll() instanceof Exit);
+
+        queue.put(backfill, new Stop());
+        queue.put(backfill, addAtom(3));
+
+        actions.clear();
+        queue.drainTo(actions, 10);
+        assertEquals(2, actions.size());
+        assertTrue(actions.get(1) instanceof Stop);
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testOffer() {
+        ActionQueue queue = new ActionQueue();
+
+        assertTrue(queue.offer(interactive, addAtom(0), 2));
+        assertTrue(queue.offer(backfill, addAtom(1), 2));
+        assertFalse(queue.offer(interactive, addAtom(2), 2));
+        assertEquals(2, queue.size());
+
+        // No limit.
+        assertTrue(queue.offer(interactive, addAtom(3), 0));
+        assertEquals(3, queue.size());
+
+        queue.poll();
+        queue.poll();
+        assertTrue(queue.offer(interactive, addAtom(4), 2));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void testConcurrentOffer() throws InterruptedException {
+        final ActionQueue queue = new ActionQueue();
+        final int capacity = 50;
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final Object source = new Object();
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < capacity; j++) {
+                        queue.offer(source, addAtom(j), capacity);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(capacity, queue.size());
+    }
+
+    @Test
+    public void testBadWeights() {
+        try {
+            new ActionQueue(new int[]{1, 1, 1}, false);
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException ex) {
+            // Expected.
+        }
+
+        try {
+            new ActionQueue(new int[]{1, 0, 1, 1}, false);
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException ex) {
+            // Expected.
+        }
+    }
+
+    private AddAtom addAtom(int id) {
+        return new AddAtom("Read", predicate, new Constant[]{new UniqueStringID("" + id)}, 1.0f);
+    }
+
+    private GetAtom getAtom(int id) {
+        return new GetAtom(predicate, new Constant[]{new UniqueStringID("" + id)});
+    }
+}
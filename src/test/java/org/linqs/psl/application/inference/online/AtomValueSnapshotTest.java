@@ -0,0 +1,84 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.atom.ObservedAtom;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.term.UniqueStringID;
+import org.linqs.psl.test.PSLBaseTest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AtomValueSnapshotTest extends PSLBaseTest {
+    @Test
+    public void testLookup() {
+        StandardPredicate single = StandardPredicate.get("SnapshotSingle", ConstantType.UniqueStringID);
+        StandardPredicate other = StandardPredicate.get("SnapshotOther", ConstantType.UniqueStringID);
+
+        List<GroundAtom> atoms = new ArrayList<GroundAtom>();
+        for (int i = 0; i < 100; i++) {
+            atoms.add(new ObservedAtom(single, new Constant[]{new UniqueStringID("" + i)}, i / 100.0f));
+        }
+
+        AtomValueSnapshot snapshot = new AtomValueSnapshot(atoms, 7);
+        assertEquals(100, snapshot.size());
+        assertEquals(7L, snapshot.getModelVersion());
+
+        // Lookups use new (equal) arguments, not the atoms' own.
+        int index = snapshot.getIndex(single, new Constant[]{new UniqueStringID("42")});
+        assertTrue(index >= 0);
+        assertEquals(0.42f, snapshot.getValue(index), 1e-6f);
+
+        assertEquals(-1, snapshot.getIndex(single, new Constant[]{new UniqueStringID("100")}));
+        assertEquals(-1, snapshot.getIndex(other, new Constant[]{new UniqueStringID("42")}));
+
+        // Later changes to the atoms do not show up in the snapshot.
+        ((ObservedAtom)atoms.get(42))._assumeValue(1.0f);
+        assertEquals(0.42f, snapshot.getValue(index), 1e-6f);
+    }
+
+    @Test
+    public void testSharedIndex() {
+        StandardPredicate single = StandardPredicate.get("SnapshotShared", ConstantType.UniqueStringID);
+
+        List<GroundAtom> atoms = new ArrayList<GroundAtom>();
+        for (int i = 0; i < 10; i++) {
+            atoms.add(new ObservedAtom(single, new Constant[]{new UniqueStringID("" + i)}, 0.0f));
+        }
+
+        AtomValueSnapshot.Index index = new AtomValueSnapshot.Index(atoms);
+        assertEquals(10, index.size());
+
+        AtomValueSnapshot first = new AtomValueSnapshot(index, 1);
+        ((ObservedAtom)atoms.get(3))._assumeValue(0.5f);
+        AtomValueSnapshot second = new AtomValueSnapshot(index, 2);
+
+        // Both snapshots use the same positions, but each has its own values.
+        int position = index.getPosition(single, new Constant[]{new UniqueStringID("3")});
+        assertEquals(position, first.getIndex(single, new Constant[]{new UniqueStringID("3")}));
+        assertEquals(position, second.getIndex(single, new Constant[]{new UniqueStringID("3")}));
+        assertEquals(0.0f, first.getValue(position), 1e-6f);
+        assertEquals(0.5f, second.getValue(position), 1e-6f);
+    }
+}
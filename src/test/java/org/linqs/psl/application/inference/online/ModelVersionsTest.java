@@ -0,0 +1,87 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.ModelDelta;
+import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.test.PSLBaseTest;
+import org.linqs.psl.test.TestModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ModelVersionsTest extends PSLBaseTest {
+    private TestModel.ModelInformation modelInfo;
+
+    @Before
+    public void setup() {
+        modelInfo = TestModel.getModel(true);
+    }
+
+    @After
+    public void cleanup() {
+        if (modelInfo != null) {
+            modelInfo.dataStore.close();
+            modelInfo = null;
+        }
+    }
+
+    @Test
+    public void testHandshakeResponses() {
+        List<Rule> rules = modelInfo.model.getRules();
+        ModelVersions modelVersions = new ModelVersions(rules);
+
+        ModelVersions.Version original = modelVersions.getCurrent();
+        assertEquals(original.getHash(), new ModelVersions(rules).getCurrent().getHash());
+
+        // Unknown (or missing) models get the full model.
+        assertTrue(modelVersions.getHandshakeResponse(original, null) instanceof ModelInformation);
+        assertTrue(modelVersions.getHandshakeResponse(original, "unknown") instanceof ModelInformation);
+
+        ModelInformation modelInformation = (ModelInformation)modelVersions.getHandshakeResponse(original, null);
+        assertEquals(original.getHash(), modelInformation.getModelHash());
+        assertEquals(rules.size(), modelInformation.getRules().length);
+
+        // A current model gets an empty delta.
+        ModelDelta delta = (ModelDelta)modelVersions.getHandshakeResponse(original, original.getHash());
+        assertTrue(delta.isEmpty());
+
+        // Only the rule changes are sent for a known model.
+        Rule deletedRule = rules.get(0);
+        modelVersions.deleteRule(deletedRule);
+        ModelVersions.Version updated = modelVersions.getCurrent();
+        assertNotEquals(original.getHash(), updated.getHash());
+
+        delta = (ModelDelta)modelVersions.getHandshakeResponse(updated, original.getHash());
+        assertEquals(original.getHash(), delta.getBaseModelHash());
+        assertEquals(updated.getHash(), delta.getModelHash());
+        assertEquals(0, delta.getAddedRules().length);
+        assertEquals(1, delta.getDeletedRules().length);
+        assertEquals(deletedRule, delta.getDeletedRules()[0]);
+
+        modelVersions.addRule(deletedRule);
+        OnlineMessage response = modelVersions.getHandshakeResponse(modelVersions.getCurrent(), updated.getHash());
+        assertEquals(1, ((ModelDelta)response).getAddedRules().length);
+        assertEquals(0, ((ModelDelta)response).getDeletedRules().length);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.DeleteAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.term.UniqueStringID;
+import org.linqs.psl.test.PSLBaseTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MutationCoalescerTest extends PSLBaseTest {
+    private StandardPredicate predicate;
+    private Constant[] alice;
+    private Constant[] bob;
+    private MutationCoalescer coalescer;
+
+    @Before
+    public void setup() {
+        predicate = StandardPredicate.get("CoalescerNice", ConstantType.UniqueStringID);
+        alice = new Constant[]{new UniqueStringID("Alice")};
+        bob = new Constant[]{new UniqueStringID("Bob")};
+        coalescer = new MutationCoalescer();
+    }
+
+    @Test
+    public void testUpdateChain() {
+        UpdateObservation first = new UpdateObservation(predicate, alice, 0.1f);
+        UpdateObservation other = new UpdateObservation(predicate, bob, 0.2f);
+        UpdateObservation second = new UpdateObservation(predicate, new Constant[]{new UniqueStringID("Alice")}, 0.3f);
+        UpdateObservation third = new UpdateObservation(predicate, alice, 0.4f);
+
+        coalescer.coalesce(Arrays.asList((OnlineMessage)first, other, second, third));
+
+        assertEquals(2, coalescer.getSkippedCount());
+        assertTrue(coalescer.isSkipped(first));
+        assertTrue(coalescer.isSkipped(second));
+        assertFalse(coalescer.isSkipped(other));
+        assertFalse(coalescer.isSkipped(third));
+
+        assertEquals(Arrays.asList(first, second), coalescer.getSuperseded(third));
+        assertEquals(0, coalescer.getSuperseded(other).size());
+    }
+
+    @Test
+    public void testAddDelete() {
+        AddAtom add = new AddAtom("Read", predicate, alice, 1.0f);
+        DeleteAtom delete = new DeleteAtom("Read", predicate, alice);
+        AddAtom readd = new AddAtom("Read", predicate, alice, 0.5f);
+
+        coalescer.coalesce(Arrays.asList((OnlineMessage)add, delete, readd));
+
+        assertTrue(coalescer.isSkipped(add));
+        assertFalse(coalescer.isSkipped(delete));
+        assertFalse(coalescer.isSkipped(readd));
+        assertTrue(coalescer.isDeleteAfterAdd(delete));
+        assertEquals(Arrays.asList(add), coalescer.getSuperseded(delete));
+    }
+
+    @Test
+    public void testBarrier() {
+        List<OnlineMessage> actions = new ArrayList<OnlineMessage>();
+        actions.add(new UpdateObservation(predicate, alice, 0.1f));
+        actions.add(new GetAtom(predicate, alice));
+        actions.add(new UpdateObservation(predicate, alice, 0.2f));
+        actions.add(new AddAtom("Read", predicate, bob, 1.0f));
+        actions.add(new GetAtom(predicate, bob));
+        actions.add(new DeleteAtom("Read", predicate, bob));
+
+        coalescer.coalesce(actions);
+
+        assertEquals(0, coalescer.getSkippedCount());
+        assertFalse(coalescer.isDeleteAfterAdd(actions.get(5)));
+    }
+
+    @Test
+    public void testReset() {
+        UpdateObservation first = new UpdateObservation(predicate, alice, 0.1f);
+        UpdateObservation second = new UpdateObservation(predicate, alice, 0.2f);
+
+        coalescer.coalesce(Arrays.asList((OnlineMessage)first, second));
+        assertEquals(1, coalescer.getSkippedCount());
+
+        coalescer.coalesce(Arrays.asList((OnlineMessage)second));
+        assertEquals(0, coalescer.getSkippedCount());
+        assertEquals(0, coalescer.getSuperseded(second).size());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
+import org.linqs.psl.application.inference.online.messages.responses.RejectedActionStatus;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.test.PSLBaseTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class OnlineServerAdmissionTest extends PSLBaseTest {
+    private OnlineServer server;
+
+    @Before
+    public void setup() {
+        server = null;
+    }
+
+    @After
+    public void cleanup() {
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+
+    @Test
+    public void testQueueCapacity() {
+        OnlineOptions.ONLINE_QUEUE_CAPACITY.set(2);
+        OnlineOptions.ONLINE_RETRY_AFTER.set(250);
+        server = new OnlineServer(new ArrayList<Rule>());
+
+        RecordingConnection connection = new RecordingConnection();
+
+        server.queueAction(connection, new Sync());
+        server.queueAction(connection, new Sync());
+        assertEquals(0, connection.responses.size());
+        assertEquals(2, server.getQueueDepth());
+
+        Sync rejected = new Sync();
+        server.queueAction(connection, rejected);
+        assertEquals(1, connection.responses.size());
+        assertRejected(rejected, 250, connection.responses.get(0));
+
+        // Exit is always accepted.
+        server.queueAction(connection, new Exit());
+        assertEquals(1, connection.responses.size());
+        assertEquals(3, server.getQueueDepth());
+        assertEquals(3, server.getPeakQueueDepth());
+
+        // Once actions are taken, there is room again.
+        for (int i = 0; i < 2; i++) {
+            OnlineMessage action = server.getAction();
+            server.onActionExecution(action, new ActionStatus(action, true, "Done."));
+        }
+
+        server.queueAction(connection, new Sync());
+        assertEquals(3, connection.responses.size());
+        assertEquals(2, server.getQueueDepth());
+        assertEquals(1, server.getRejectedActionCount());
+    }
+
+    @Test
+    public void testClientQuota() {
+        OnlineOptions.ONLINE_QUEUE_CAPACITY.set(-1);
+        OnlineOptions.ONLINE_CLIENT_QUOTA.set(1);
+        server = new OnlineServer(new ArrayList<Rule>());
+
+        RecordingConnection first = new RecordingConnection();
+        RecordingConnection second = new RecordingConnection();
+
+        server.queueAction(first, new Sync());
+        server.queueAction(second, new Sync());
+        assertEquals(0, first.responses.size());
+        assertEquals(0, second.responses.size());
+
+        Sync rejected = new Sync();
+        server.queueAction(first, rejected);
+        assertEquals(1, first.responses.size());
+        assertRejected(rejected, OnlineOptions.ONLINE_RETRY_AFTER.getInt(), first.responses.get(0));
+
+        // Completing the first client's action frees its quota.
+        OnlineMessage action = server.getAction();
+        server.onActionExecution(action, new ActionStatus(action, true, "Done."));
+        assertEquals(2, first.responses.size());
+
+        server.queueAction(first, new Sync());
+        assertEquals(2, first.responses.size());
+        assertEquals(2, server.getQueueDepth());
+    }
+
+    @Test
+    public void testHeldResponses() {
+        server = new OnlineServer(new ArrayList<Rule>());
+
+        RecordingConnection connection = new RecordingConnection();
+
+        Sync first = new Sync();
+        Sync second = new Sync();
+        server.queueAction(connection, first);
+        server.queueAction(connection, second);
+        server.getAction();
+        server.getAction();
+
+        server.holdResponses(first);
+        server.holdResponses(second);
+
+        // Answer out of order, but release in order.
+        server.onActionExecution(second, new ActionStatus(second, true, "Second."));
+        server.onActionExecution(first, new ActionStatus(first, true, "First."));
+        assertEquals(0, connection.responses.size());
+
+        server.releaseResponses(first);
+        server.releaseResponses(second);
+        assertEquals(2, connection.responses.size());
+        assertEquals(first.getIdentifier(), ((OnlineResponse)connection.responses.get(0)).getActionIdentifier());
+        assertEquals(second.getIdentifier(), ((OnlineResponse)connection.responses.get(1)).getActionIdentifier());
+
+        // Later responses are not held.
+        Sync third = new Sync();
+        server.queueAction(connection, third);
+        server.getAction();
+        server.onActionExecution(third, new ActionStatus(third, true, "Third."));
+        assertEquals(3, connection.responses.size());
+    }
+
+    /**
+     * IO threads queueing at the same time cannot overrun the queue capacity.
+     */
+    @Test
+    public void testConcurrentQueueCapacity() {
+        int capacity = 50;
+        OnlineOptions.ONLINE_QUEUE_CAPACITY.set(capacity);
+        server = new OnlineServer(new ArrayList<Rule>());
+
+        RecordingConnection[] connections = new RecordingConnection[8];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new RecordingConnection();
+        }
+
+        queueConcurrently(connections, capacity);
+
+        assertEquals(capacity, server.getQueueDepth());
+        assertEquals((connections.length - 1) * capacity, server.getRejectedActionCount());
+    }
+
+    /**
+     * IO threads queueing for the same client at the same time cannot overrun its quota.
+     */
+    @Test
+    public void testConcurrentClientQuota() {
+        int quota = 10;
+        OnlineOptions.ONLINE_QUEUE_CAPACITY.set(-1);
+        OnlineOptions.ONLINE_CLIENT_QUOTA.set(quota);
+        server = new OnlineServer(new ArrayList<Rule>());
+
+        RecordingConnection connection = new RecordingConnection();
+        RecordingConnection[] connections = new RecordingConnection[8];
+        Arrays.fill(connections, connection);
+
+        queueConcurrently(connections, quota);
+
+        assertEquals(quota, server.getQueueDepth());
+        assertEquals((connections.length - 1) * quota, server.getRejectedActionCount());
+    }
+
+    /**
+     * Queue the given number of actions for every connection, with a thread per connection.
+     */
+    private void queueConcurrently(final RecordingConnection[] connections, final int actionsPerThread) {
+        Thread[] threads = new Thread[connections.length];
+        for (int i = 0; i < threads.length; i++) {
+            final RecordingConnection connection = connections[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < actionsPerThread; j++) {
+                        server.queueAction(connection, new Sync());
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    private void assertRejected(OnlineMessage action, long retryAfterMS, OnlineMessage response) {
+        assertTrue(response instanceof RejectedActionStatus);
+
+        RejectedActionStatus status = (RejectedActionStatus)response;
+        assertEquals(action.getIdentifier(), status.getActionIdentifier());
+        assertFalse(status.isSuccess());
+        assertEquals(retryAfterMS, status.getRetryAfterMS());
+    }
+
+    private static class RecordingConnection implements ClientConnection {
+        public List<OnlineMessage> responses = Collections.synchronizedList(new ArrayList<OnlineMessage>());
+
+        @Override
+        public void send(OnlineMessage message) {
+            responses.add(message);
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.ModelInformation;
+import org.linqs.psl.application.inference.online.messages.ModelRequest;
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.test.PSLBaseTest;
+import org.linqs.psl.util.Logger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Footprint and latency of the online server with many concurrent clients.
+ *
+ * For every client count, the clients connect (the accept time runs until the server's handshake arrives),
+ * sit idle (when the server's threads and heap are measured), and then all send actions at once.
+ * The server does not run inference: a single thread answers every action as soon as it is taken from the queue,
+ * so the numbers are about connection handling and not about the model.
+ *
+ * The clients are raw connections driven by a few threads, so they add (almost) no threads of their own.
+ * The heap numbers do include the client side of every connection (a socket and its buffers).
+ *
+ * This is a benchmark and not a unit test: it is only run with the benchmark profile (mvn test -P benchmark).
+ * The results are logged at INFO.
+ * The largest run opens 5000 connections, which is 10000 sockets in this JVM,
+ * so the open file limit (ulimit -n) has to be raised above that.
+ */
+public class OnlineServerBenchmark extends PSLBaseTest {
+    private static final Logger log = Logger.getLogger(OnlineServerBenchmark.class);
+
+    private static final int[] CLIENT_COUNTS = new int[]{10, 100, 5000};
+    private static final int DRIVER_THREADS = 8;
+    private static final int ROUND_TRIPS = 20;
+    private static final long SETTLE_MS = 500;
+
+    private OnlineServer server;
+    private Thread executorThread;
+    private ServerConnection[] connections;
+
+    @After
+    public void cleanup() {
+        closeConnections();
+        stopServer();
+    }
+
+    @Test
+    public void testThreadConnections() {
+        OnlineOptions.ONLINE_CONNECTION_MODE.set(OnlineServer.ConnectionMode.THREAD.toString());
+        OnlineOptions.ONLINE_VIRTUAL_THREADS.set(false);
+        runClientCounts("THREAD (platform threads)");
+    }
+
+    /**
+     * Skipped on JDKs without virtual threads, since the server would quietly use platform threads instead.
+     * Virtual threads are not counted in the thread numbers, so the idle thread count should stay flat.
+     */
+    @Test
+    public void testVirtualThreadConnections() {
+        Assume.assumeTrue(ConnectionThreads.isVirtualThreadSupported());
+
+        OnlineOptions.ONLINE_CONNECTION_MODE.set(OnlineServer.ConnectionMode.THREAD.toString());
+        OnlineOptions.ONLINE_VIRTUAL_THREADS.set(true);
+        runClientCounts("THREAD (virtual threads)");
+    }
+
+    @Test
+    public void testNIOConnections() {
+        OnlineOptions.ONLINE_CONNECTION_MODE.set(OnlineServer.ConnectionMode.NIO.toString());
+        runClientCounts(String.format("NIO (%d IO threads)", OnlineOptions.ONLINE_NIO_THREADS.getInt()));
+    }
+
+    private void runClientCounts(String label) {
+        for (int clientCount : CLIENT_COUNTS) {
+            report(label + ", " + run(clientCount));
+        }
+    }
+
+    /**
+     * Start a server, connect the clients, measure them idle and active, and close everything again.
+     * Returns a description of the results.
+     */
+    private String run(int clientCount) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        startServer();
+
+        int baseThreads = threads.getThreadCount();
+        long baseHeap = getUsedHeap();
+
+        connections = new ServerConnection[clientCount];
+        final long[] acceptNS = new long[clientCount];
+        runDrivers(new DriverTask() {
+            @Override
+            public void run(int driver) throws Exception {
+                for (int connection = driver; connection < connections.length; connection += DRIVER_THREADS) {
+                    long start = System.nanoTime();
+                    connections[connection] = connect();
+                    acceptNS[connection] = System.nanoTime() - start;
+                }
+            }
+        });
+
+        // Let the server finish setting up the connections before measuring them.
+        sleep(SETTLE_MS);
+        int idleThreads = threads.getThreadCount() - baseThreads;
+        long idleHeap = getUsedHeap() - baseHeap;
+
+        // Every round, every client sends an action before any response is read.
+        final long[] roundTripNS = new long[clientCount * ROUND_TRIPS];
+        runDrivers(new DriverTask() {
+            @Override
+            public void run(int driver) throws Exception {
+                long[] sendNS = new long[connections.length];
+
+                for (int i = 0; i < ROUND_TRIPS; i++) {
+                    List<OnlineMessage> actions = new ArrayList<OnlineMessage>();
+                    for (int connection = driver; connection < connections.length; connection += DRIVER_THREADS) {
+                        Sync sync = new Sync();
+                        sendNS[connection] = System.nanoTime();
+                        send(connections[connection], sync);
+                        actions.add(sync);
+                    }
+
+                    int action = 0;
+                    for (int connection = driver; connection < connections.length; connection += DRIVER_THREADS) {
+                        receive(connections[connection], actions.get(action++));
+                        roundTripNS[connection * ROUND_TRIPS + i] = System.nanoTime() - sendNS[connection];
+                    }
+                }
+            }
+        });
+
+        runDrivers(new DriverTask() {
+            @Override
+            public void run(int driver) throws Exception {
+                for (int connection = driver; connection < connections.length; connection += DRIVER_THREADS) {
+                    Exit exit = new Exit();
+                    send(connections[connection], exit);
+                    receive(connections[connection], exit);
+                }
+            }
+        });
+
+        closeConnections();
+        stopServer();
+
+        return String.format("%d clients:"
+                + " accept %.3f ms mean / %.3f ms p99;"
+                + " idle %d threads (%.2f per client), %.1f KB heap per client;"
+                + " round trip %.3f ms mean / %.3f ms p99.",
+                clientCount,
+                mean(acceptNS), percentile(acceptNS, 0.99),
+                idleThreads, (double)idleThreads / clientCount, idleHeap / 1024.0 / clientCount,
+                mean(roundTripNS), percentile(roundTripNS, 0.99));
+    }
+
+    /**
+     * Run a task on DRIVER_THREADS threads.
+     * Every driver handles the connections whose index is its own modulo DRIVER_THREADS.
+     */
+    private void runDrivers(final DriverTask task) {
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] drivers = new Thread[DRIVER_THREADS];
+
+        for (int i = 0; i < DRIVER_THREADS; i++) {
+            final int driver = i;
+            drivers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(driver);
+                    } catch (Exception | AssertionError ex) {
+                        failures.add(ex);
+                    }
+                }
+            }, "OnlineServerBenchmarkDriver-" + i);
+            drivers[i].start();
+        }
+
+        for (Thread driver : drivers) {
+            try {
+                driver.join();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        if (failures.size() > 0) {
+            throw new RuntimeException("Benchmark client failed.", failures.get(0));
+        }
+    }
+
+    /**
+     * Open a connection and wait for the server's side of the handshake.
+     */
+    private ServerConnection connect() throws Exception {
+        ServerConnection connection = new SocketServerConnection(OnlineOptions.ONLINE_HOST.getString(), OnlineOptions.ONLINE_PORT_NUMBER.getInt());
+
+        connection.send(new ModelRequest(null));
+        connection.flush();
+
+        OnlineMessage message = connection.receive();
+        if (!(message instanceof ModelInformation)) {
+            connection.close();
+            throw new IllegalStateException("Expected the model information, got: " + message);
+        }
+
+        return connection;
+    }
+
+    private void send(ServerConnection connection, OnlineMessage action) throws Exception {
+        connection.send(action);
+        connection.flush();
+    }
+
+    /**
+     * Receive the answer to an action and check that it succeeded.
+     */
+    private void receive(ServerConnection connection, OnlineMessage action) throws Exception {
+        OnlineMessage response = connection.receive();
+        assertTrue(response instanceof ActionStatus);
+        assertTrue(((ActionStatus)response).isSuccess());
+        assertEquals(action.getIdentifier(), ((ActionStatus)response).getActionIdentifier());
+    }
+
+    private void closeConnections() {
+        if (connections == null) {
+            return;
+        }
+
+        for (ServerConnection connection : connections) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+
+        connections = null;
+    }
+
+    /**
+     * Start a server with a stand in for inference that answers every action right away.
+     */
+    private void startServer() {
+        server = new OnlineServer(new ArrayList<Rule>());
+        server.start();
+
+        executorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    // Null once interrupted.
+                    OnlineMessage action = server.getAction();
+                    if (action == null) {
+                        return;
+                    }
+
+                    server.onActionExecution(action, new ActionStatus(action, true, "Done."));
+                }
+            }
+        }, "OnlineServerBenchmarkExecutor");
+        executorThread.start();
+    }
+
+    private void stopServer() {
+        if (executorThread != null) {
+            executorThread.interrupt();
+
+            try {
+                executorThread.join();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            executorThread = null;
+        }
+
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        sleep(100);
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static double mean(long[] valuesNS) {
+        double sum = 0.0;
+        for (long value : valuesNS) {
+            sum += value;
+        }
+
+        return sum / valuesNS.length / 1000000.0;
+    }
+
+    private static double percentile(long[] valuesNS, double percentile) {
+        long[] sorted = valuesNS.clone();
+        Arrays.sort(sorted);
+
+        int index = Math.min(sorted.length - 1, (int)Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000000.0;
+    }
+
+    /**
+     * Tests run with logging off, so turn it on just long enough to report a result.
+     */
+    private void report(String message) {
+        initLogger("INFO");
+        log.info(message);
+        disableLogger();
+    }
+
+    private static interface DriverTask {
+        public void run(int driver) throws Exception;
+    }
+}
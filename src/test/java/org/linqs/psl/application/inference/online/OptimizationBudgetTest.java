@@ -0,0 +1,136 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.test.PSLBaseTest;
+
+import org.junit.Test;
+
+public class OptimizationBudgetTest extends PSLBaseTest {
+    @Test
+    public void testBudget() {
+        OptimizationBudget budget = new OptimizationBudget(0.01, 10.0);
+
+        // The first optimization always gets everything.
+        assertEquals(OptimizationBudget.FULL_BUDGET, budget.take(1000), 0.0);
+
+        // Nothing changed.
+        assertEquals(0.01, budget.take(1000), 1e-9);
+
+        budget.onUpdate(OptimizationBudget.Update.OBSERVATION_CHANGED);
+        budget.onUpdate(OptimizationBudget.Update.OBSERVATION_CHANGED);
+        assertEquals(0.02, budget.take(1000), 1e-9);
+        assertEquals(0.002, budget.getLastMagnitude(), 1e-9);
+
+        budget.onUpdate(OptimizationBudget.Update.ATOM_ADDED);
+        budget.onUpdate(OptimizationBudget.Update.ATOM_DELETED);
+        budget.onUpdate(OptimizationBudget.Update.OBSERVATION_CHANGED);
+        assertEquals(0.05, budget.take(1000), 1e-9);
+
+        for (int i = 0; i < 500; i++) {
+            budget.onUpdate(OptimizationBudget.Update.OBSERVATION_CHANGED);
+        }
+        assertEquals(OptimizationBudget.FULL_BUDGET, budget.take(1000), 0.0);
+
+        budget.onUpdate(OptimizationBudget.Update.RULE_CHANGED);
+        assertEquals(OptimizationBudget.FULL_BUDGET, budget.take(1000), 0.0);
+
+        // Counts start over after every take.
+        assertEquals(0.01, budget.take(1000), 1e-9);
+    }
+
+    @Test
+    public void testIterationFloor() {
+        // A thousandth of 200 iterations is less than one, so the floor is one iteration.
+        OptimizationBudget budget = new OptimizationBudget(0.001, 10.0, 200);
+        budget.take(1000);
+
+        double floor = budget.take(1000);
+        assertTrue(floor > 1.0 / 200);
+        assertTrue(floor < 2.0 / 200);
+        assertEquals(1, (int)(floor * 200));
+        assertEquals(floor, budget.getLastBudget(), 0.0);
+
+        // Bigger updates are not affected.
+        for (int i = 0; i < 50; i++) {
+            budget.onUpdate(OptimizationBudget.Update.OBSERVATION_CHANGED);
+        }
+        assertEquals(0.5, budget.take(1000), 1e-9);
+
+        // Enough iterations that the minimum budget is more than one.
+        budget = new OptimizationBudget(0.01, 10.0, 1000);
+        budget.take(1000);
+        assertEquals(0.01, budget.take(1000), 1e-9);
+
+        // Fewer iterations than the minimum budget can split.
+        budget = new OptimizationBudget(0.001, 10.0, 1);
+        budget.take(1000);
+        assertEquals(OptimizationBudget.FULL_BUDGET, budget.take(1000), 0.0);
+    }
+
+    @Test
+    public void testRestore() {
+        OptimizationBudget budget = new OptimizationBudget(0.001, 10.0);
+
+        // A preempted first optimization leaves the next one the full budget.
+        assertEquals(OptimizationBudget.FULL_BUDGET, budget.take(1000), 0.0);
+        budget.restore();
+        assertEquals(OptimizationBudget.FULL_BUDGET, budget.take(1000), 0.0);
+
+        for (int i = 0; i < 10; i++) {
+            budget.onUpdate(OptimizationBudget.Update.OBSERVATION_CHANGED);
+        }
+        assertEquals(0.1, budget.take(1000), 1e-9);
+
+        // Preempted, with more updates arriving during the optimization.
+        budget.onUpdate(OptimizationBudget.Update.ATOM_ADDED);
+        budget.restore();
+        assertEquals(0.12, budget.take(1000), 1e-9);
+        assertEquals(0.012, budget.getLastMagnitude(), 1e-9);
+
+        // Restoring twice does not count the updates twice.
+        budget.restore();
+        budget.restore();
+        assertEquals(0.12, budget.take(1000), 1e-9);
+
+        // Finished optimizations do not restore anything.
+        assertEquals(0.001, budget.take(1000), 1e-9);
+
+        budget.onUpdate(OptimizationBudget.Update.RULE_CHANGED);
+        budget.take(1000);
+        budget.restore();
+        assertEquals(OptimizationBudget.FULL_BUDGET, budget.take(1000), 0.0);
+    }
+
+    @Test
+    public void testBadParameters() {
+        try {
+            new OptimizationBudget(0.0, 1.0);
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException ex) {
+            // Expected.
+        }
+
+        try {
+            new OptimizationBudget(0.1, -1.0);
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException ex) {
+            // Expected.
+        }
+    }
+}
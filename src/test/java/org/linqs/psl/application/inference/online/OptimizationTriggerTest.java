@@ -0,0 +1,92 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.test.PSLBaseTest;
+
+import org.junit.Test;
+
+public class OptimizationTriggerTest extends PSLBaseTest {
+    @Test
+    public void testRead() {
+        OptimizationTrigger trigger = new ReadOptimizationTrigger();
+
+        assertFalse(trigger.shouldOptimize(1000000, 1000000, 1000000));
+        assertEquals(0L, trigger.getPollInterval());
+    }
+
+    @Test
+    public void testCount() {
+        OptimizationTrigger trigger = new CountOptimizationTrigger(10);
+
+        assertFalse(trigger.shouldOptimize(9, 1000000, 1000000));
+        assertTrue(trigger.shouldOptimize(10, 0, 0));
+        assertEquals(0L, trigger.getPollInterval());
+    }
+
+    @Test
+    public void testInterval() {
+        OptimizationTrigger trigger = new IntervalOptimizationTrigger(500);
+
+        assertFalse(trigger.shouldOptimize(1000000, 499, 1000000));
+        assertTrue(trigger.shouldOptimize(1, 500, 0));
+        assertEquals(500L, trigger.getPollInterval());
+    }
+
+    @Test
+    public void testIdle() {
+        OptimizationTrigger trigger = new IdleOptimizationTrigger(50);
+
+        assertFalse(trigger.shouldOptimize(1000000, 1000000, 49));
+        assertTrue(trigger.shouldOptimize(1, 0, 50));
+        assertEquals(50L, trigger.getPollInterval());
+    }
+
+    @Test
+    public void testBadParameters() {
+        try {
+            new CountOptimizationTrigger(0);
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException ex) {
+            // Expected.
+        }
+
+        try {
+            new IdleOptimizationTrigger(-1);
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException ex) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        OptimizationTrigger trigger = new ReadOptimizationTrigger();
+        assertEquals(0.0, trigger.getMeanAbsorbedUpdates(), 0.0);
+
+        trigger.onOptimization(0, 10);
+        trigger.onOptimization(6, 20);
+        trigger.onOptimization(3, 30);
+
+        assertEquals(3L, trigger.getOptimizationCount());
+        assertEquals(9L, trigger.getAbsorbedUpdateCount());
+        assertEquals(6L, trigger.getMaxAbsorbedUpdates());
+        assertEquals(3.0, trigger.getMeanAbsorbedUpdates(), 1e-9);
+        assertEquals(60L, trigger.getOptimizationTimeMS());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtoms;
+import org.linqs.psl.application.inference.online.messages.actions.model.ReadConsistency;
+import org.linqs.psl.application.inference.online.messages.actions.model.Subscribe;
+import org.linqs.psl.application.inference.online.messages.actions.model.Unsubscribe;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.AtomValueDelta;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.UniqueStringID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Online inference with optimization on a background thread.
+ */
+public class SGDOnlineInferenceBackgroundTest extends SGDOnlineInferenceBaseTest {
+    @Before
+    @Override
+    public void setup() {
+        OnlineOptions.ONLINE_BACKGROUND_OPTIMIZATION.set(true);
+
+        super.setup();
+    }
+
+    /**
+     * Updates are pushed without a read, and a strict read returns only after they are pushed.
+     */
+    @Test
+    public void testSubscribe() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate friends = StandardPredicate.get("Friends");
+        Constant[] alice = new Constant[]{new UniqueStringID("Alice")};
+        Constant[] aliceBob = new Constant[]{new UniqueStringID("Alice"), new UniqueStringID("Bob")};
+
+        final List<AtomValueDelta> deltas = Collections.synchronizedList(new ArrayList<AtomValueDelta>());
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            // Make sure the initial optimization is done.
+            onlineClient.submit(new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+
+            Subscribe subscribe = new Subscribe(new GetAtoms(friends, new Constant[]{new UniqueStringID("Alice"), null}));
+            AtomValueDelta initialDelta = (AtomValueDelta)onlineClient.subscribe(subscribe, new Consumer<AtomValueDelta>() {
+                @Override
+                public void accept(AtomValueDelta delta) {
+                    deltas.add(delta);
+                }
+            }).get();
+
+            assertEquals(4, initialDelta.size());
+
+            onlineClient.submit(new UpdateObservation(nice, alice, 0.0f)).get();
+            onlineClient.submit(new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+            assertTrue(deltas.size() >= 2);
+
+            ActionStatus status = (ActionStatus)onlineClient.submit(new Unsubscribe(subscribe.getIdentifier())).get();
+            assertTrue(status.isSuccess());
+            int subscribedDeltas = deltas.size();
+
+            onlineClient.submit(new UpdateObservation(nice, alice, 1.0f)).get();
+            onlineClient.submit(new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+            assertEquals(subscribedDeltas, deltas.size());
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Immediate reads may or may not see the optimizer's latest values, but are tagged with every update applied so far.
+     */
+    @Test
+    public void testReadConsistency() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate friends = StandardPredicate.get("Friends");
+        Constant[] aliceBob = new Constant[]{new UniqueStringID("Alice"), new UniqueStringID("Bob")};
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            GetAtomResponse initial = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+            assertTrue(initial.getModelVersion() >= 0);
+
+            onlineClient.submit(new UpdateObservation(nice, new Constant[]{new UniqueStringID("Alice")}, 0.0f)).get();
+
+            GetAtomResponse immediate = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, aliceBob, ReadConsistency.IMMEDIATE)).get();
+            assertTrue(immediate.getModelVersion() >= initial.getModelVersion());
+
+            GetAtomResponse strict = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+            assertTrue(strict.getModelVersion() > initial.getModelVersion());
+            assertEquals(strict.getModelVersion(), immediate.getModelVersion());
+            assertTrue(strict.getAtomValue() < initial.getAtomValue());
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
+import org.linqs.psl.config.Options;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.evaluation.statistics.Evaluator;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.test.OnlineTest;
+import org.linqs.psl.test.PSLBaseTest;
+import org.linqs.psl.test.TestModel;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs online inference over the test model on a separate thread for every test.
+ * Children can set options before calling setup().
+ */
+public abstract class SGDOnlineInferenceBaseTest extends PSLBaseTest {
+    protected TestModel.ModelInformation modelInfo;
+    private Evaluator evaluator;
+    private Database inferDB;
+    private Database truthDB;
+    private OnlineInferenceThread onlineInferenceThread;
+
+    public SGDOnlineInferenceBaseTest() {
+        modelInfo = null;
+        inferDB = null;
+        truthDB = null;
+        evaluator = null;
+        onlineInferenceThread = null;
+    }
+
+    @Before
+    public void setup() {
+        Options.SGD_LEARNING_RATE.set(10.0);
+        Options.SGD_INVERSE_TIME_EXP.set(0.5);
+
+        modelInfo = TestModel.getModel(true);
+
+        inferDB = modelInfo.dataStore.getDatabase(modelInfo.targetPartition,
+                new HashSet<StandardPredicate>(), modelInfo.observationPartition);
+        truthDB = modelInfo.dataStore.getDatabase(modelInfo.truthPartition,
+                new HashSet<StandardPredicate>(modelInfo.predicates.values()));
+        evaluator = (Evaluator)Options.WLA_EVAL.getNewObject();
+
+        // Start up inference on separate thread.
+        onlineInferenceThread = new OnlineInferenceThread();
+        onlineInferenceThread.start();
+    }
+
+    @After
+    public void cleanup() {
+        stop();
+
+        if (inferDB != null) {
+            inferDB.close();
+            inferDB = null;
+        }
+
+        if (modelInfo != null) {
+            modelInfo.dataStore.close();
+            modelInfo = null;
+        }
+    }
+
+    protected void stop() {
+        if (onlineInferenceThread == null) {
+            return;
+        }
+
+        BlockingQueue<OnlineMessage> commands = new LinkedBlockingQueue<OnlineMessage>();
+
+        Stop stop = new Stop();
+        commands.add(stop);
+
+        OnlineResponse[] expectedResponses = new OnlineResponse[1];
+        expectedResponses[0] = new ActionStatus(stop, true, "OnlinePSL inference stopped.");
+
+        OnlineTest.assertServerResponse(commands, expectedResponses);
+
+        try {
+            onlineInferenceThread.join();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        onlineInferenceThread = null;
+    }
+
+    protected SGDOnlineInference getOnlineInference() {
+        return onlineInferenceThread.onlineInference;
+    }
+
+    private class OnlineInferenceThread extends Thread {
+        SGDOnlineInference onlineInference;
+
+        public OnlineInferenceThread() {
+            onlineInference = new SGDOnlineInference(modelInfo.model.getRules(), inferDB);
+        }
+
+        @Override
+        public void run() {
+            onlineInference.inference(false, false, Arrays.asList(evaluator), truthDB);
+        }
+
+        public void close() {
+            if (onlineInference != null) {
+                onlineInference.close();
+                onlineInference = null;
+            }
+        }
+    }
+}
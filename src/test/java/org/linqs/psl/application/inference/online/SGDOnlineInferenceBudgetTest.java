@@ -0,0 +1,104 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ReadConsistency;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.config.Options;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.UniqueStringID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Online inference with iteration budgets sized by the model updates.
+ */
+public class SGDOnlineInferenceBudgetTest extends SGDOnlineInferenceBaseTest {
+    @Before
+    @Override
+    public void setup() {
+        OnlineOptions.ONLINE_ADAPTIVE_BUDGET.set(true);
+
+        super.setup();
+    }
+
+    /**
+     * A single changed observation gets a small (but at least one iteration) budget,
+     * and the optimization still moves the affected atoms to their new optimum.
+     */
+    @Test
+    public void testSmallUpdate() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate friends = StandardPredicate.get("Friends");
+        Constant[] aliceBob = new Constant[]{new UniqueStringID("Alice"), new UniqueStringID("Bob")};
+        Constant[] bobCharlie = new Constant[]{new UniqueStringID("Bob"), new UniqueStringID("Charlie")};
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            GetAtomResponse affectedBefore = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+            GetAtomResponse unaffectedBefore = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, bobCharlie, ReadConsistency.STRICT)).get();
+
+            onlineClient.submit(new UpdateObservation(nice, new Constant[]{new UniqueStringID("Alice")}, 0.9f)).get();
+
+            GetAtomResponse affectedAfter = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+            GetAtomResponse unaffectedAfter = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, bobCharlie, ReadConsistency.STRICT)).get();
+
+            OptimizationBudget budget = getOnlineInference().getOptimizationBudget();
+            assertNotNull(budget);
+
+            // The budget (and magnitude) logged for the optimization that covered the update.
+            double magnitude = budget.getLastMagnitude();
+            assertTrue(magnitude > 0.0);
+
+            double expectedBudget = Math.min(OptimizationBudget.FULL_BUDGET, Math.max(
+                    OnlineOptions.ONLINE_MIN_BUDGET.getDouble(), magnitude * OnlineOptions.ONLINE_BUDGET_SCALE.getDouble()));
+            assertTrue(budget.getLastBudget() < OptimizationBudget.FULL_BUDGET);
+            assertEquals(expectedBudget, budget.getLastBudget(), 1e-9);
+            assertTrue((int)(budget.getLastBudget() * Options.SGD_MAX_ITER.getInt()) >= 1);
+
+            // Nice(Alice) going from 1.0 to 0.9 moves the optimum of Friends(Alice, Bob) from 5/6 to 0.75.
+            assertTrue(affectedAfter.getModelVersion() > affectedBefore.getModelVersion());
+            assertEquals(5.0 / 6.0 - 0.75, affectedBefore.getAtomValue() - affectedAfter.getAtomValue(), 0.04);
+            assertEquals(unaffectedBefore.getAtomValue(), unaffectedAfter.getAtomValue(), 0.04);
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
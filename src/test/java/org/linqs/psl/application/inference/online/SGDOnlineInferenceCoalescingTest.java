@@ -0,0 +1,109 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.DeleteAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.UniqueStringID;
+import org.linqs.psl.test.OnlineTest;
+import org.linqs.psl.util.MathUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Online inference with mutation coalescing.
+ */
+public class SGDOnlineInferenceCoalescingTest extends SGDOnlineInferenceBaseTest {
+    @Before
+    @Override
+    public void setup() {
+        OnlineOptions.ONLINE_COALESCE_WINDOW.set(100);
+
+        super.setup();
+    }
+
+    /**
+     * Every action is answered (in the order it was sent), and the final state matches executing every action.
+     */
+    @Test
+    public void testCoalescing() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate person = StandardPredicate.get("Person");
+        Constant[] alice = new Constant[]{new UniqueStringID("Alice")};
+        Constant[] connor = new Constant[]{new UniqueStringID("Connor")};
+
+        List<OnlineMessage> actions = new ArrayList<OnlineMessage>();
+        actions.add(new UpdateObservation(nice, alice, 0.3f));
+        actions.add(new UpdateObservation(nice, alice, 0.2f));
+        actions.add(new AddAtom("Read", person, connor, 1.0f));
+        actions.add(new UpdateObservation(nice, alice, 0.0f));
+        actions.add(new DeleteAtom("Read", person, connor));
+        actions.add(new GetAtom(nice, alice));
+        actions.add(new GetAtom(person, connor));
+
+        BlockingQueue<OnlineMessage> commands = new LinkedBlockingQueue<OnlineMessage>(actions);
+        commands.add(new Exit());
+
+        List<OnlineResponse> onlineResponses = OnlineTest.clientSession(commands);
+
+        Set<UUID> answered = new HashSet<UUID>();
+        List<UUID> statusOrder = new ArrayList<UUID>();
+        List<Double> values = new ArrayList<Double>();
+        for (OnlineResponse onlineResponse : onlineResponses) {
+            if (onlineResponse instanceof ActionStatus) {
+                assertTrue(onlineResponse.toString(), ((ActionStatus)onlineResponse).isSuccess());
+                answered.add(onlineResponse.getActionIdentifier());
+                statusOrder.add(onlineResponse.getActionIdentifier());
+            } else if (onlineResponse instanceof GetAtomResponse) {
+                values.add(((GetAtomResponse)onlineResponse).getAtomValue());
+            }
+        }
+
+        for (OnlineMessage action : actions) {
+            assertTrue(action.toString(), answered.contains(action.getIdentifier()));
+        }
+
+        // Superseded actions are answered in their own place, not after the action that superseded them.
+        for (int i = 0; i < actions.size(); i++) {
+            assertEquals(actions.get(i).toString(), actions.get(i).getIdentifier(), statusOrder.get(i));
+        }
+
+        assertEquals(2, values.size());
+        assertEquals(0.0, values.get(0), MathUtils.EPSILON);
+        assertEquals(-1.0, values.get(1), MathUtils.EPSILON);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ReadConsistency;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.config.Options;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.UniqueStringID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The background optimization tests with optimizations that give way to arriving actions.
+ */
+public class SGDOnlineInferencePreemptibleTest extends SGDOnlineInferenceBackgroundTest {
+    // Small pages, so optimizations have pages to stop between.
+    private static final int PAGE_SIZE = 4;
+
+    private static final int MAX_IN_FLIGHT = 20;
+    private static final long LOAD_TIMEOUT_MS = 30000;
+
+    @Before
+    @Override
+    public void setup() {
+        OnlineOptions.ONLINE_PREEMPTIBLE_OPTIMIZATION.set(true);
+        Options.STREAMING_TS_PAGE_SIZE.set(PAGE_SIZE);
+
+        super.setup();
+    }
+
+    /**
+     * Under a steady stream of updates, background optimizations are preempted,
+     * but an optimization still finishes and publishes while the stream goes on.
+     */
+    @Test
+    public void testContinuousLoad() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate friends = StandardPredicate.get("Friends");
+        Constant[] alice = new Constant[]{new UniqueStringID("Alice")};
+        Constant[] aliceBob = new Constant[]{new UniqueStringID("Alice"), new UniqueStringID("Bob")};
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            // Make sure the initial optimization is done.
+            onlineClient.submit(new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+
+            SGDOnlineInference onlineInference = getOnlineInference();
+            long initialPreemptions = onlineInference.getPreemptedOptimizationCount();
+
+            // The last optimized version when the first preemption was seen.
+            long preemptedVersion = -1;
+            boolean published = false;
+
+            // Keep updates in flight the whole time, so there is always an action waiting on the optimizer.
+            Deque<CompletableFuture<OnlineResponse>> inFlight = new ArrayDeque<CompletableFuture<OnlineResponse>>();
+            long endTime = System.currentTimeMillis() + LOAD_TIMEOUT_MS;
+            for (int i = 0; !published && System.currentTimeMillis() < endTime; i++) {
+                inFlight.addLast(onlineClient.submit(new UpdateObservation(nice, alice, (i % 10) / 10.0f)));
+                if (inFlight.size() < MAX_IN_FLIGHT) {
+                    continue;
+                }
+
+                ActionStatus status = (ActionStatus)inFlight.removeFirst().get();
+                assertTrue(status.toString(), status.isSuccess());
+
+                if (preemptedVersion < 0) {
+                    if (onlineInference.getPreemptedOptimizationCount() > initialPreemptions) {
+                        preemptedVersion = onlineInference.getOptimizedModelVersion();
+                    }
+                } else if (onlineInference.getOptimizedModelVersion() > preemptedVersion) {
+                    published = true;
+                }
+            }
+
+            assertTrue("No optimization was preempted.", preemptedVersion >= 0);
+            assertTrue("No optimization was published after a preemption.", published);
+
+            while (!inFlight.isEmpty()) {
+                inFlight.removeFirst().get();
+            }
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
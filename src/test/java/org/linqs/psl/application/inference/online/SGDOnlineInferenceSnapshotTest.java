@@ -0,0 +1,84 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ReadConsistency;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.UniqueStringID;
+import org.linqs.psl.util.MathUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Online inference with immediate reads answered from value snapshots.
+ */
+public class SGDOnlineInferenceSnapshotTest extends SGDOnlineInferenceBaseTest {
+    @Before
+    @Override
+    public void setup() {
+        OnlineOptions.ONLINE_SNAPSHOT_READS.set(true);
+
+        super.setup();
+    }
+
+    /**
+     * An immediate read must not overtake the same client's earlier mutation by being answered from the snapshot.
+     */
+    @Test
+    public void testReadAfterOwnMutation() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        Constant[] alice = new Constant[]{new UniqueStringID("Alice")};
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            // Publish a snapshot with the old value.
+            GetAtomResponse initial = (GetAtomResponse)onlineClient.submit(new GetAtom(nice, alice, ReadConsistency.STRICT)).get();
+            assertEquals(1.0, initial.getAtomValue(), MathUtils.EPSILON);
+
+            // Do not wait for the update before reading.
+            CompletableFuture<OnlineResponse> update = onlineClient.submit(new UpdateObservation(nice, alice, 0.0f));
+            GetAtomResponse read = (GetAtomResponse)onlineClient.submit(new GetAtom(nice, alice, ReadConsistency.IMMEDIATE)).get();
+
+            assertTrue(update.isDone());
+            assertEquals(0.0, read.getAtomValue(), MathUtils.EPSILON);
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
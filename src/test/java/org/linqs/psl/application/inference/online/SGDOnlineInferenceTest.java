@@ -17,26 +17,33 @@
  */
 package org.linqs.psl.application.inference.online;
 
+import org.linqs.psl.application.inference.online.messages.MessageCodec;
 import org.linqs.psl.application.inference.online.messages.OnlineMessage;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
-import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.actions.controls.LoadAtoms;
 import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
 import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomActionBatch;
 import org.linqs.psl.application.inference.online.messages.actions.model.DeleteAtom;
 import org.linqs.psl.application.inference.online.messages.actions.model.FixAtom;
 import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtoms;
 import org.linqs.psl.application.inference.online.messages.actions.model.ObserveAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ReadConsistency;
+import org.linqs.psl.application.inference.online.messages.actions.model.Subscribe;
+import org.linqs.psl.application.inference.online.messages.actions.model.Unsubscribe;
 import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
 import org.linqs.psl.application.inference.online.messages.actions.template.ActivateRule;
 import org.linqs.psl.application.inference.online.messages.actions.template.AddRule;
 import org.linqs.psl.application.inference.online.messages.actions.template.DeactivateRule;
 import org.linqs.psl.application.inference.online.messages.actions.template.DeleteRule;
 import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.AtomValueDelta;
+import org.linqs.psl.application.inference.online.messages.responses.BatchActionStatus;
 import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomsResponse;
 import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
-import org.linqs.psl.config.Options;
-import org.linqs.psl.database.Database;
-import org.linqs.psl.evaluation.statistics.Evaluator;
+import org.linqs.psl.config.OnlineOptions;
 import org.linqs.psl.model.atom.QueryAtom;
 import org.linqs.psl.model.formula.Conjunction;
 import org.linqs.psl.model.formula.Implication;
@@ -55,89 +62,80 @@ import org.linqs.psl.model.term.UniqueStringID;
 import org.linqs.psl.model.term.Variable;
 import org.linqs.psl.reasoner.function.FunctionComparator;
 import org.linqs.psl.test.OnlineTest;
-import org.linqs.psl.test.PSLBaseTest;
-import org.linqs.psl.test.TestModel;
+import org.linqs.psl.util.MathUtils;
 
-import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
-
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
 
-public class SGDOnlineInferenceTest extends PSLBaseTest {
-    private TestModel.ModelInformation modelInfo;
-    private Evaluator evaluator;
-    private Database inferDB;
-    private Database truthDB;
-    private OnlineInferenceThread onlineInferenceThread;
-
-    public SGDOnlineInferenceTest() {
-        modelInfo = null;
-        inferDB = null;
-        truthDB = null;
-        evaluator = null;
-        onlineInferenceThread = null;
-    }
-
-    @Before
-    public void setup() {
-        Options.SGD_LEARNING_RATE.set(10.0);
-        Options.SGD_INVERSE_TIME_EXP.set(0.5);
-
-        modelInfo = TestModel.getModel(true);
-
-        inferDB = modelInfo.dataStore.getDatabase(modelInfo.targetPartition,
-                new HashSet<StandardPredicate>(), modelInfo.observationPartition);
-        truthDB = modelInfo.dataStore.getDatabase(modelInfo.truthPartition,
-                new HashSet<StandardPredicate>(modelInfo.predicates.values()));
-        evaluator = (Evaluator)Options.WLA_EVAL.getNewObject();
-
-        // Start up inference on separate thread.
-        onlineInferenceThread = new OnlineInferenceThread();
-        onlineInferenceThread.start();
+/**
+ * The online inference tests, run once for every way a client can reach the server:
+ * blocking and NIO connections, both codecs, the in-process and Unix domain socket transports, and virtual threads.
+ * Variants the running JVM does not support are skipped.
+ *
+ * Server side features that do not change what goes over the wire
+ * (e.g. priority lanes, mapped pages, or local optimization) are tested directly (see ActionQueueTest and OnlineTermStoreTest).
+ */
+@RunWith(Parameterized.class)
+public class SGDOnlineInferenceTest extends SGDOnlineInferenceBaseTest {
+    private OnlineServer.Transport transport;
+    private OnlineServer.ConnectionMode connectionMode;
+    private MessageCodec.Type codec;
+    private boolean virtualThreads;
+
+    public SGDOnlineInferenceTest(String name, OnlineServer.Transport transport,
+            OnlineServer.ConnectionMode connectionMode, MessageCodec.Type codec, boolean virtualThreads) {
+        this.transport = transport;
+        this.connectionMode = connectionMode;
+        this.codec = codec;
+        this.virtualThreads = virtualThreads;
     }
 
-    @After
-    public void cleanup() {
-        stop();
-
-        if (inferDB != null) {
-            inferDB.close();
-            inferDB = null;
-        }
-
-        if (modelInfo != null) {
-            modelInfo.dataStore.close();
-            modelInfo = null;
-        }
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> getConnectionVariants() {
+        return Arrays.asList(new Object[][]{
+            {"Thread", OnlineServer.Transport.SOCKET, OnlineServer.ConnectionMode.THREAD, MessageCodec.Type.JAVA, false},
+            {"NIO", OnlineServer.Transport.SOCKET, OnlineServer.ConnectionMode.NIO, MessageCodec.Type.JAVA, false},
+            {"Binary", OnlineServer.Transport.SOCKET, OnlineServer.ConnectionMode.THREAD, MessageCodec.Type.BINARY, false},
+            {"VirtualThread", OnlineServer.Transport.SOCKET, OnlineServer.ConnectionMode.THREAD, MessageCodec.Type.JAVA, true},
+            {"InProcess", OnlineServer.Transport.IN_PROCESS, OnlineServer.ConnectionMode.THREAD, MessageCodec.Type.JAVA, false},
+            {"UnixSocket", OnlineServer.Transport.UNIX, OnlineServer.ConnectionMode.NIO, MessageCodec.Type.JAVA, false},
+        });
     }
 
-    protected void stop() {
-        if (onlineInferenceThread == null) {
-            return;
-        }
-
-        BlockingQueue<OnlineMessage> commands = new LinkedBlockingQueue<OnlineMessage>();
-
-        Stop stop = new Stop();
-        commands.add(stop);
-
-        OnlineResponse[] expectedResponses = new OnlineResponse[1];
-        expectedResponses[0] = new ActionStatus(stop, true, "OnlinePSL inference stopped.");
-
-        OnlineTest.assertServerResponse(commands, expectedResponses);
+    @Before
+    @Override
+    public void setup() {
+        Assume.assumeTrue(transport != OnlineServer.Transport.UNIX || UnixDomainSockets.isSupported());
+        Assume.assumeTrue(!virtualThreads || ConnectionThreads.isVirtualThreadSupported());
 
-        try {
-            onlineInferenceThread.join();
-        } catch (InterruptedException ex) {
-            throw new RuntimeException(ex);
-        }
+        OnlineOptions.ONLINE_TRANSPORT.set(transport.toString());
+        OnlineOptions.ONLINE_CONNECTION_MODE.set(connectionMode.toString());
+        OnlineOptions.ONLINE_CODEC.set(codec.toString());
+        OnlineOptions.ONLINE_VIRTUAL_THREADS.set(virtualThreads);
 
-        onlineInferenceThread = null;
+        super.setup();
     }
 
     /**
@@ -232,6 +230,312 @@ public class SGDOnlineInferenceTest extends PSLBaseTest {
         OnlineTest.assertAtomValues(commands, new double[]{0.0});
     }
 
+    /**
+     * Test that a batch applies all of its mutations and reports the ones that could not be applied.
+     */
+    @Test
+    public void testAtomActionBatch() {
+        BlockingQueue<OnlineMessage> commands = new LinkedBlockingQueue<OnlineMessage>();
+
+        AtomActionBatch batch = new AtomActionBatch();
+        batch.add(new UpdateObservation(StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Alice")}, 0.0f));
+        batch.add(new UpdateObservation(StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Connor")}, 0.0f));
+        batch.add(new AddAtom("Read", StandardPredicate.get("Person"), new Constant[]{new UniqueStringID("Connor")}, 1.0f));
+        batch.add(new DeleteAtom("Read", StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Bob")}));
+        batch.add(new ObserveAtom(StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Alice")}, 1.0f));
+
+        commands.add(batch);
+        commands.add(new GetAtom(StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Alice")}));
+        commands.add(new GetAtom(StandardPredicate.get("Person"), new Constant[]{new UniqueStringID("Connor")}));
+        commands.add(new GetAtom(StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Bob")}));
+        commands.add(new Exit());
+
+        List<OnlineResponse> onlineResponses = OnlineTest.clientSession(commands);
+
+        BatchActionStatus status = null;
+        List<Double> values = new ArrayList<Double>();
+        for (OnlineResponse onlineResponse : onlineResponses) {
+            if (onlineResponse instanceof BatchActionStatus) {
+                status = (BatchActionStatus)onlineResponse;
+            } else if (onlineResponse instanceof GetAtomResponse) {
+                values.add(((GetAtomResponse)onlineResponse).getAtomValue());
+            }
+        }
+
+        assertNotNull(status);
+        assertEquals(batch.getIdentifier(), status.getActionIdentifier());
+        assertFalse(status.isSuccess());
+        assertEquals(5, status.getActionCount());
+        assertEquals("[1, 4]", Arrays.toString(status.getFailedIndexes()));
+
+        assertEquals(Arrays.asList(0.0, 1.0, -1.0), values);
+    }
+
+    /**
+     * Test that submitted actions are pipelined and each future gets the response for its own action.
+     */
+    @Test
+    public void testAsyncClient() {
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            CompletableFuture<OnlineResponse> update = onlineClient.submit(
+                    new UpdateObservation(StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Alice")}, 0.0f));
+
+            GetAtom missingAtom = new GetAtom(StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Connor")});
+            GetAtom existingAtom = new GetAtom(StandardPredicate.get("Nice"), new Constant[]{new UniqueStringID("Alice")});
+
+            CompletableFuture<OnlineResponse> missing = onlineClient.submit(missingAtom);
+            CompletableFuture<OnlineResponse> existing = onlineClient.submit(existingAtom);
+
+            // Wait on the responses out of order.
+            GetAtomResponse existingResponse = (GetAtomResponse)existing.get();
+            assertEquals(existingAtom.getIdentifier(), existingResponse.getActionIdentifier());
+            assertEquals(0.0, existingResponse.getAtomValue(), MathUtils.EPSILON);
+
+            GetAtomResponse missingResponse = (GetAtomResponse)missing.get();
+            assertEquals(missingAtom.getIdentifier(), missingResponse.getActionIdentifier());
+            assertEquals(-1.0, missingResponse.getAtomValue(), MathUtils.EPSILON);
+
+            assertTrue(((ActionStatus)update.get()).isSuccess());
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        // Actions submitted after the session ends fail right away.
+        assertTrue(onlineClient.submit(new Sync()).isCompletedExceptionally());
+    }
+
+    /**
+     * Test reading many atoms in a single action, both from a list and with a pattern.
+     */
+    @Test
+    public void testGetAtoms() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate friends = StandardPredicate.get("Friends");
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            GetAtoms listQuery = new GetAtoms();
+            listQuery.add(nice, new Constant[]{new UniqueStringID("Alice")});
+            listQuery.add(nice, new Constant[]{new UniqueStringID("Connor")});
+            listQuery.add(friends, new Constant[]{new UniqueStringID("Alice"), new UniqueStringID("Bob")});
+
+            GetAtomsResponse listResponse = (GetAtomsResponse)onlineClient.submit(listQuery).get();
+            GetAtomResponse singleResponse = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, new Constant[]{new UniqueStringID("Alice"), new UniqueStringID("Bob")})).get();
+
+            assertEquals(3, listResponse.size());
+            assertEquals(1.0, listResponse.getValue(0), MathUtils.EPSILON);
+            assertEquals(-1.0, listResponse.getValue(1), MathUtils.EPSILON);
+            assertEquals(singleResponse.getAtomValue(), listResponse.getValue(2), MathUtils.EPSILON);
+
+            GetAtoms patternQuery = new GetAtoms(friends, new Constant[]{new UniqueStringID("Alice"), null});
+            GetAtomsResponse patternResponse = (GetAtomsResponse)onlineClient.submit(patternQuery).get();
+
+            List<String> friendsOfAlice = new ArrayList<String>();
+            for (int i = 0; i < patternResponse.size(); i++) {
+                assertEquals(1, patternResponse.getKey(i).length);
+                assertEquals(new UniqueStringID("Alice"), patternResponse.getArguments(i)[0]);
+                friendsOfAlice.add(patternResponse.getKey(i)[0].toString());
+            }
+            Collections.sort(friendsOfAlice);
+
+            assertEquals(Arrays.asList("'Bob'", "'Charlie'", "'Derek'", "'Eugene'"), friendsOfAlice);
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Test that subscribers get the changed atom values after an optimization, and nothing after unsubscribing.
+     */
+    @Test
+    public void testSubscribe() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate friends = StandardPredicate.get("Friends");
+        Constant[] alice = new Constant[]{new UniqueStringID("Alice")};
+        Constant[] aliceBob = new Constant[]{new UniqueStringID("Alice"), new UniqueStringID("Bob")};
+
+        final List<AtomValueDelta> deltas = Collections.synchronizedList(new ArrayList<AtomValueDelta>());
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            Subscribe subscribe = new Subscribe(new GetAtoms(friends, new Constant[]{new UniqueStringID("Alice"), null}));
+            AtomValueDelta initialDelta = (AtomValueDelta)onlineClient.subscribe(subscribe, new Consumer<AtomValueDelta>() {
+                @Override
+                public void accept(AtomValueDelta delta) {
+                    deltas.add(delta);
+                }
+            }).get();
+
+            assertEquals(subscribe.getIdentifier(), initialDelta.getActionIdentifier());
+            assertEquals(4, initialDelta.size());
+            assertEquals(1, onlineClient.getSubscriptionListenerCount());
+
+            // The update is only optimized (and pushed) once a value is read.
+            onlineClient.submit(new UpdateObservation(nice, alice, 0.0f)).get();
+            assertEquals(1, deltas.size());
+
+            onlineClient.submit(new GetAtom(friends, aliceBob)).get();
+            assertEquals(2, deltas.size());
+            assertTrue(deltas.get(1).size() > 0);
+
+            ActionStatus status = (ActionStatus)onlineClient.submit(new Unsubscribe(subscribe.getIdentifier())).get();
+            assertTrue(status.isSuccess());
+            assertEquals(0, onlineClient.getSubscriptionListenerCount());
+
+            onlineClient.submit(new UpdateObservation(nice, alice, 1.0f)).get();
+            onlineClient.submit(new GetAtom(friends, aliceBob)).get();
+            assertEquals(2, deltas.size());
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Test that subscriptions follow atoms that are added and deleted after they start.
+     */
+    @Test
+    public void testSubscribeAtomChanges() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate person = StandardPredicate.get("Person");
+        Constant[] alice = new Constant[]{new UniqueStringID("Alice")};
+        Constant[] bob = new Constant[]{new UniqueStringID("Bob")};
+        Constant[] connor = new Constant[]{new UniqueStringID("Connor")};
+
+        final List<AtomValueDelta> deltas = Collections.synchronizedList(new ArrayList<AtomValueDelta>());
+        Consumer<AtomValueDelta> listener = new Consumer<AtomValueDelta>() {
+            @Override
+            public void accept(AtomValueDelta delta) {
+                deltas.add(delta);
+            }
+        };
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            Subscribe listSubscribe = new Subscribe(new GetAtoms().add(nice, alice).add(nice, connor));
+            AtomValueDelta delta = (AtomValueDelta)onlineClient.subscribe(listSubscribe, listener).get();
+            assertEquals(2, delta.size());
+            assertEquals(-1.0f, delta.getValue(1), MathUtils.EPSILON);
+
+            Subscribe patternSubscribe = new Subscribe(new GetAtoms(person, new Constant[]{null}));
+            delta = (AtomValueDelta)onlineClient.subscribe(patternSubscribe, listener).get();
+            assertEquals(5, delta.size());
+
+            onlineClient.submit(new AddAtom("Read", nice, connor, 0.5f)).get();
+            onlineClient.submit(new AddAtom("Read", person, connor, 1.0f)).get();
+            onlineClient.submit(new DeleteAtom("Read", person, bob)).get();
+            onlineClient.submit(new GetAtom(nice, alice, ReadConsistency.STRICT)).get();
+
+            // The changes may be spread over more than one optimization.
+            Map<Constant, Float> listValues = new HashMap<Constant, Float>();
+            Map<Constant, Float> patternValues = new HashMap<Constant, Float>();
+            for (AtomValueDelta update : deltas.subList(2, deltas.size())) {
+                Map<Constant, Float> values = patternValues;
+                if (update.getActionIdentifier().equals(listSubscribe.getIdentifier())) {
+                    values = listValues;
+                }
+
+                for (int i = 0; i < update.size(); i++) {
+                    values.put(update.getArguments(i)[0], Float.valueOf(update.getValue(i)));
+                }
+            }
+
+            // Only the added atom moved in the list.
+            assertEquals(1, listValues.size());
+            assertEquals(0.5f, listValues.get(connor[0]).floatValue(), MathUtils.EPSILON);
+
+            // The pattern picks up the added atom and reports the deleted one as missing.
+            assertEquals(2, patternValues.size());
+            assertEquals(1.0f, patternValues.get(connor[0]).floatValue(), MathUtils.EPSILON);
+            assertEquals(-1.0f, patternValues.get(bob[0]).floatValue(), MathUtils.EPSILON);
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Test that immediate reads do not optimize, and that responses are tagged with the model version they reflect.
+     */
+    @Test
+    public void testReadConsistency() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        StandardPredicate friends = StandardPredicate.get("Friends");
+        Constant[] aliceBob = new Constant[]{new UniqueStringID("Alice"), new UniqueStringID("Bob")};
+
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        Thread onlineClientThread = new Thread(onlineClient);
+        onlineClientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+
+            GetAtomResponse initial = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+            assertTrue(initial.getModelVersion() >= 0);
+
+            onlineClient.submit(new UpdateObservation(nice, new Constant[]{new UniqueStringID("Alice")}, 0.0f)).get();
+
+            GetAtomResponse immediate = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, aliceBob, ReadConsistency.IMMEDIATE)).get();
+            assertEquals(initial.getAtomValue(), immediate.getAtomValue(), MathUtils.EPSILON);
+
+            GetAtomResponse strict = (GetAtomResponse)onlineClient.submit(
+                    new GetAtom(friends, aliceBob, ReadConsistency.STRICT)).get();
+            assertTrue(strict.getModelVersion() > initial.getModelVersion());
+            assertTrue(strict.getAtomValue() < initial.getAtomValue());
+
+            // Immediate reads include the unoptimized update, unless they are answered from the last published snapshot.
+            if (OnlineOptions.ONLINE_SNAPSHOT_READS.getBoolean()) {
+                assertTrue(immediate.getModelVersion() < strict.getModelVersion());
+            } else {
+                assertEquals(strict.getModelVersion(), immediate.getModelVersion());
+            }
+
+            onlineClient.submit(new Exit()).get();
+            onlineClientThread.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     /**
      * Test three ways to change the partition of an atom.
      * 1. Add an atom with predicates and arguments that already exists in the model but with a different partition.
@@ -670,23 +974,83 @@ public class SGDOnlineInferenceTest extends PSLBaseTest {
         OnlineTest.assertServerResponse(commands, expectedResponses);
     }
 
-    private class OnlineInferenceThread extends Thread {
-        SGDOnlineInference onlineInference;
+    /**
+     * Test that atom files are only loaded from the load directory,
+     * and that bad files are reported without echoing their content.
+     */
+    @Test
+    public void testLoadAtoms() {
+        File loadDirectory = null;
+        try {
+            loadDirectory = Files.createTempDirectory("psl-online-load-").toFile();
+            loadDirectory.deleteOnExit();
 
-        public OnlineInferenceThread() {
-            onlineInference = new SGDOnlineInference(modelInfo.model.getRules(), inferDB);
+            writeAtomFile(new File(loadDirectory, "nice.txt"), "Connor\t0.5\n");
+            writeAtomFile(new File(loadDirectory, "bad.txt"), "Dave\tunknown\n");
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
 
-        @Override
-        public void run() {
-            onlineInference.inference(false, false, Arrays.asList(evaluator), truthDB);
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        BlockingQueue<OnlineMessage> commands = new LinkedBlockingQueue<OnlineMessage>();
+
+        // Loading is disabled without a load directory.
+        LoadAtoms disabled = new LoadAtoms("Read", nice, new File(loadDirectory, "nice.txt").getAbsolutePath());
+        commands.add(disabled);
+        commands.add(new Exit());
+
+        List<OnlineResponse> onlineResponses = OnlineTest.clientSession(commands);
+        assertFalse(getActionStatus(onlineResponses, disabled).isSuccess());
+
+        // Reset model.
+        OnlineOptions.ONLINE_LOAD_DIRECTORY.set(loadDirectory.getAbsolutePath());
+        cleanup();
+        setup();
+
+        LoadAtoms outside = new LoadAtoms("Read", nice, "../nice.txt");
+        LoadAtoms badValue = new LoadAtoms("Read", nice, "bad.txt");
+        LoadAtoms relative = new LoadAtoms("Read", nice, "nice.txt");
+        commands.add(outside);
+        commands.add(badValue);
+        commands.add(relative);
+        commands.add(new GetAtom(nice, new Constant[]{new UniqueStringID("Connor")}));
+        commands.add(new Exit());
+
+        onlineResponses = OnlineTest.clientSession(commands);
+
+        ActionStatus status = getActionStatus(onlineResponses, outside);
+        assertFalse(status.isSuccess());
+        assertTrue(status.getStatusMessage().contains("not in the load directory"));
+
+        status = getActionStatus(onlineResponses, badValue);
+        assertFalse(status.isSuccess());
+        assertTrue(status.getStatusMessage().contains("Bad truth value on line 1"));
+        assertFalse(status.getStatusMessage().contains("unknown"));
+
+        assertTrue(getActionStatus(onlineResponses, relative).isSuccess());
+
+        List<Double> values = new ArrayList<Double>();
+        for (OnlineResponse onlineResponse : onlineResponses) {
+            if (onlineResponse instanceof GetAtomResponse) {
+                values.add(((GetAtomResponse)onlineResponse).getAtomValue());
+            }
         }
+        assertEquals(Arrays.asList(0.5), values);
+    }
 
-        public void close() {
-            if (onlineInference != null) {
-                onlineInference.close();
-                onlineInference = null;
+    private ActionStatus getActionStatus(List<OnlineResponse> onlineResponses, OnlineMessage action) {
+        for (OnlineResponse onlineResponse : onlineResponses) {
+            if (onlineResponse instanceof ActionStatus && onlineResponse.getActionIdentifier().equals(action.getIdentifier())) {
+                return (ActionStatus)onlineResponse;
             }
         }
+
+        fail(String.format("No status for action: %s", action));
+        return null;
+    }
+
+    private void writeAtomFile(File file, String content) throws IOException {
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online;
+
+import org.linqs.psl.application.inference.online.messages.OnlineMessage;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.LoadAtoms;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.application.inference.online.messages.responses.OnlineResponse;
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.config.Options;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.evaluation.statistics.Evaluator;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.UniqueStringID;
+import org.linqs.psl.test.OnlineTest;
+import org.linqs.psl.test.PSLBaseTest;
+import org.linqs.psl.test.TestModel;
+import org.linqs.psl.util.Logger;
+import org.linqs.psl.util.MathUtils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Rough timings of the online server configurations against the small test model.
+ * Every run also checks its responses, so these double as (slow) functional tests.
+ * The timings are logged at INFO and are not asserted on: they depend too much on the machine to be compared in a test.
+ */
+public class SGDOnlineInferenceTimingTest extends PSLBaseTest {
+    private static final Logger log = Logger.getLogger(SGDOnlineInferenceTimingTest.class);
+
+    private static final int ROUND_TRIPS = 500;
+    private static final int LOADED_ATOMS = 2000;
+
+    private TestModel.ModelInformation modelInfo;
+    private Database inferDB;
+    private Database truthDB;
+    private Thread inferenceThread;
+    private Thread clientThread;
+
+    @After
+    public void cleanup() {
+        stopInference();
+    }
+
+    /**
+     * TCP loopback against a Unix domain socket.
+     * Both use NIO connection handling, since that is the only mode the Unix transport has.
+     * Skipped on JVMs without Unix domain socket channels.
+     */
+    @Test
+    public void testTransportTiming() {
+        Assume.assumeTrue(UnixDomainSockets.isSupported());
+
+        OnlineOptions.ONLINE_CONNECTION_MODE.set(OnlineServer.ConnectionMode.NIO.toString());
+
+        OnlineOptions.ONLINE_TRANSPORT.set(OnlineServer.Transport.SOCKET.toString());
+        double socketMS = timeRoundTrips();
+
+        OnlineOptions.ONLINE_TRANSPORT.set(OnlineServer.Transport.UNIX.toString());
+        double unixMS = timeRoundTrips();
+
+        report(String.format("Sequential round trips: TCP %.3f ms, Unix domain socket %.3f ms.", socketMS, unixMS));
+    }
+
+    /**
+     * Loading a file of new atoms with one LoadAtoms action against sending one AddAtom per atom.
+     * Each approach gets a fresh model.
+     */
+    @Test
+    public void testLoadAtomsTiming() {
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        File atomFile = writeAtomFile("load", LOADED_ATOMS);
+        OnlineOptions.ONLINE_LOAD_DIRECTORY.set(atomFile.getParent());
+
+        startInference();
+        OnlineClient onlineClient = startClient();
+
+        long start = System.nanoTime();
+        OnlineResponse response = await(onlineClient.submit(new LoadAtoms("Read", nice, atomFile.getAbsolutePath())));
+        double loadMS = (System.nanoTime() - start) / 1000000.0;
+
+        assertTrue(((ActionStatus)response).isSuccess());
+        assertTrue(((ActionStatus)response).getStatusMessage().startsWith(String.format("Loaded %d atoms", LOADED_ATOMS)));
+
+        closeClient(onlineClient);
+        stopInference();
+
+        startInference();
+        onlineClient = startClient();
+
+        start = System.nanoTime();
+        List<CompletableFuture<OnlineResponse>> responses = new ArrayList<CompletableFuture<OnlineResponse>>(LOADED_ATOMS);
+        for (int i = 0; i < LOADED_ATOMS; i++) {
+            responses.add(onlineClient.submit(new AddAtom("Read", nice, new Constant[]{new UniqueStringID("add" + i)}, 1.0f)));
+        }
+
+        for (CompletableFuture<OnlineResponse> addResponse : responses) {
+            assertTrue(((ActionStatus)await(addResponse)).isSuccess());
+        }
+        double addMS = (System.nanoTime() - start) / 1000000.0;
+
+        closeClient(onlineClient);
+        stopInference();
+
+        report(String.format("Adding %d atoms: LoadAtoms %.3f ms, pipelined AddAtom %.3f ms.", LOADED_ATOMS, loadMS, addMS));
+    }
+
+    /**
+     * Start inference, run ROUND_TRIPS sequential GetAtom round trips (after one warm up pass),
+     * stop inference, and return the mean round trip time in milliseconds.
+     */
+    private double timeRoundTrips() {
+        startInference();
+        OnlineClient onlineClient = startClient();
+
+        StandardPredicate nice = StandardPredicate.get("Nice");
+        Constant[] alice = new Constant[]{new UniqueStringID("Alice")};
+
+        long elapsedNS = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUND_TRIPS; i++) {
+                OnlineResponse response = await(onlineClient.submit(new GetAtom(nice, alice)));
+                assertEquals(1.0, ((GetAtomResponse)response).getAtomValue(), MathUtils.EPSILON);
+            }
+            elapsedNS = System.nanoTime() - start;
+        }
+
+        closeClient(onlineClient);
+        stopInference();
+
+        return elapsedNS / 1000000.0 / ROUND_TRIPS;
+    }
+
+    private OnlineClient startClient() {
+        CountDownLatch modelRegistrationLatch = new CountDownLatch(1);
+        OnlineClient onlineClient = new OnlineClient(modelRegistrationLatch);
+        clientThread = new Thread(onlineClient);
+        clientThread.start();
+
+        try {
+            modelRegistrationLatch.await();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        return onlineClient;
+    }
+
+    private void closeClient(OnlineClient onlineClient) {
+        await(onlineClient.submit(new Exit()));
+
+        try {
+            clientThread.join();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+        clientThread = null;
+    }
+
+    private OnlineResponse await(CompletableFuture<OnlineResponse> response) {
+        try {
+            return response.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Write a Nice atom file with the given number of new people.
+     */
+    private File writeAtomFile(String prefix, int count) {
+        try {
+            File atomFile = File.createTempFile("psl-online-timing-", ".txt");
+            atomFile.deleteOnExit();
+
+            try (BufferedWriter writer = Files.newBufferedWriter(atomFile.toPath(), StandardCharsets.UTF_8)) {
+                for (int i = 0; i < count; i++) {
+                    writer.write(String.format("%s%d\t1.0%n", prefix, i));
+                }
+            }
+
+            return atomFile;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void startInference() {
+        Options.SGD_LEARNING_RATE.set(10.0);
+        Options.SGD_INVERSE_TIME_EXP.set(0.5);
+
+        modelInfo = TestModel.getModel(true);
+        inferDB = modelInfo.dataStore.getDatabase(modelInfo.targetPartition,
+                new HashSet<StandardPredicate>(), modelInfo.observationPartition);
+        truthDB = modelInfo.dataStore.getDatabase(modelInfo.truthPartition,
+                new HashSet<StandardPredicate>(modelInfo.predicates.values()));
+
+        final SGDOnlineInference onlineInference = new SGDOnlineInference(modelInfo.model.getRules(), inferDB);
+        final Evaluator evaluator = (Evaluator)Options.WLA_EVAL.getNewObject();
+
+        inferenceThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                onlineInference.inference(false, false, Arrays.asList(evaluator), truthDB);
+            }
+        });
+        inferenceThread.start();
+    }
+
+    private void stopInference() {
+        if (inferenceThread == null) {
+            return;
+        }
+
+        BlockingQueue<OnlineMessage> commands = new LinkedBlockingQueue<OnlineMessage>();
+        Stop stop = new Stop();
+        commands.add(stop);
+
+        OnlineTest.assertServerResponse(commands, new OnlineResponse[]{new ActionStatus(stop, true, "OnlinePSL inference stopped.")});
+
+        try {
+            inferenceThread.join();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+        inferenceThread = null;
+
+        inferDB.close();
+        inferDB = null;
+
+        modelInfo.dataStore.close();
+        modelInfo = null;
+    }
+
+    /**
+     * Tests run with logging off, so turn it on just long enough to report a result.
+     */
+    private void report(String message) {
+        initLogger("INFO");
+        log.info(message);
+        disableLogger();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.inference.online.messages;
+
+import org.linqs.psl.application.inference.online.messages.actions.controls.Exit;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Stop;
+import org.linqs.psl.application.inference.online.messages.actions.controls.Sync;
+import org.linqs.psl.application.inference.online.messages.actions.controls.WriteInferredPredicates;
+import org.linqs.psl.application.inference.online.messages.actions.model.AddAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.AtomActionBatch;
+import org.linqs.psl.application.inference.online.messages.actions.model.DeleteAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.FixAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.GetAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ObserveAtom;
+import org.linqs.psl.application.inference.online.messages.actions.model.ReadConsistency;
+import org.linqs.psl.application.inference.online.messages.actions.model.UpdateObservation;
+import org.linqs.psl.application.inference.online.messages.responses.ActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.BatchActionStatus;
+import org.linqs.psl.application.inference.online.messages.responses.GetAtomResponse;
+import org.linqs.psl.model.predicate.Predicate;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.term.IntegerAttribute;
+import org.linqs.psl.model.term.UniqueIntID;
+import org.linqs.psl.model.term.UniqueStringID;
+import org.linqs.psl.test.PSLBaseTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryMessageCodecTest extends PSLBaseTest {
+    private StandardPredicate single;
+    private StandardPredicate mixed;
+    private BinaryMessageCodec codec;
+
+    @Before
+    public void setup() {
+        single = StandardPredicate.get("BinaryCodecSingle", ConstantType.UniqueStringID);
+        mixed = StandardPredicate.get("BinaryCodecMixed", ConstantType.UniqueIntID, ConstantType.Integer);
+
+        codec = new BinaryMessageCodec(new Predicate[]{single, mixed});
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Constant[] singleArgs = new Constant[]{new UniqueStringID("Alice")};
+        Constant[] mixedArgs = new Constant[]{new UniqueIntID(-7), new IntegerAttribute(123456)};
+
+        GetAtom getAtom = new GetAtom(single, singleArgs);
+
+        OnlineMessage[] messages = new OnlineMessage[]{
+            new AddAtom("Read", single, singleArgs, 0.5f),
+            new AddAtom("Write", mixed, mixedArgs),
+            new DeleteAtom("Read", single, singleArgs),
+            new ObserveAtom(mixed, mixedArgs, 1.0f),
+            new UpdateObservation(single, singleArgs, 0.25f),
+            getAtom,
+            new FixAtom(single, singleArgs),
+            new Exit(),
+            new Stop(),
+            new Sync(),
+            new WriteInferredPredicates(null),
+            new WriteInferredPredicates("out/path"),
+            new ActionStatus(getAtom, true, "Atom found."),
+            new GetAtomResponse(getAtom, 0.75),
+        };
+
+        for (OnlineMessage message : messages) {
+            OnlineMessage decoded = roundTrip(message);
+
+            assertEquals(message.getClass(), decoded.getClass());
+            assertEquals(message.getIdentifier(), decoded.getIdentifier());
+            assertEquals(message.toString(), decoded.toString());
+        }
+    }
+
+    @Test
+    public void testModelVersionRoundTrip() {
+        GetAtom getAtom = new GetAtom(single, new Constant[]{new UniqueStringID("Alice")});
+
+        GetAtomResponse response = (GetAtomResponse)roundTrip(new GetAtomResponse(getAtom, 0.5, 1234L));
+        assertEquals(1234L, response.getModelVersion());
+
+        response = (GetAtomResponse)roundTrip(new GetAtomResponse(getAtom, 0.5));
+        assertEquals(GetAtomResponse.UNKNOWN_MODEL_VERSION, response.getModelVersion());
+
+        GetAtom consistentGetAtom = new GetAtom(single, new Constant[]{new UniqueStringID("Alice")}, ReadConsistency.BOUNDED);
+        assertEquals(ReadConsistency.BOUNDED, ((GetAtom)roundTrip(consistentGetAtom)).getReadConsistency());
+    }
+
+    @Test
+    public void testCompactAtomActions() {
+        AddAtom addAtom = new AddAtom("Read", single, new Constant[]{new UniqueStringID("Alice")}, 1.0f);
+
+        int binarySize = codec.encode(addAtom).length;
+        int javaSize = JavaMessageCodec.getInstance().encode(addAtom).length;
+
+        assertTrue(String.format("Binary: %d, Java: %d.", binarySize, javaSize), binarySize * 5 <= javaSize);
+    }
+
+    @Test
+    public void testBatchRoundTrip() {
+        Constant[] singleArgs = new Constant[]{new UniqueStringID("Alice")};
+        Constant[] mixedArgs = new Constant[]{new UniqueIntID(3), new IntegerAttribute(-12)};
+
+        AtomActionBatch batch = new AtomActionBatch();
+        batch.add(new AddAtom("Read", single, singleArgs, 0.5f));
+        batch.add(new DeleteAtom("Write", mixed, mixedArgs));
+        batch.add(new ObserveAtom(mixed, mixedArgs, 1.0f));
+        batch.add(new UpdateObservation(single, singleArgs, 0.0f));
+
+        AtomActionBatch decoded = (AtomActionBatch)roundTrip(batch);
+
+        assertEquals(batch.getIdentifier(), decoded.getIdentifier());
+        assertEquals(batch.size(), decoded.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(batch.getActions().get(i).toString(), decoded.getActions().get(i).toString());
+        }
+
+        BatchActionStatus status = new BatchActionStatus(batch, batch.size(), new int[]{0, 2, 3});
+        BatchActionStatus decodedStatus = (BatchActionStatus)roundTrip(status);
+
+        assertEquals(status.toString(), decodedStatus.toString());
+        assertEquals(status.getActionCount(), decodedStatus.getActionCount());
+    }
+
+    @Test
+    public void testUnknownPredicateFallback() {
+        StandardPredicate unknown = StandardPredicate.get("BinaryCodecUnknown", ConstantType.UniqueStringID);
+        UpdateObservation action = new UpdateObservation(unknown, new Constant[]{new UniqueStringID("Bob")}, 0.5f);
+
+        OnlineMessage decoded = roundTrip(action);
+
+        assertEquals(action.getIdentifier(), decoded.getIdentifier());
+        assertEquals(action.toString(), decoded.toString());
+    }
+
+    private OnlineMessage roundTrip(OnlineMessage message) {
+        byte[] payload = codec.encode(message);
+
+        try {
+            return codec.decode(payload, 0, payload.length);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -87,6 +87,19 @@ public class OnlineActionLoaderTest extends LoaderTest {
         OnlinePSLTest.assertActions(input, expected);
     }
 
+    @Test
+    public void testGetAtoms() {
+        String input =
+            "GetAtoms SINGLE(A)\n" +
+            "GetAtoms DOUBLE('A', B)";
+        String[] expected = new String[]{
+            "GETATOMS\tSINGLE\t*",
+            "GETATOMS\tDOUBLE\t'A'\t*"
+        };
+
+        OnlinePSLTest.assertActions(input, expected);
+    }
+
     @Test
     public void testAddRule() {
         String input = "AddRule 1: Single(A) & Double(A, B) >> Single(B) ^2";
@@ -150,4 +163,12 @@ public class OnlineActionLoaderTest extends LoaderTest {
 
         OnlinePSLTest.assertAction(input, expected);
     }
+
+    @Test
+    public void testLoadAtoms() {
+        String input = "LoadAtoms Read SINGLE 'data/single.txt'";
+        String expected = "LOADATOMS\tREAD\tSINGLE\tdata/single.txt";
+
+        OnlinePSLTest.assertAction(input, expected);
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.term.online;
+
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.config.Options;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.atom.OnlineAtomManager;
+import org.linqs.psl.database.loading.Inserter;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.reasoner.InitialValue;
+import org.linqs.psl.reasoner.sgd.term.SGDObjectiveTerm;
+import org.linqs.psl.reasoner.sgd.term.SGDOnlineTermStore;
+import org.linqs.psl.reasoner.sgd.term.SGDTermGenerator;
+import org.linqs.psl.test.PSLBaseTest;
+import org.linqs.psl.test.TestModel;
+import org.linqs.psl.util.Logger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Full passes over a term store with thousands of pages, with pages read through streams against memory mappings.
+ *
+ * The model is the test model with many more people, and the pages are small (as in OnlineTermStoreTest),
+ * so every pass reads thousands of page files.
+ *
+ * This is a benchmark and not a unit test: it is only run with the benchmark profile (mvn test -P benchmark).
+ * The results are logged at INFO.
+ */
+public class OnlineTermStoreBenchmark extends PSLBaseTest {
+    private static final Logger log = Logger.getLogger(OnlineTermStoreBenchmark.class);
+
+    private static final int PAGE_SIZE = 4;
+    private static final int NEW_PEOPLE = 100;
+    private static final int WARMUP_PASSES = 5;
+    private static final int PASSES = 20;
+
+    private TestModel.ModelInformation modelInfo;
+    private Database database;
+    private SGDOnlineTermStore termStore;
+
+    // The number of pages in the store of the last timePasses().
+    private int timedPages;
+
+    @After
+    public void cleanup() {
+        stopTermStore();
+    }
+
+    @Test
+    public void testMappedPages() {
+        OnlineOptions.ONLINE_MAPPED_PAGES.set(false);
+        double streamMS = timePasses();
+        int pages = timedPages;
+
+        OnlineOptions.ONLINE_MAPPED_PAGES.set(true);
+        double mappedMS = timePasses();
+        assertEquals(pages, timedPages);
+
+        report(String.format("Full passes over %d pages: streamed pages %.3f ms, mapped pages %.3f ms.", pages, streamMS, mappedMS));
+    }
+
+    /**
+     * Build a large term store (with the options set so far), make WARMUP_PASSES full passes (the first one grounds),
+     * and return the mean time of the next PASSES full passes in milliseconds.
+     */
+    private double timePasses() {
+        startTermStore();
+
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            runPass();
+        }
+
+        timedPages = termStore.getActivePageCount();
+        assertTrue(timedPages > 1000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < PASSES; i++) {
+            runPass();
+        }
+        long elapsedNS = System.nanoTime() - start;
+
+        stopTermStore();
+
+        return elapsedNS / 1000000.0 / PASSES;
+    }
+
+    private void runPass() {
+        Iterator<SGDObjectiveTerm> iterator = termStore.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+    }
+
+    /**
+     * Build the test model with NEW_PEOPLE more people, who are nice and can be friends with everyone.
+     */
+    private void startTermStore() {
+        Options.STREAMING_TS_PAGE_SIZE.set(PAGE_SIZE);
+
+        modelInfo = TestModel.getModel(true);
+
+        StandardPredicate person = modelInfo.predicates.get("Person");
+        StandardPredicate nice = modelInfo.predicates.get("Nice");
+        StandardPredicate friends = modelInfo.predicates.get("Friends");
+
+        List<String> people = new ArrayList<String>();
+        people.add("Alice");
+        people.add("Bob");
+        people.add("Charlie");
+        people.add("Derek");
+        people.add("Eugene");
+        int oldPeople = people.size();
+
+        Inserter personInserter = modelInfo.dataStore.getInserter(person, modelInfo.observationPartition);
+        Inserter niceInserter = modelInfo.dataStore.getInserter(nice, modelInfo.observationPartition);
+        for (int i = 0; i < NEW_PEOPLE; i++) {
+            String name = "Person" + i;
+            personInserter.insertValue(1.0, name);
+            niceInserter.insertValue(1.0, name);
+            people.add(name);
+        }
+
+        // The test model already has every friendship between its own people.
+        Inserter friendsInserter = modelInfo.dataStore.getInserter(friends, modelInfo.targetPartition);
+        for (int i = 0; i < people.size(); i++) {
+            for (int j = 0; j < people.size(); j++) {
+                if (i != j && (i >= oldPeople || j >= oldPeople)) {
+                    friendsInserter.insertValue(1.0, people.get(i), people.get(j));
+                }
+            }
+        }
+
+        database = modelInfo.dataStore.getDatabase(modelInfo.targetPartition,
+                new HashSet<StandardPredicate>(), modelInfo.observationPartition);
+        OnlineAtomManager atomManager = new OnlineAtomManager(database, InitialValue.ATOM);
+
+        termStore = new SGDOnlineTermStore(modelInfo.model.getRules(), atomManager, new SGDTermGenerator(false));
+        termStore.ensureVariableCapacity(atomManager.getCachedRVACount() + atomManager.getCachedObsCount());
+    }
+
+    private void stopTermStore() {
+        if (termStore != null) {
+            termStore.close();
+            termStore = null;
+        }
+
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+
+        if (modelInfo != null) {
+            modelInfo.dataStore.close();
+            modelInfo = null;
+        }
+    }
+
+    /**
+     * Tests run with logging off, so turn it on just long enough to report a result.
+     */
+    private void report(String message) {
+        initLogger("INFO");
+        log.info(message);
+        disableLogger();
+    }
+}
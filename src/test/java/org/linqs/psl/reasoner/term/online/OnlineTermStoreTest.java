@@ -0,0 +1,616 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2022 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.term.online;
+
+import org.linqs.psl.config.OnlineOptions;
+import org.linqs.psl.config.Options;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.atom.AtomManager;
+import org.linqs.psl.database.atom.OnlineAtomManager;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.atom.ObservedAtom;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.model.term.UniqueStringID;
+import org.linqs.psl.reasoner.InitialValue;
+import org.linqs.psl.reasoner.sgd.term.SGDObjectiveTerm;
+import org.linqs.psl.reasoner.sgd.term.SGDOnlineCacheIterator;
+import org.linqs.psl.reasoner.sgd.term.SGDOnlineTermStore;
+import org.linqs.psl.reasoner.sgd.term.SGDTermGenerator;
+import org.linqs.psl.reasoner.term.streaming.StreamingIterator;
+import org.linqs.psl.test.PSLBaseTest;
+import org.linqs.psl.test.TestModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+public class OnlineTermStoreTest extends PSLBaseTest {
+    // Small pages, so every rule is spread over several pages.
+    private static final int PAGE_SIZE = 4;
+
+    private TestModel.ModelInformation modelInfo;
+    private Database database;
+    private OnlineAtomManager atomManager;
+    private RecordingTermStore termStore;
+
+    @Before
+    public void setup() {
+        Options.STREAMING_TS_PAGE_SIZE.set(PAGE_SIZE);
+
+        modelInfo = TestModel.getModel(true);
+        database = modelInfo.dataStore.getDatabase(modelInfo.targetPartition,
+                new HashSet<StandardPredicate>(), modelInfo.observationPartition);
+        atomManager = new OnlineAtomManager(database, InitialValue.ATOM);
+        termStore = null;
+    }
+
+    @After
+    public void cleanup() {
+        if (termStore != null) {
+            termStore.close();
+            termStore = null;
+        }
+
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+
+        if (modelInfo != null) {
+            modelInfo.dataStore.close();
+            modelInfo = null;
+        }
+    }
+
+    /**
+     * Local passes read exactly the pages within the given number of hops of the changed variables.
+     */
+    @Test
+    public void testSelectLocalPages() {
+        startTermStore();
+
+        int variable = markDirty("Alice");
+
+        Set<Integer> oneHop = termStore.getPagesWithVariables(setOf(variable));
+        assertTrue(oneHop.size() > 0);
+        assertTrue(oneHop.size() < termStore.getActivePageCount());
+
+        assertTrue(termStore.selectLocalPages(1));
+        assertEquals(oneHop, termStore.getSelectedPages());
+        assertEquals(oneHop.size(), termStore.getLocalPageCount());
+
+        runPass();
+        assertEquals(oneHop, termStore.readPages);
+        termStore.clearLocalPages();
+
+        // The second hop adds every page that shares a variable with the first hop.
+        markDirty("Alice");
+
+        Set<Integer> oneHopVariables = new HashSet<Integer>();
+        for (Integer page : oneHop) {
+            oneHopVariables.addAll(termStore.pageVariables.get(page));
+        }
+
+        Set<Integer> twoHops = new HashSet<Integer>(oneHop);
+        twoHops.addAll(termStore.getPagesWithVariables(oneHopVariables));
+        assertTrue(twoHops.size() > oneHop.size());
+
+        assertTrue(termStore.selectLocalPages(2));
+        assertEquals(twoHops, termStore.getSelectedPages());
+
+        runPass();
+        assertEquals(twoHops, termStore.readPages);
+        termStore.clearLocalPages();
+
+        // Nothing changed, so nothing is read.
+        assertTrue(termStore.selectLocalPages(1));
+        assertEquals(0, termStore.getLocalPageCount());
+
+        runPass();
+        assertEquals(0, termStore.readPages.size());
+        termStore.clearLocalPages();
+    }
+
+    /**
+     * Every fullSweepInterval-th selection is a full sweep, even when there are changed variables.
+     */
+    @Test
+    public void testFullSweepInterval() {
+        startTermStore();
+
+        int fullSweepInterval = 3;
+        termStore.setFullSweepInterval(fullSweepInterval);
+
+        for (int i = 1; i <= fullSweepInterval * 3; i++) {
+            markDirty("Alice");
+
+            boolean local = termStore.selectLocalPages(1);
+            runPass();
+            termStore.clearLocalPages();
+
+            if (i % fullSweepInterval == 0) {
+                assertFalse(String.format("Selection %d should be a full sweep.", i), local);
+                assertEquals(termStore.getActivePageCount(), termStore.readPages.size());
+            } else {
+                assertTrue(String.format("Selection %d should be local.", i), local);
+                assertTrue(termStore.readPages.size() < termStore.getActivePageCount());
+            }
+        }
+
+        // Without an interval, selections stay local.
+        termStore.setFullSweepInterval(0);
+        for (int i = 0; i < fullSweepInterval * 2; i++) {
+            markDirty("Alice");
+            assertTrue(termStore.selectLocalPages(1));
+            termStore.clearLocalPages();
+        }
+    }
+
+    /**
+     * The pages of a preempted local pass are read by the next local pass,
+     * and a preempted full pass makes the next selection a full sweep.
+     */
+    @Test
+    public void testPreemptedLocalPages() {
+        startTermStore();
+
+        int variable = markDirty("Alice");
+
+        Set<Integer> oneHop = termStore.getPagesWithVariables(setOf(variable));
+        Set<Integer> oneHopVariables = new HashSet<Integer>();
+        for (Integer page : oneHop) {
+            oneHopVariables.addAll(termStore.pageVariables.get(page));
+        }
+
+        Set<Integer> twoHops = new HashSet<Integer>(oneHop);
+        twoHops.addAll(termStore.getPagesWithVariables(oneHopVariables));
+
+        // Preempt after the first page.
+        termStore.setPreemptionCheck(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return true;
+            }
+        });
+
+        assertTrue(termStore.selectLocalPages(2));
+        termStore.setPreemptible(true);
+        runPass();
+        assertTrue(termStore.isPreempted());
+        assertEquals(1, termStore.readPages.size());
+        termStore.clearLocalPages();
+        termStore.setPreemptible(false);
+
+        // Nothing else changed, but the preempted pages are still selected.
+        assertTrue(termStore.selectLocalPages(1));
+        assertEquals(twoHops, termStore.getSelectedPages());
+
+        runPass();
+        assertEquals(twoHops, termStore.readPages);
+        termStore.clearLocalPages();
+
+        // The pages are done now.
+        assertTrue(termStore.selectLocalPages(1));
+        assertEquals(0, termStore.getLocalPageCount());
+        termStore.clearLocalPages();
+
+        // A preempted full pass.
+        termStore.setFullSweepInterval(1);
+        assertFalse(termStore.selectLocalPages(1));
+        termStore.setPreemptible(true);
+        runPass();
+        assertTrue(termStore.isPreempted());
+        termStore.clearLocalPages();
+        termStore.setPreemptible(false);
+
+        termStore.setFullSweepInterval(0);
+        assertFalse(termStore.selectLocalPages(1));
+        runPass();
+        assertEquals(termStore.getActivePageCount(), termStore.readPages.size());
+        termStore.clearLocalPages();
+    }
+
+    /**
+     * With mapped pages, every page read is mapped once and the mappings are used across passes,
+     * until their pages are deleted.
+     */
+    @Test
+    public void testMappedPages() {
+        OnlineOptions.ONLINE_MAPPED_PAGES.set(true);
+        startTermStore();
+
+        TermPageMappings termPageMappings = termStore.getTermPageMappings();
+        assertNotNull(termPageMappings);
+
+        int activePages = termStore.getActivePageCount();
+        assertEquals(activePages, termPageMappings.size());
+
+        Map<Integer, Set<Integer>> mappedPageVariables = new HashMap<Integer, Set<Integer>>(termStore.pageVariables);
+        termStore.pageVariables.clear();
+
+        runPass();
+        assertEquals(activePages, termStore.readPages.size());
+        assertEquals(activePages, termPageMappings.size());
+        assertEquals(mappedPageVariables, termStore.pageVariables);
+
+        // Kill every term of the first rule, so its pages are deleted by the next pass.
+        int deletedPages = termStore.getRulePages(modelInfo.model.getRules().get(0)).size();
+        assertTrue(deletedPages > 0);
+        deleteNiceAtoms();
+
+        runPass();
+        assertEquals(activePages - deletedPages, termStore.getActivePageCount());
+        assertEquals(termStore.getActivePageCount(), termPageMappings.size());
+
+        runPass();
+        assertEquals(termStore.getActivePageCount(), termStore.readPages.size());
+        assertEquals(termStore.getActivePageCount(), termPageMappings.size());
+    }
+
+    /**
+     * Every page of a pass after the first is read from a prefetch, including after pages are deleted and compacted.
+     */
+    @Test
+    public void testPrefetchPages() {
+        checkPrefetchPages(false);
+    }
+
+    @Test
+    public void testPrefetchMappedPages() {
+        checkPrefetchPages(true);
+    }
+
+    private void checkPrefetchPages(boolean mappedPages) {
+        OnlineOptions.ONLINE_PREFETCH_PAGES.set(true);
+        OnlineOptions.ONLINE_MAPPED_PAGES.set(mappedPages);
+        startTermStore();
+        termStore.enableCompaction();
+
+        assertNotNull(termStore.getPrefetchExecutor());
+        assertTrue(termStore.getActivePageCount() > 1);
+
+        runPass();
+        assertEquals(termStore.getActivePageCount(), termStore.readPages.size());
+        assertEquals(termStore.getActivePageCount() - 1, termStore.prefetchedPages);
+
+        // Kill some of the terms of the first rule, and compact the pages they were in.
+        deleteNiceAtom("Alice");
+        runPass();
+        assertEquals(termStore.readPages.size() - 1, termStore.prefetchedPages);
+        List<String> liveTerms = termStore.getLiveTerms();
+
+        termStore.compactPages(1.0, 0.0);
+        assertTrue(termStore.getCompactedPageCount() > 0);
+
+        runPass();
+        assertEquals(termStore.getActivePageCount(), termStore.readPages.size());
+        assertEquals(termStore.getActivePageCount() - 1, termStore.prefetchedPages);
+        assertEquals(liveTerms, termStore.getLiveTerms());
+
+        // Kill every term of the first rule, so its pages are deleted by the next pass.
+        int deletedPages = termStore.getRulePages(modelInfo.model.getRules().get(0)).size();
+        deleteNiceAtoms();
+        runPass();
+        assertEquals(termStore.readPages.size() - 1, termStore.prefetchedPages);
+
+        runPass();
+        assertEquals(termStore.getActivePageCount(), termStore.readPages.size());
+        assertEquals(termStore.getActivePageCount() - 1, termStore.prefetchedPages);
+        assertEquals(0, termStore.getRulePages(modelInfo.model.getRules().get(0)).size());
+        assertTrue(deletedPages > 0);
+    }
+
+    /**
+     * Compaction rewrites the pages with dead terms into full pages of exactly their live terms,
+     * and keeps the rule, page, and active page bookkeeping consistent.
+     */
+    @Test
+    public void testCompactPages() {
+        startTermStore();
+        termStore.enableCompaction();
+
+        Rule rule = modelInfo.model.getRules().get(0);
+
+        // Kill some of the terms of the first rule.
+        deleteNiceAtom("Alice");
+        runPass();
+
+        // With a minimum live share of 1.0 (and no minimum fill), exactly the pages with dead terms are compacted.
+        List<Integer> oldRulePages = new ArrayList<Integer>(termStore.getRulePages(rule));
+        List<Integer> compactedPages = new ArrayList<Integer>();
+        List<String> compactedLiveTerms = new ArrayList<String>();
+        int deadTerms = 0;
+        for (Integer page : oldRulePages) {
+            if (termStore.deadTerms.get(page) > 0) {
+                compactedPages.add(page);
+                compactedLiveTerms.addAll(termStore.liveTerms.get(page));
+                deadTerms += termStore.deadTerms.get(page);
+            }
+        }
+        Collections.sort(compactedLiveTerms);
+
+        assertTrue(compactedPages.size() > 0);
+        int writtenPages = (compactedLiveTerms.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+
+        List<String> liveTerms = termStore.getLiveTerms();
+        int activePages = termStore.getActivePageCount();
+
+        int removedPages = termStore.compactPages(1.0, 0.0);
+
+        assertEquals(compactedPages.size(), termStore.getCompactedPageCount());
+        assertEquals(writtenPages, termStore.getWrittenPageCount());
+        assertEquals(deadTerms, termStore.getDroppedTermCount());
+        assertEquals(compactedPages.size() - writtenPages, removedPages);
+        assertEquals(activePages - removedPages, termStore.getActivePageCount());
+        assertTrue(termStore.getSavedBytesPerPass() > 0);
+
+        // Every page belongs to exactly one rule, and the rule pages are exactly the active pages.
+        List<Integer> activeTermPages = termStore.getActiveTermPages();
+        int rulePageCount = 0;
+        for (Rule modelRule : modelInfo.model.getRules()) {
+            for (Integer page : termStore.getRulePages(modelRule)) {
+                assertEquals(modelRule, termStore.getPageRule(page));
+                assertTrue(activeTermPages.contains(page));
+                rulePageCount++;
+            }
+        }
+
+        assertEquals(activeTermPages.size(), rulePageCount);
+        assertEquals(activeTermPages.size(), termStore.getNumPages());
+
+        for (Integer page : compactedPages) {
+            assertFalse(activeTermPages.contains(page));
+            assertNull(termStore.getPageRule(page));
+        }
+
+        // The new pages hold exactly the live terms of the compacted pages, and the other pages are untouched.
+        runPass();
+        assertEquals(termStore.getActivePageCount(), termStore.readPages.size());
+
+        List<String> rewrittenTerms = new ArrayList<String>();
+        for (Integer page : termStore.getRulePages(rule)) {
+            assertEquals(0, (int)termStore.deadTerms.get(page));
+            if (!oldRulePages.contains(page)) {
+                rewrittenTerms.addAll(termStore.liveTerms.get(page));
+            }
+        }
+        Collections.sort(rewrittenTerms);
+
+        assertEquals(compactedLiveTerms, rewrittenTerms);
+        assertEquals(liveTerms, termStore.getLiveTerms());
+
+        // Nothing is left to compact.
+        assertEquals(0, termStore.compactPages(1.0, 0.0));
+        assertEquals(compactedPages.size(), termStore.getCompactedPageCount());
+        assertEquals(deadTerms, termStore.getDroppedTermCount());
+    }
+
+    /**
+     * Create the term store (with the options set so far), ground it, and make the full pass that indexes every page.
+     */
+    private void startTermStore() {
+        termStore = new RecordingTermStore(modelInfo.model.getRules(), atomManager);
+        termStore.ensureVariableCapacity(atomManager.getCachedRVACount() + atomManager.getCachedObsCount());
+        termStore.enablePageIndex();
+
+        runPass();
+        assertFalse(termStore.selectLocalPages(1));
+        runPass();
+        termStore.clearLocalPages();
+    }
+
+    /**
+     * Make a full pass over the terms (the selected ones, if a local optimization is selected).
+     */
+    private void runPass() {
+        termStore.readPages.clear();
+        termStore.liveTerms.clear();
+        termStore.deadTerms.clear();
+        termStore.prefetchedPages = 0;
+
+        Iterator<SGDObjectiveTerm> iterator = termStore.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+    }
+
+    /**
+     * Change the Nice observation of a person and return its variable index.
+     */
+    private int markDirty(String person) {
+        ObservedAtom atom = (ObservedAtom)atomManager.getAtom(modelInfo.predicates.get("Nice"), new UniqueStringID(person));
+        termStore.updateLocalVariable(atom, atom.getValue());
+
+        int variable = termStore.getVariable(atom);
+        assertTrue(variable >= 0);
+        return variable;
+    }
+
+    /**
+     * Delete the Nice atom of a person from the term store, killing the terms of the first rule that use it.
+     */
+    private void deleteNiceAtom(String person) {
+        termStore.deleteLocalVariable(atomManager.getAtom(modelInfo.predicates.get("Nice"), new UniqueStringID(person)));
+    }
+
+    /**
+     * Delete every Nice atom from the term store, killing the terms of the first rule (and only those).
+     */
+    private void deleteNiceAtoms() {
+        for (GroundAtom atom : atomManager.getCachedAtoms(modelInfo.predicates.get("Nice"))) {
+            termStore.deleteLocalVariable(atom);
+        }
+    }
+
+    private static Set<Integer> setOf(int value) {
+        Set<Integer> values = new HashSet<Integer>();
+        values.add(value);
+        return values;
+    }
+
+    /**
+     * An SGD online term store that records the variables of every page, the pages and terms read by the last pass,
+     * and the pages the last pass got from a prefetch, independently of the store's own bookkeeping.
+     */
+    private static class RecordingTermStore extends SGDOnlineTermStore {
+        // Keyed by term page.
+        public Map<Integer, Set<Integer>> pageVariables;
+        public Set<Integer> readPages;
+        // The live terms (as their variables) and the number of dead terms of every page read by the last pass.
+        public Map<Integer, List<String>> liveTerms;
+        public Map<Integer, Integer> deadTerms;
+        public int prefetchedPages;
+
+        public RecordingTermStore(List<Rule> rules, AtomManager atomManager) {
+            super(rules, atomManager, new SGDTermGenerator(false));
+
+            pageVariables = new HashMap<Integer, Set<Integer>>();
+            readPages = new HashSet<Integer>();
+            liveTerms = new HashMap<Integer, List<String>>();
+            deadTerms = new HashMap<Integer, Integer>();
+            prefetchedPages = 0;
+        }
+
+        @Override
+        public StreamingIterator<SGDObjectiveTerm> getCacheIterator() {
+            return new SGDOnlineCacheIterator(
+                    this, false, termCache, termPool,
+                    termBuffer, volatileBuffer, shufflePage, shuffleMap, randomizePageAccess, numPages) {
+                @Override
+                protected ByteBuffer takePrefetchedPage(String termPagePath) {
+                    ByteBuffer page = super.takePrefetchedPage(termPagePath);
+                    if (page != null) {
+                        prefetchedPages++;
+                    }
+
+                    return page;
+                }
+            };
+        }
+
+        @Override
+        public boolean rejectCacheTerm(SGDObjectiveTerm term, int pageIndex) {
+            Integer page = activeTermPages.get(pageIndex);
+            readPages.add(page);
+
+            Set<Integer> variables = pageVariables.get(page);
+            if (variables == null) {
+                variables = new HashSet<Integer>();
+                pageVariables.put(page, variables);
+            }
+
+            int[] variableIndexes = term.getVariableIndexes();
+            for (int i = 0; i < term.size(); i++) {
+                variables.add(variableIndexes[i]);
+            }
+
+            if (!liveTerms.containsKey(page)) {
+                liveTerms.put(page, new ArrayList<String>());
+                deadTerms.put(page, 0);
+            }
+
+            if (isDeadTerm(term)) {
+                deadTerms.put(page, deadTerms.get(page) + 1);
+            } else {
+                liveTerms.get(page).add(Arrays.toString(Arrays.copyOf(variableIndexes, term.size())));
+            }
+
+            return super.rejectCacheTerm(term, pageIndex);
+        }
+
+        /**
+         * Get all the live terms read by the last pass, sorted.
+         */
+        public List<String> getLiveTerms() {
+            List<String> terms = new ArrayList<String>();
+            for (List<String> pageTerms : liveTerms.values()) {
+                terms.addAll(pageTerms);
+            }
+
+            Collections.sort(terms);
+            return terms;
+        }
+
+        public int getVariable(GroundAtom atom) {
+            for (int i = 0; i < totalVariableCount; i++) {
+                if (atom.equals(variableAtoms[i])) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Get the active pages that have a term using any of the given variables.
+         */
+        public Set<Integer> getPagesWithVariables(Set<Integer> variables) {
+            Set<Integer> pages = new HashSet<Integer>();
+            for (Integer page : activeTermPages) {
+                for (Integer variable : pageVariables.get(page)) {
+                    if (variables.contains(variable)) {
+                        pages.add(page);
+                        break;
+                    }
+                }
+            }
+
+            return pages;
+        }
+
+        public List<Integer> getRulePages(Rule rule) {
+            return rulePageMapping.get(rule);
+        }
+
+        public Rule getPageRule(int page) {
+            return pageRuleMapping.get(page);
+        }
+
+        public List<Integer> getActiveTermPages() {
+            return new ArrayList<Integer>(activeTermPages);
+        }
+
+        public int getNumPages() {
+            return numPages;
+        }
+
+        public Set<Integer> getSelectedPages() {
+            Set<Integer> pages = new HashSet<Integer>();
+            for (int i = 0; i < getActivePageCount(); i++) {
+                if (isPageSelected(i)) {
+                    pages.add(activeTermPages.get(i));
+                }
+            }
+
+            return pages;
+        }
+    }
+}